@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+
+/**
+ * Helper methods shared by the benchmarks
+ *
+ * @version $Revision$
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * @return the URL of the given script next to the benchmarks
+     */
+    public static URL getScript(String name) {
+        URL url = BenchmarkSupport.class.getResource(name);
+        if (url == null) {
+            throw new IllegalArgumentException("No such benchmark script: " + name);
+        }
+        return url;
+    }
+
+    /**
+     * @return the content of the given script, so that it can be parsed
+     *  without touching the file system
+     */
+    public static byte[] readScript(String name) throws IOException {
+        InputStream in = getScript(name).openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the given script compiled by a new context
+     */
+    public static Script compileScript(String name) throws JellyException {
+        return new JellyContext().compileScript(getScript(name));
+    }
+
+    /**
+     * @return a new context holding the variables used by the benchmark scripts
+     */
+    public static JellyContext createContext(int rowCount) {
+        JellyContext context = new JellyContext();
+        context.setVariable("rows", createRows(rowCount));
+        context.setVariable("customer", "James");
+        context.setVariable("title", "Benchmark");
+        context.setVariable("count", new Integer(3));
+        context.setVariable("maven.home.dir", "/usr/local/maven");
+        return context;
+    }
+
+    /**
+     * @return the given number of rows with predictable names and prices
+     */
+    public static List createRows(int count) {
+        List rows = new ArrayList(count);
+        for (int i = 0; i < count; i++) {
+            Map address = new HashMap();
+            address.put("city", i % 2 == 0 ? "London" : "Paris");
+            rows.add(new Row("row" + i, (i * 37) % 100, address));
+        }
+        return rows;
+    }
+
+    /**
+     * @return an XMLOutput which serializes its events and then discards them
+     */
+    public static XMLOutput createOutput() {
+        return XMLOutput.createXMLOutput(new NullWriter());
+    }
+
+    /**
+     * A bean used as the items of the benchmark scripts
+     */
+    public static class Row {
+        private final String name;
+        private final double price;
+        private final Map address;
+
+        public Row(String name, double price, Map address) {
+            this.name = name;
+            this.price = price;
+            this.address = address;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public Map getAddress() {
+            return address;
+        }
+    }
+
+    /**
+     * A Writer which counts and then discards its output, so that the
+     * serialization cost is measured without any I/O
+     */
+    public static class NullWriter extends Writer {
+        private long count;
+
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        public void write(int c) {
+            count++;
+        }
+
+        public void write(String text, int offset, int length) {
+            count += length;
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.jelly.DynaTagSupport;
+import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.TagLibrary;
+import org.apache.commons.jelly.TagSupport;
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.SAXException;
+
+/**
+ * The tags used by the benchmark scripts: a bean tag whose attributes are
+ * set via its properties and a DynaTag whose attributes are set by name.
+ *
+ * @version $Revision$
+ */
+public class BenchmarkTagLibrary extends TagLibrary {
+
+    public BenchmarkTagLibrary() {
+        registerTag("bean", BeanTag.class);
+        registerTag("dyna", DynaTag.class);
+    }
+
+    /**
+     * A tag with typed bean properties which outputs its name and then
+     * its body
+     */
+    public static class BeanTag extends TagSupport {
+        private String name;
+        private int count;
+        private double price;
+
+        public void doTag(XMLOutput output) throws JellyTagException {
+            try {
+                output.write(name);
+                output.write(count * price > 0 ? "+" : "-");
+            }
+            catch (SAXException e) {
+                throw new JellyTagException(e);
+            }
+            invokeBody(output);
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public void setPrice(double price) {
+            this.price = price;
+        }
+    }
+
+    /**
+     * A DynaTag which outputs the number of attributes it was given and
+     * then its body
+     */
+    public static class DynaTag extends DynaTagSupport {
+        private final Map attributes = new HashMap();
+
+        public void doTag(XMLOutput output) throws JellyTagException {
+            try {
+                output.write(String.valueOf(attributes.size()));
+            }
+            catch (SAXException e) {
+                throw new JellyTagException(e);
+            }
+            invokeBody(output);
+        }
+
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+        }
+    }
+}
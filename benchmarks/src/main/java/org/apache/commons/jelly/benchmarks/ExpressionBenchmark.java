@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.expression.CompositeExpression;
+import org.apache.commons.jelly.expression.Expression;
+import org.apache.commons.jelly.expression.jexl.JexlExpression;
+import org.apache.commons.jelly.expression.jexl.JexlExpressionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures evaluating expressions: through the Jexl interpreter, through
+ * the expressions created by {@link JexlExpressionFactory} and as part of
+ * a {@link CompositeExpression}.
+ *
+ * @version $Revision$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpressionBenchmark {
+
+    @Param({"customer", "rows[0].name", "rows[1].address.city", "maven.home.dir", "count * 2"})
+    private String text;
+
+    private JellyContext context;
+    private Expression interpreted;
+    private Expression factory;
+    private Expression composite;
+
+    @Setup
+    public void setUp() throws Exception {
+        context = BenchmarkSupport.createContext(2);
+        JexlExpressionFactory expressionFactory = new JexlExpressionFactory();
+        interpreted = new JexlExpression(org.apache.commons.jexl.ExpressionFactory.createExpression(text));
+        factory = expressionFactory.createExpression(text);
+        composite = CompositeExpression.parse("Value: ${" + text + "}.", expressionFactory);
+    }
+
+    @Benchmark
+    public Object jexl() {
+        return interpreted.evaluate(context);
+    }
+
+    @Benchmark
+    public Object factory() {
+        return factory.evaluate(context);
+    }
+
+    @Benchmark
+    public String composite() {
+        return composite.evaluateAsString(context);
+    }
+}
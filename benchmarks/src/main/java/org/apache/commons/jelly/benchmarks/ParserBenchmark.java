@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.parser.XMLParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+
+/**
+ * Measures how quickly scripts are parsed by a new {@link XMLParser},
+ * read from their compiled form, and compiled by a {@link JellyContext},
+ * which reuses pooled parsers.
+ *
+ * @version $Revision$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+
+    @Param({"catalog.jelly", "tags.jelly"})
+    private String script;
+
+    private byte[] content;
+
+    private byte[] compiledContent;
+
+    @Setup
+    public void setUp() throws Exception {
+        content = BenchmarkSupport.readScript(script);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new XMLParser().parse(new InputSource(new ByteArrayInputStream(content)), out);
+        compiledContent = out.toByteArray();
+    }
+
+    @Benchmark
+    public Script parse() throws Exception {
+        XMLParser parser = new XMLParser();
+        parser.setContext(new JellyContext());
+        return parser.parse(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public Script parseCompiled() throws Exception {
+        XMLParser parser = new XMLParser();
+        parser.setContext(new JellyContext());
+        return parser.parseCompiled(new ByteArrayInputStream(compiledContent), script);
+    }
+
+    @Benchmark
+    public Script compile() throws Exception {
+        return new JellyContext().compileScript(new InputSource(new ByteArrayInputStream(content)));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures several threads running one compiled script, each with its own
+ * context and output, as a servlet serving the same page does.
+ *
+ * @version $Revision$
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SharedScriptBenchmark {
+
+    /** The script shared by all the threads */
+    @State(Scope.Benchmark)
+    public static class SharedScript {
+        Script script;
+
+        @Setup
+        public void setUp() throws Exception {
+            script = BenchmarkSupport.compileScript("catalog.jelly");
+        }
+    }
+
+    /** The context and output of one thread */
+    @State(Scope.Thread)
+    public static class Request {
+        JellyContext context;
+        XMLOutput output;
+
+        @Setup
+        public void setUp() {
+            context = BenchmarkSupport.createContext(20);
+            output = BenchmarkSupport.createOutput();
+        }
+    }
+
+    @Benchmark
+    public XMLOutput run(SharedScript shared, Request request) throws Exception {
+        shared.script.run(request.context, request.output);
+        return request.output;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Measures serializing a document of 100 elements through an XMLOutput
+ * backed by a dom4j XMLWriter and by an XMLSerializer.
+ *
+ * @version $Revision$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class XMLOutputBenchmark {
+
+    @Param({"xmlWriter", "serializer"})
+    private String writer;
+
+    private AttributesImpl attributes;
+    private char[] text;
+
+    @Setup
+    public void setUp() {
+        attributes = new AttributesImpl();
+        attributes.addAttribute("", "id", "id", "CDATA", "item-1");
+        attributes.addAttribute("", "title", "title", "CDATA", "Fish & Chips");
+        text = "Some text with <markup> & an \u00e9 to escape".toCharArray();
+    }
+
+    @Benchmark
+    public long serialize() throws Exception {
+        BenchmarkSupport.NullWriter out = new BenchmarkSupport.NullWriter();
+        XMLOutput output = "serializer".equals(writer)
+            ? XMLOutput.createSerializingXMLOutput(out, true)
+            : XMLOutput.createXMLOutput(out, true);
+        output.startDocument();
+        output.startElement("", "items", "items", new AttributesImpl());
+        for (int i = 0; i < 100; i++) {
+            output.startElement("", "item", "item", attributes);
+            output.characters(text, 0, text.length);
+            output.endElement("", "item", "item");
+        }
+        output.endElement("", "items", "items");
+        output.endDocument();
+        output.flush();
+        return out.getCount();
+    }
+}
@@ -26,7 +26,9 @@ import java.net.URL;
 import java.util.Enumeration;
 import java.util.Properties;
 
+import org.apache.commons.jelly.impl.CompileStatistics;
 import org.apache.commons.jelly.parser.XMLParser;
+import org.apache.commons.jelly.parser.XMLParserPool;
 import org.apache.commons.jelly.util.ClassLoaderUtils;
 import org.apache.commons.jelly.util.CommandLineParser;
 import org.apache.commons.logging.Log;
@@ -140,26 +142,44 @@ public class Jelly {
             loadJellyProperties();
         }
         
-        XMLParser parser = new XMLParser();
+        // parsers using a default namespace are configured differently so are not pooled
+        XMLParserPool pool = XMLParserPool.getSharedInstance();
+        XMLParser parser = null;
+        if (this.defaultNamespaceURI == null) {
+            parser = pool.borrowParser(this.validateXML, false);
+        }
+        if (parser == null) {
+            parser = new XMLParser();
+            parser.setDefaultNamespaceURI(this.defaultNamespaceURI);
+            parser.setValidating(this.validateXML);
+        }
+        JellyContext jellyContext;
         try {
-            parser.setContext(getJellyContext());
+            jellyContext = getJellyContext();
+            parser.setContext(jellyContext);
         } catch (MalformedURLException e) {
+            pool.returnParser(parser);
             throw new JellyException(e.toString());
         }
         
         Script script = null;
         try {
-            parser.setDefaultNamespaceURI(this.defaultNamespaceURI);
-            parser.setValidating(this.validateXML);
-            script = parser.parse(getUrl());
+            if (jellyContext.isUseCompiledScripts()) {
+                script = parser.parseCompiled(getUrl());
+            }
+            if (script == null) {
+                script = parser.parse(getUrl());
+            }
             script = script.compile();
             if (log.isDebugEnabled()) {
-               log.debug("Compiled script: " + getUrl());
+               log.debug("Compiled script: " + getUrl() + " " + new CompileStatistics(script));
             }
         } catch (IOException e) {
             throw new JellyException("could not parse Jelly script",e);
         } catch (SAXException e) {
             throw new JellyException("could not parse Jelly script",e);
+        } finally {
+            pool.returnParser(parser);
         }
         
         return script;
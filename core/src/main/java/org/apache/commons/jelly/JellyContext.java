@@ -21,11 +21,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.jelly.impl.ScriptCache;
+import org.apache.commons.jelly.impl.TagListener;
 import org.apache.commons.jelly.parser.XMLParser;
+import org.apache.commons.jelly.parser.XMLParserPool;
 import org.apache.commons.jelly.util.ClassLoaderUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -56,6 +63,30 @@ public class JellyContext {
     /** String used to denote a script can't be parsed */
     private static final String BAD_PARSE = "Could not parse Jelly script";
 
+    /**
+     * The scope type which keeps variables and tag libraries in a
+     * synchronized Hashtable, the default
+     */
+    public static final int SYNCHRONIZED_SCOPE = 0;
+
+    /**
+     * The scope type which keeps variables and tag libraries in an
+     * unsynchronized HashMap, for contexts only used by one thread at a time
+     */
+    public static final int UNSYNCHRONIZED_SCOPE = 1;
+
+    /**
+     * The scope type which keeps variables and tag libraries in a
+     * ConcurrentHashMap, for contexts shared by many threads
+     */
+    public static final int CONCURRENT_SCOPE = 2;
+
+    /**
+     * Whether each JellyContext class overloads how XMLParsers are created,
+     * in which case its parsers are not put in the shared pool
+     */
+    private static final Map customParserClasses = Collections.synchronizedMap(new WeakHashMap());
+
     /**
      * The class loader to use for instantiating application objects.
      * If not specified, the context class loader, or the class loader
@@ -82,6 +113,9 @@ public class JellyContext {
     /** synchronized access to the variables in scope */
     private Map variables = new Hashtable();
 
+    /** The type of Map holding the variables and tag libraries */
+    private int scopeType = SYNCHRONIZED_SCOPE;
+
     /** The parent context */
     private JellyContext parent;
 
@@ -99,6 +133,21 @@ public class JellyContext {
 
     /** Should we cache Tag instances, per thread, to reduce object construction overhead? */
     private boolean cacheTags = false;
+
+    /** The optional cache of compiled scripts, keyed by URL */
+    private ScriptCache scriptCache;
+
+    /** The object the expression language keeps to evaluate expressions against this context */
+    private Object expressionContext;
+
+    /** The pool of XMLParsers used to compile scripts, or null to use the shared pool */
+    private XMLParserPool xmlParserPool;
+
+    /** Should scripts be read from their compiled form when it is up to date? */
+    private boolean useCompiledScripts = true;
+
+    /** The optional listener notified as each tag is run */
+    private TagListener tagListener;
     
     /**
      * True if exceptions should be suppressed; introduced in 1.1 beta and immediately deprecated
@@ -147,8 +196,17 @@ public class JellyContext {
         this.parent = parent;
         this.rootURL = parent.rootURL;
         this.currentURL = parent.currentURL;
+        if (parent.scopeType != SYNCHRONIZED_SCOPE) {
+            this.scopeType = parent.scopeType;
+            this.variables = createScopeMap(null);
+            this.taglibs = createScopeMap(null);
+        }
         this.variables.put("parentScope", parent.variables);
         this.cacheTags = parent.cacheTags;
+        this.scriptCache = parent.scriptCache;
+        this.xmlParserPool = parent.xmlParserPool;
+        this.useCompiledScripts = parent.useCompiledScripts;
+        this.tagListener = parent.tagListener;
         this.suppressExpressionExceptions = parent.suppressExpressionExceptions;
         init();
     }
@@ -226,11 +284,12 @@ public class JellyContext {
 
         if (definedHere) return answer;
 
-        if ( answer == null && parent != null ) {
+        if ( parent != null ) {
+            // the parent falls back to the system properties itself
             answer = parent.findVariable(name);
         }
         // ### this is a hack - remove this when we have support for pluggable Scopes
-        if ( answer == null ) {
+        else {
             answer = getSystemProperty(name);
         }
 
@@ -248,15 +307,15 @@ public class JellyContext {
 
         if (definedHere) return value;
 
-        if ( value == null && isInherit() ) {
-            JellyContext parentContext = getParent();
-            if (parentContext != null) {
-                value = parentContext.getVariable( name );
-            }
+        JellyContext parentContext = isInherit() ? getParent() : null;
+        if (parentContext != null) {
+            // the parent falls back to the system properties itself, so
+            // they are only looked up once however deep the context is
+            value = parentContext.getVariable( name );
         }
 
         // ### this is a hack - remove this when we have support for pluggable Scopes
-        if ( value == null ) {
+        else {
             value = getSystemProperty(name);
         }
 
@@ -394,6 +453,62 @@ public class JellyContext {
         return createChildContext();
     }
     
+    /**
+     * @return the type of Map holding the variables and tag libraries of
+     *  this context, one of {@link #SYNCHRONIZED_SCOPE},
+     *  {@link #UNSYNCHRONIZED_SCOPE} or {@link #CONCURRENT_SCOPE}
+     */
+    public int getScopeType() {
+        return scopeType;
+    }
+
+    /**
+     * Sets the type of Map holding the variables and tag libraries of this
+     * context, and of the child contexts created from it afterwards. The
+     * variables and tag libraries already defined are kept.
+     * {@link #UNSYNCHRONIZED_SCOPE} avoids the cost of synchronizing for
+     * contexts only used by one thread at a time, while
+     * {@link #CONCURRENT_SCOPE} lets many threads read variables at once.
+     * This should be called before any child contexts are created, as
+     * their <code>parentScope</code> variables refer to the old Map.
+     *
+     * @param scopeType one of {@link #SYNCHRONIZED_SCOPE},
+     *  {@link #UNSYNCHRONIZED_SCOPE} or {@link #CONCURRENT_SCOPE}
+     */
+    public void setScopeType(int scopeType) {
+        if (scopeType < SYNCHRONIZED_SCOPE || scopeType > CONCURRENT_SCOPE) {
+            throw new IllegalArgumentException("Unknown scope type: " + scopeType);
+        }
+        if (scopeType != this.scopeType) {
+            this.scopeType = scopeType;
+            this.variables = createScopeMap(variables);
+            this.taglibs = createScopeMap(taglibs);
+        }
+    }
+
+    /**
+     * Creates a Map of the current scope type
+     *
+     * @param entries the entries to copy into the new Map, or null
+     * @return the new Map
+     */
+    protected Map createScopeMap(Map entries) {
+        Map answer;
+        if (scopeType == UNSYNCHRONIZED_SCOPE) {
+            answer = new HashMap();
+        }
+        else if (scopeType == CONCURRENT_SCOPE) {
+            answer = new ConcurrentHashMap();
+        }
+        else {
+            answer = new Hashtable();
+        }
+        if (entries != null) {
+            answer.putAll(entries);
+        }
+        return answer;
+    }
+
     /** Clears variables set by Tags.
      * @see #clearVariables()
       */
@@ -523,6 +638,8 @@ public class JellyContext {
             throw new JellyException(JellyContext.BAD_PARSE, e);
         } catch (SAXException e) {
             throw new JellyException(JellyContext.BAD_PARSE, e);
+        } finally {
+            releaseXMLParser(parser);
         }
 
         return script.compile();
@@ -531,21 +648,44 @@ public class JellyContext {
     /**
      * Attempts to parse the script from the given URL using the
      * {@link #getResource} method then returns the compiled script.
+     * If a {@link ScriptCache} is configured then a previously compiled
+     * script for the same URL is reused. If the script has been compiled by
+     * a {@link org.apache.commons.jelly.parser.ScriptCompiler} which is up to
+     * date then the compiled form is read rather than the XML.
      */
     public Script compileScript(URL url) throws JellyException {
+        ScriptCache cache = getScriptCache();
+        if (cache != null) {
+            Script script = cache.getScript(url);
+            if (script != null) {
+                return script;
+            }
+        }
+
         XMLParser parser = getXMLParser();
         parser.setContext(this);
 
         Script script = null;
         try {
-            script = parser.parse(url.toString());
+            if (isUseCompiledScripts()) {
+                script = parser.parseCompiled(url);
+            }
+            if (script == null) {
+                script = parser.parse(url.toString());
+            }
         } catch (IOException e) {
             throw new JellyException(JellyContext.BAD_PARSE, e);
         } catch (SAXException e) {
             throw new JellyException(JellyContext.BAD_PARSE, e);
+        } finally {
+            releaseXMLParser(parser);
         }
 
-        return script.compile();
+        script = script.compile();
+        if (cache != null) {
+            cache.putScript(url, script);
+        }
+        return script;
     }
 
     /**
@@ -563,6 +703,8 @@ public class JellyContext {
             throw new JellyException(JellyContext.BAD_PARSE, e);
         } catch (SAXException e) {
             throw new JellyException(JellyContext.BAD_PARSE, e);
+        } finally {
+            releaseXMLParser(parser);
         }
 
         return script.compile();
@@ -573,8 +715,25 @@ public class JellyContext {
      * of the XMLParser
      */
     protected XMLParser getXMLParser() {
-        XMLParser parser = createXMLParser();
-        return parser;
+        XMLParserPool pool = getXMLParserPool();
+        if (pool != null) {
+            XMLParser parser = pool.borrowParser(false, allowDtdToCallExternalEntities);
+            if (parser != null) {
+                return parser;
+            }
+        }
+        return createXMLParser();
+    }
+
+    /**
+     * Called when a script has been parsed to return the parser from
+     * {@link #getXMLParser()} to the pool, if there is one.
+     */
+    protected void releaseXMLParser(XMLParser parser) {
+        XMLParserPool pool = getXMLParserPool();
+        if (pool != null) {
+            pool.returnParser(parser);
+        }
     }
 
     /**
@@ -683,7 +842,16 @@ public class JellyContext {
      */
     public JellyContext runScript(URL url, XMLOutput output,
                           boolean export, boolean inherit) throws JellyException {
-        return runScript(new InputSource(url.toString()), output, export, inherit);
+        Script script = compileScript(url);
+
+        URL newJellyContextURL = null;
+        try {
+            newJellyContextURL = getJellyContextURL(url);
+        } catch (MalformedURLException e) {
+            throw new JellyException(e.toString());
+        }
+
+        return runScript(script, url.toString(), newJellyContextURL, output, export, inherit);
     }
 
     /**
@@ -702,6 +870,17 @@ public class JellyContext {
             throw new JellyException(e.toString());
         }
 
+        return runScript(script, source.getSystemId(), newJellyContextURL, output, export, inherit);
+    }
+
+    /**
+     * Runs the compiled script in a new child context whose root and current
+     * URLs are the given context URL.
+     *
+     * @return the new child context that was used to run the script
+     */
+    private JellyContext runScript(Script script, String systemId, URL newJellyContextURL,
+                          XMLOutput output, boolean export, boolean inherit) throws JellyException {
         JellyContext newJellyContext = newJellyContext();
         newJellyContext.setRootURL( newJellyContextURL );
         newJellyContext.setCurrentURL( newJellyContextURL );
@@ -714,7 +893,7 @@ public class JellyContext {
         }
 
         if (log.isDebugEnabled() ) {
-            log.debug( "About to run script: " + source.getSystemId() );
+            log.debug( "About to run script: " + systemId );
             log.debug( "root context URL: " + newJellyContext.rootURL );
             log.debug( "current context URL: " + newJellyContext.currentURL );
         }
@@ -843,6 +1022,110 @@ public class JellyContext {
         this.cacheTags = cacheTags;
     }
 
+    /**
+     * Returns the cache of compiled scripts used by {@link #compileScript(URL)},
+     * and so by the <code>runScript</code> methods taking a URL, File or uri.
+     *
+     * @return the cache of compiled scripts or null if scripts are always parsed
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Sets the cache of compiled scripts used by {@link #compileScript(URL)}.
+     * Child contexts created after this call share the same cache, so that
+     * scripts imported or included by a script are cached too.
+     *
+     * @param scriptCache the cache to use or null to always parse scripts
+     */
+    public void setScriptCache(ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+    }
+
+    /**
+     * Returns the object which the expression language keeps with this
+     * context so that it is created once and reused by every evaluation,
+     * such as the adapter through which Jexl expressions read variables.
+     *
+     * @return the object kept by the expression language or null if it has
+     *  not been created yet
+     */
+    public Object getExpressionContext() {
+        return expressionContext;
+    }
+
+    /**
+     * Sets the object which the expression language keeps with this context.
+     * This is only meant to be called by expression languages.
+     */
+    public void setExpressionContext(Object expressionContext) {
+        this.expressionContext = expressionContext;
+    }
+
+    /**
+     * Returns the pool of XMLParsers used to compile scripts. Unless a pool
+     * has been set, the pool shared by all contexts is used, provided this
+     * class does not overload how parsers are created.
+     *
+     * @return the pool of parsers or null if parsers are not pooled
+     */
+    public XMLParserPool getXMLParserPool() {
+        if (xmlParserPool == null && !hasCustomXMLParser(getClass())) {
+            return XMLParserPool.getSharedInstance();
+        }
+        return xmlParserPool;
+    }
+
+    /**
+     * Sets the pool of XMLParsers used to compile scripts, which is shared
+     * with child contexts created after this call. A pool with a maximum
+     * size of zero disables pooling.
+     *
+     * @param xmlParserPool the pool to use or null to use the shared pool
+     */
+    public void setXMLParserPool(XMLParserPool xmlParserPool) {
+        this.xmlParserPool = xmlParserPool;
+    }
+
+    /**
+     * @return whether {@link #compileScript(URL)} reads the compiled form of
+     * a script, written by a {@link org.apache.commons.jelly.parser.ScriptCompiler},
+     * when it is at least as new as the script
+     */
+    public boolean isUseCompiledScripts() {
+        return useCompiledScripts;
+    }
+
+    /**
+     * Sets whether {@link #compileScript(URL)} reads the compiled form of a
+     * script when it is up to date, which is the default. This is shared with
+     * child contexts created after this call.
+     *
+     * @param useCompiledScripts false to always parse the XML of scripts
+     */
+    public void setUseCompiledScripts(boolean useCompiledScripts) {
+        this.useCompiledScripts = useCompiledScripts;
+    }
+
+    /**
+     * @return the listener notified as each tag is run or null if there is none
+     */
+    public TagListener getTagListener() {
+        return tagListener;
+    }
+
+    /**
+     * Sets the listener notified as each tag is run in this context, which is
+     * shared with child contexts created after this call.
+     *
+     * @param tagListener the listener to notify or null to stop notifying
+     * @see org.apache.commons.jelly.impl.TagMetricsCollector
+     */
+    public void setTagListener(TagListener tagListener) {
+        this.tagListener = tagListener;
+    }
+
     /**
      * Returns whether we export tag libraries to our parents context
      * @return boolean
@@ -1048,4 +1331,33 @@ public class JellyContext {
 		this.suppressExpressionExceptions = suppressExpressionExceptions;
 	}
 
+
+    /**
+     * @return whether the given JellyContext class overloads how XMLParsers are
+     * created, so that its parsers may be configured differently to the default
+     */
+    private static boolean hasCustomXMLParser(Class type) {
+        Boolean answer = (Boolean) customParserClasses.get(type);
+        if (answer == null) {
+            answer = Boolean.FALSE;
+            for (Class c = type; c != JellyContext.class; c = c.getSuperclass()) {
+                if (declaresMethod(c, "createXMLParser") || declaresMethod(c, "getXMLParser")) {
+                    answer = Boolean.TRUE;
+                    break;
+                }
+            }
+            customParserClasses.put(type, answer);
+        }
+        return answer.booleanValue();
+    }
+
+    private static boolean declaresMethod(Class type, String name) {
+        try {
+            type.getDeclaredMethod(name, new Class[0]);
+            return true;
+        }
+        catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
 }
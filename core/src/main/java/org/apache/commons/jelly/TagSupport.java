@@ -261,7 +261,7 @@ public abstract class TagSupport implements Tag {
      * if they are just whitespace then remove them
      */
     protected void trimBody() {
-        TagUtils.trimScript(body);
+        body = TagUtils.getTrimmedScript(body);
     }
 
     /**
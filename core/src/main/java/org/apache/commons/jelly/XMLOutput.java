@@ -21,12 +21,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 
+import org.apache.commons.jelly.util.SerializedXML;
+import org.apache.commons.jelly.util.XMLSerializer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.io.XMLWriter;
@@ -63,6 +60,46 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     /** the default for escaping of text. */
     private static final boolean DEFAULT_ESCAPE_TEXT = false;
 
+    /** The size of the buffer first allocated by {@link #write(String)} */
+    private static final int INITIAL_WRITE_BUFFER_SIZE = 256;
+
+    /** The length of the longest String which is copied into a reused buffer */
+    private static final int MAXIMUM_WRITE_BUFFER_SIZE = 8192;
+
+    /** Flush policy which flushes the output after every tag, the default */
+    public static final int FLUSH_EVERY_TAG = 0;
+
+    /**
+     * Flush policy which only flushes when {@link #flush()} is called,
+     * such as by the &lt;j:flush&gt; tag or at the end of a script
+     */
+    public static final int FLUSH_EXPLICIT = 1;
+
+    /**
+     * Flush policy which flushes after a tag once the output written
+     * since the last flush reaches the flush threshold
+     */
+    public static final int FLUSH_ON_THRESHOLD = 2;
+
+    /**
+     * Flush policy which flushes after a tag once the flush interval
+     * has passed since the last flush
+     */
+    public static final int FLUSH_ON_INTERVAL = 3;
+
+    /**
+     * Flush policy which never flushes, not even when {@link #flush()}
+     * is called, leaving it to {@link #close()} or the owner of the
+     * underlying stream
+     */
+    public static final int FLUSH_NEVER = 4;
+
+    /** The default flush threshold, in characters */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 8192;
+
+    /** The default flush interval, in milliseconds */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
     /** The SAX ContentHandler that output goes to. */
     private ContentHandler contentHandler;
 
@@ -72,6 +109,34 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     /** Stack of known namespaces. */
     private NamespaceStack namespaceStack = new NamespaceStack();
 
+    /**
+     * The buffer the characters of Strings are copied into by {@link #write(String)}.
+     * SAX handlers may not use the array after the characters() call returns,
+     * so it is reused rather than allocating an array for every write.
+     */
+    private char[] writeBuffer;
+
+    /** When the output is flushed */
+    private int flushPolicy = FLUSH_EVERY_TAG;
+
+    /** The number of characters after which a FLUSH_ON_THRESHOLD output is flushed */
+    private int flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+
+    /** The milliseconds after which a FLUSH_ON_INTERVAL output is flushed */
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    /** An estimate of the characters written since the last flush */
+    private int pendingCharacters;
+
+    /** The time of the last flush, or of the first tag flush request */
+    private long lastFlushTime;
+
+    /** The number of times the underlying output has been flushed */
+    private int flushCount;
+
+    /** The number of times a flush was requested after a tag */
+    private int flushRequestCount;
+
     public XMLOutput() {
     }
 
@@ -118,19 +183,173 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     public void close() throws IOException {
     }
 
-    /** Flushes the underlying stream if {@link XMLWriter}
-     * or {@link XMLOutput}.
+    /** Flushes the underlying stream if {@link XMLWriter},
+     * {@link XMLSerializer} or {@link XMLOutput}, unless the
+     * flush policy is {@link #FLUSH_NEVER}.
      *
      * @throws IOException
      */
     public void flush() throws IOException {
+        if (flushPolicy == FLUSH_NEVER) {
+            return;
+        }
+        pendingCharacters = 0;
+        if (flushPolicy == FLUSH_ON_INTERVAL) {
+            lastFlushTime = System.currentTimeMillis();
+        }
         if (contentHandler instanceof XMLWriter) {
+            flushCount++;
             ((XMLWriter)contentHandler).flush();
+        } else if (contentHandler instanceof XMLSerializer) {
+            flushCount++;
+            ((XMLSerializer)contentHandler).flush();
         } else if (contentHandler instanceof XMLOutput) {
+            flushCount++;
             ((XMLOutput)contentHandler).flush();
         }
     }
 
+    /**
+     * Called after each tag has been run, this flushes the output
+     * if the flush policy calls for it.
+     * An XMLOutput which relays its events to another XMLOutput lets
+     * that one decide, so that wrapping an output keeps its policy.
+     *
+     * @throws IOException
+     */
+    public void autoFlush() throws IOException {
+        flushRequestCount++;
+        switch (flushPolicy) {
+            case FLUSH_EVERY_TAG:
+                if (contentHandler instanceof XMLOutput) {
+                    ((XMLOutput) contentHandler).autoFlush();
+                }
+                else {
+                    flush();
+                }
+                break;
+            case FLUSH_ON_THRESHOLD:
+                if (pendingCharacters >= flushThreshold) {
+                    flush();
+                }
+                break;
+            case FLUSH_ON_INTERVAL:
+                long now = System.currentTimeMillis();
+                if (lastFlushTime == 0) {
+                    lastFlushTime = now;
+                }
+                else if (now - lastFlushTime >= flushInterval) {
+                    flush();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the flush policy, one of the FLUSH_ constants
+     */
+    public int getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * Sets when the output is flushed to one of {@link #FLUSH_EVERY_TAG},
+     * {@link #FLUSH_EXPLICIT}, {@link #FLUSH_ON_THRESHOLD},
+     * {@link #FLUSH_ON_INTERVAL} or {@link #FLUSH_NEVER}.
+     * Flushing after every tag makes each tag a separate write to the
+     * underlying stream, so outputs going to a socket or file are
+     * usually better off with one of the others.
+     */
+    public void setFlushPolicy(int flushPolicy) {
+        if (flushPolicy < FLUSH_EVERY_TAG || flushPolicy > FLUSH_NEVER) {
+            throw new IllegalArgumentException("Unknown flush policy: " + flushPolicy);
+        }
+        this.flushPolicy = flushPolicy;
+        this.lastFlushTime = 0;
+    }
+
+    /**
+     * @return the number of characters after which an output using
+     * {@link #FLUSH_ON_THRESHOLD} is flushed
+     */
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    /**
+     * Sets the number of characters after which an output using
+     * {@link #FLUSH_ON_THRESHOLD} is flushed. The characters are
+     * estimated from the text and element names written.
+     */
+    public void setFlushThreshold(int flushThreshold) {
+        this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * @return the milliseconds after which an output using
+     * {@link #FLUSH_ON_INTERVAL} is flushed
+     */
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Sets the milliseconds after which an output using
+     * {@link #FLUSH_ON_INTERVAL} is flushed, which is checked
+     * as each tag completes.
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * @return the number of times this output has flushed the
+     * output it writes to. Flushes of a handler which cannot be
+     * flushed are not counted.
+     */
+    public int getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * @return the number of times a flush was requested after a tag,
+     * whether or not the flush policy flushed the output
+     */
+    public int getFlushRequestCount() {
+        return flushRequestCount;
+    }
+
+    /**
+     * Writes XML which has already been serialized, such as a static part of
+     * a script, if this output writes to an {@link XMLSerializer} which can
+     * write it as it is. The XML must be of elements without namespace
+     * prefixes or declarations, whose namespace must already be the default
+     * namespace of the output so that it does not need to be declared.
+     *
+     * @param namespaceURI the namespace of the elements in the XML
+     * @param xml the serialized XML
+     * @return whether the XML was written, if not its events must be written instead
+     * @throws SAXException if the XML could not be written
+     */
+    public boolean writeSerialized(String namespaceURI, SerializedXML xml) throws SAXException {
+        if (!namespaceStack.isDeclared("", namespaceURI)) {
+            return false;
+        }
+        boolean written = false;
+        if (contentHandler instanceof XMLSerializer) {
+            written = ((XMLSerializer) contentHandler).writeSerialized(xml);
+        }
+        else if (contentHandler instanceof XMLOutput) {
+            written = ((XMLOutput) contentHandler).writeSerialized(namespaceURI, xml);
+        }
+        if (written) {
+            pendingCharacters += xml.getCharacters(true).length;
+        }
+        return written;
+    }
+
     // Static helper methods
     //-------------------------------------------------------------------------
 
@@ -205,6 +424,54 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         return createXMLOutput(xmlWriter);
     }
 
+    /**
+     * Creates a text based XMLOutput which serializes all XML events
+     * directly to the underlying Writer using an {@link XMLSerializer},
+     * rather than via a dom4j XMLWriter.
+     *
+     * @param writer is the writer to output to
+     * @param escapeText is whether or not text output will be escaped. This must be true
+     *   if the underlying output is XML or could be false if the underlying output is textual.
+     */
+    public static XMLOutput createSerializingXMLOutput(Writer writer, boolean escapeText) {
+        XMLSerializer serializer = new XMLSerializer(writer);
+        serializer.setEscapeText(escapeText);
+        return createXMLOutput(serializer);
+    }
+
+    /**
+     * Creates a text based XMLOutput which serializes all XML events
+     * directly to the underlying OutputStream in UTF-8 using an
+     * {@link XMLSerializer}, rather than via a dom4j XMLWriter.
+     *
+     * @param out is the output stream to write
+     * @param escapeText is whether or not text output will be escaped. This must be true
+     * if the underlying output is XML or could be false if the underlying output is textual.
+     */
+    public static XMLOutput createSerializingXMLOutput(OutputStream out, boolean escapeText) {
+        XMLSerializer serializer = new XMLSerializer(out);
+        serializer.setEscapeText(escapeText);
+        return createXMLOutput(serializer);
+    }
+
+    /**
+     * Creates a text based XMLOutput which serializes all XML events
+     * directly to the underlying OutputStream in the given encoding using an
+     * {@link XMLSerializer}, rather than via a dom4j XMLWriter.
+     *
+     * @param out is the output stream to write
+     * @param encoding is the character encoding to write
+     * @param escapeText is whether or not text output will be escaped. This must be true
+     * if the underlying output is XML or could be false if the underlying output is textual.
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    public static XMLOutput createSerializingXMLOutput(OutputStream out, String encoding, boolean escapeText)
+            throws UnsupportedEncodingException {
+        XMLSerializer serializer = new XMLSerializer(out, encoding);
+        serializer.setEscapeText(escapeText);
+        return createXMLOutput(serializer);
+    }
+
     /**
      * returns an XMLOutput object that will discard all
      * tag-generated XML events.  Useful when tag output is not expected
@@ -225,8 +492,26 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
      * Any special XML characters should come out properly escaped.
      */
     public void write(String text) throws SAXException {
-        char[] ch = text.toCharArray();
-        characters(ch, 0, ch.length);
+        int length = text.length();
+        char[] ch = writeBuffer;
+        if ( ch == null || length > ch.length ) {
+            if ( length > MAXIMUM_WRITE_BUFFER_SIZE ) {
+                ch = text.toCharArray();
+                characters(ch, 0, length);
+                return;
+            }
+            ch = new char[Math.max(length, INITIAL_WRITE_BUFFER_SIZE)];
+        }
+        text.getChars(0, length, ch, 0);
+
+        // a nested call to write() while the buffer is in use allocates its own buffer
+        writeBuffer = null;
+        try {
+            characters(ch, 0, length);
+        }
+        finally {
+            writeBuffer = ch;
+        }
     }
 
     /**
@@ -235,8 +520,7 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
      */
     public void writeCDATA(String text) throws SAXException {
         startCDATA();
-        char[] ch = text.toCharArray();
-        characters(ch, 0, ch.length);
+        write(text);
         endCDATA();
     }
 
@@ -490,6 +774,7 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         }
 
         contentHandler.startElement(uri, localName, qName, atts);
+        pendingCharacters += qName.length() + 2;
         // Inform namespaceStack of a new depth
         namespaceStack.increaseLevel();
     }
@@ -518,6 +803,7 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     public void endElement(String uri, String localName, String qName)
         throws SAXException {
         contentHandler.endElement(uri, localName, qName);
+        pendingCharacters += qName.length() + 3;
         // Inform namespaceStack to return to previous depth
         namespaceStack.decreaseLevel();
         namespaceStack.popNamespaces();
@@ -568,6 +854,7 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
      */
     public void characters(char[] ch, int start, int length) throws SAXException {
         contentHandler.characters(ch, start, length);
+        pendingCharacters += length;
     }
 
     /**
@@ -597,6 +884,7 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     public void ignorableWhitespace(char[] ch, int start, int length)
         throws SAXException {
         contentHandler.ignorableWhitespace(ch, start, length);
+        pendingCharacters += length;
     }
 
     /**
@@ -914,22 +1202,60 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         return answer;
     }
 
+    /**
+     * Factory method to create a new XMLOutput from an XMLSerializer
+     */
+    protected static XMLOutput createXMLOutput(final XMLSerializer serializer) {
+        XMLOutput answer = new XMLOutput() {
+            public void close() throws IOException {
+                serializer.close();
+            }
+        };
+        answer.setContentHandler(serializer);
+        answer.setLexicalHandler(serializer);
+        return answer;
+    }
+
+    /**
+     * The namespace prefixes declared by the elements currently being output.
+     * The prefix/URI pairs are kept in arrays in the order they were declared,
+     * with the index of the first pair of each depth, so that changing depth
+     * allocates nothing for elements which do not declare namespaces.
+     */
     private final class NamespaceStack {
-        /** A list of maps: Each map contains prefix->uri mapping */
-        private List nsStack;
+        /** The declared prefixes, the most recently declared last */
+        private String[] prefixes = new String[16];
 
-        private NamespaceStack() {
-            this.nsStack = new ArrayList();
-            this.nsStack.add(new HashMap());
-        }
+        /** The URI of each declared prefix */
+        private String[] uris = new String[16];
+
+        /** The number of declared prefixes */
+        private int size;
+
+        /** The index in prefixes of the first declaration of each depth */
+        private int[] levelStarts = new int[16];
+
+        /** The current depth, where 0 is outside the root element */
+        private int depth;
 
         private boolean isRootNodeDefaultNs(String prefix, String uri) {
-            return ("".equals(prefix) && "".equals(uri) && nsStack.size() == 1);
+            return ("".equals(prefix) && "".equals(uri) && depth == 0);
         }
 
-        public void pushNamespace(String prefix, String uri) throws SAXException {
-            Map prefixUriMap;
+        /**
+         * @return whether pushing the prefix for the URI would not need
+         * to declare it, as it is already declared or is the default
+         */
+        public boolean isDeclared(String prefix, String uri) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (prefix.equals(prefixes[i])) {
+                    return uri.equals(uris[i]);
+                }
+            }
+            return isRootNodeDefaultNs(prefix, uri);
+        }
 
+        public void pushNamespace(String prefix, String uri) throws SAXException {
             if (prefix == null) {
                 prefix = "";
             }
@@ -943,67 +1269,58 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
                 return;
             }
 
-
             // Lets find out if we already declared this same prefix,
-            // if not declare in current depth map (the first of list)
+            // if not declare in current depth
             // and call contentHandler.startPrefixMapping(prefix, uri);
-            boolean isNew = true;
-            for (Iterator iter = nsStack.iterator(); iter.hasNext();) {
-                prefixUriMap = (Map) iter.next();
-                if (prefixUriMap.containsKey(prefix)) {
-                    if (uri.equals(prefixUriMap.get(prefix))) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (prefix.equals(prefixes[i])) {
+                    if (uri.equals(uris[i])) {
                         // Its an active namespace already
-                        // System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.pushNamespace() IS NOT NEW prefix="+prefix+",uri="+uri);
-                        isNew = false;
+                        return;
+                    }
+                    // Sanity check: Don't let two prefixes for different uris in
+                    // same depth
+                    if (i >= levelStarts[depth]) {
+                        throw new SAXException("Cannot set same prefix to different URI in same node: trying to add prefix \""
+                                + prefix + "\" for uri \""+uri+"\" whereas the declared ones are " + currentLevelToString());
                     }
-                    // We found it in stack
-                    // If it was exactly the same, we won't bother
                     break;
                 }
             }
 
-            if (isNew) {
-                // not declared sometime before
-                prefixUriMap = (Map) nsStack.get(0); // Current depth map
-                // Sanity check: Don't let two prefixes for different uris in
-                // same depth
-                if (prefixUriMap.containsKey(prefix)) {
-                    if (!uri.equals(prefixUriMap.get(prefix))) {
-                        throw new SAXException("Cannot set same prefix to different URI in same node: trying to add prefix \""
-                                + prefix + "\" for uri \""+uri+"\" whereas the declared ones are " + prefixUriMap);
-                    }
-                } else {
-                    prefixUriMap.put(prefix, uri);
-
-                    // To avoid setting xmlns="" for top node (not very nice :D)
-                    // We need to specifically check this condition
-                    if (!isRootNodeDefaultNs(prefix, uri)) {
-//                        System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.pushNamespace() prefix="+prefix+",uri="+uri);
-                        contentHandler.startPrefixMapping(prefix, uri);
-                    }
-                }
+            if (size == prefixes.length) {
+                prefixes = grow(prefixes);
+                uris = grow(uris);
+            }
+            prefixes[size] = prefix;
+            uris[size] = uri;
+            size++;
+
+            // To avoid setting xmlns="" for top node (not very nice :D)
+            // We need to specifically check this condition
+            if (!isRootNodeDefaultNs(prefix, uri)) {
+                contentHandler.startPrefixMapping(prefix, uri);
             }
         }
 
         public void popNamespaces() throws SAXException {
-            Map prefixUriMap = (Map)nsStack.get(0);
-            for (Iterator iter = prefixUriMap.keySet().iterator();iter.hasNext();) {
-                String prefix = (String)iter.next();
-                String uri = (String) prefixUriMap.get(prefix);
-                iter.remove();
+            int start = levelStarts[depth];
+            while (size > start) {
+                size--;
+                String prefix = prefixes[size];
+                String uri = uris[size];
+                prefixes[size] = null;
+                uris[size] = null;
 
                 // If we havent called startPrefixMapping for root node if we wanted to avoid xmlns=""
                 // We aren't going to call endPrefixMapping neither
                 if (!isRootNodeDefaultNs(prefix, uri)) {
-//                    System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.popNamespaces() prefix="+prefix);
                     contentHandler.endPrefixMapping(prefix);
                 }
             }
         }
 
         public void popNamespace(String prefix) throws SAXException {
-            Map prefixUriMap = (Map)nsStack.get(0);
-
             if (prefix == null) {
                 prefix = "";
             }
@@ -1014,27 +1331,61 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
                 return;
             }
 
-            if (prefixUriMap.containsKey(prefix)) {
-                String uri = (String) prefixUriMap.get(prefix);
-                prefixUriMap.remove(prefix);
-                // If we havent called startPrefixMapping for root node if we wanted to avoid xmlns=""
-                // We aren't going to call endPrefixMapping neither
-                if (!isRootNodeDefaultNs(prefix, uri)) {
-//                    System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.popNamespace() prefix="+prefix);
-                    contentHandler.endPrefixMapping(prefix);
+            for (int i = size - 1; i >= levelStarts[depth]; i--) {
+                if (prefix.equals(prefixes[i])) {
+                    String uri = uris[i];
+                    size--;
+                    System.arraycopy(prefixes, i + 1, prefixes, i, size - i);
+                    System.arraycopy(uris, i + 1, uris, i, size - i);
+                    prefixes[size] = null;
+                    uris[size] = null;
+                    // If we havent called startPrefixMapping for root node if we wanted to avoid xmlns=""
+                    // We aren't going to call endPrefixMapping neither
+                    if (!isRootNodeDefaultNs(prefix, uri)) {
+                        contentHandler.endPrefixMapping(prefix);
+                    }
+                    return;
                 }
-            }/* else {
-                improper nesting ? or already removed in popNamespaces
             }
-            */
+            // otherwise improper nesting ? or already removed in popNamespaces
         }
 
         public void decreaseLevel() {
-            nsStack.remove(0);
+            // discard any declarations left at the depth being left
+            int start = levelStarts[depth];
+            while (size > start) {
+                size--;
+                prefixes[size] = null;
+                uris[size] = null;
+            }
+            depth--;
         }
 
         public void increaseLevel() {
-            nsStack.add(0, new HashMap());
+            depth++;
+            if (depth == levelStarts.length) {
+                int[] newLevelStarts = new int[depth * 2];
+                System.arraycopy(levelStarts, 0, newLevelStarts, 0, depth);
+                levelStarts = newLevelStarts;
+            }
+            levelStarts[depth] = size;
+        }
+
+        private String[] grow(String[] array) {
+            String[] answer = new String[array.length * 2];
+            System.arraycopy(array, 0, answer, 0, array.length);
+            return answer;
+        }
+
+        private String currentLevelToString() {
+            StringBuffer buffer = new StringBuffer("{");
+            for (int i = levelStarts[depth]; i < size; i++) {
+                if (i > levelStarts[depth]) {
+                    buffer.append(", ");
+                }
+                buffer.append(prefixes[i]).append('=').append(uris[i]);
+            }
+            return buffer.append('}').toString();
         }
     }
 }
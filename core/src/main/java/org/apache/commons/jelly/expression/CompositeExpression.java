@@ -16,6 +16,7 @@
  */
 package org.apache.commons.jelly.expression;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -26,6 +27,9 @@ import org.apache.commons.collections.iterators.SingletonIterator;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.XMLOutput;
+
+import org.xml.sax.SAXException;
 
 /**
  * <p><code>CompositeExpression</code> is a Composite expression made up of several
@@ -260,16 +264,31 @@ public class CompositeExpression extends ExpressionSupport {
 
     // inherit javadoc from interface
     public String evaluateAsString(JellyContext context) {
-        StringBuffer buffer = new StringBuffer();
+        StringBuilder buffer = new StringBuilder();
+        try {
+            appendAsString(context, buffer);
+        }
+        catch (IOException e) {
+            // cannot happen when appending to a StringBuilder
+            throw new IllegalStateException(e.toString());
+        }
+        return buffer.toString();
+    }
+
+    // inherit javadoc from interface
+    public void writeAsString(JellyContext context, XMLOutput output) throws SAXException {
         for (Iterator iter = expressions.iterator(); iter.hasNext(); ) {
             Expression expression = (Expression) iter.next();
-            String value = expression.evaluateAsString(context);
-            if ( value != null ) {
-                buffer.append( value );
-            }
+            expression.writeAsString(context, output);
         }
-        return buffer.toString();
+    }
 
+    // inherit javadoc from interface
+    public void appendAsString(JellyContext context, Appendable buffer) throws IOException {
+        for (Iterator iter = expressions.iterator(); iter.hasNext(); ) {
+            Expression expression = (Expression) iter.next();
+            expression.appendAsString(context, buffer);
+        }
     }
 
     // inherit javadoc from interface
@@ -16,9 +16,13 @@
  */
 package org.apache.commons.jelly.expression;
 
+import java.io.IOException;
 import java.util.Iterator;
 
 import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.XMLOutput;
+
+import org.xml.sax.SAXException;
 
 /** <p><code>Expression</code> represents an arbitrary expression using some pluggable
   * expression language.</p>
@@ -45,6 +49,21 @@ public interface Expression {
      */
     public String evaluateAsString(JellyContext context);
 
+    /**
+     * Evaluates the expression with the given context coercing the result
+     * to be a String, which is written to the given output. Nothing is written
+     * if the result is null. Expressions made of several parts may write each
+     * part in turn rather than creating an intermediate String.
+     */
+    public void writeAsString(JellyContext context, XMLOutput output) throws SAXException;
+
+    /**
+     * Evaluates the expression with the given context coercing the result
+     * to be a String, which is appended to the given buffer. Nothing is appended
+     * if the result is null.
+     */
+    public void appendAsString(JellyContext context, Appendable buffer) throws IOException;
+
     /**
      * Evaluates the expression with the given context
      * coercing the result to be a boolean.
@@ -16,6 +16,7 @@
  */
 package org.apache.commons.jelly.expression;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Collection;
 import java.util.Enumeration;
@@ -29,8 +30,11 @@ import org.apache.commons.collections.iterators.SingletonIterator;
 
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.lang.StringUtils;
 
+import org.xml.sax.SAXException;
+
 /** <p><code>ExpressionSupport</code>
   * an abstract base class for Expression implementations
   * which provides default implementations of some of the
@@ -57,6 +61,21 @@ public abstract class ExpressionSupport implements Expression {
         return null;
     }
 
+    // inherit javadoc from interface
+    public void writeAsString(JellyContext context, XMLOutput output) throws SAXException {
+        String value = evaluateAsString(context);
+        if ( value != null ) {
+            output.write(value);
+        }
+    }
+
+    // inherit javadoc from interface
+    public void appendAsString(JellyContext context, Appendable buffer) throws IOException {
+        String value = evaluateAsString(context);
+        if ( value != null ) {
+            buffer.append(value);
+        }
+    }
 
     // inherit javadoc from interface
     public Object evaluateRecurse(JellyContext context) {
@@ -45,30 +45,43 @@ public class JexlExpression extends ExpressionSupport {
     /** The Log to which logging calls will be made. */
     private static final Log log = LogFactory.getLog(JexlExpression.class);
 
-    /** The Jexl expression object */
-    private Expression expression;
+    /** The Jexl expression object, or null until it is needed */
+    private volatile Expression expression;
+
+    /** The text of the expression */
+    private final String text;
 
     public JexlExpression(Expression expression) {
         this.expression = expression;
+        this.text = expression.getExpression();
+    }
+
+    /**
+     * Creates an expression which is only parsed by Jexl when it is first
+     * needed, so the text must be a valid Jexl expression
+     *
+     * @param text the text of the expression
+     */
+    protected JexlExpression(String text) {
+        this.text = text;
     }
 
     public String toString() {
-        return super.toString() + "[" + expression.getExpression() + "]";
+        return super.toString() + "[" + text + "]";
     }
 
     // Expression interface
     //-------------------------------------------------------------------------
     public String getExpressionText() {
-        return "${" + expression.getExpression() + "}";
+        return "${" + text + "}";
     }
 
     public Object evaluate(JellyContext context) {
         try {
-            JexlContext jexlContext = new JellyJexlContext( context );
             if (log.isDebugEnabled()) {
-                log.debug("Evaluating EL: " + expression.getExpression());
+                log.debug("Evaluating EL: " + text);
             }
-            Object value = expression.evaluate(jexlContext);
+            Object value = evaluateExpression(context);
 
             if (log.isDebugEnabled()) {
                 log.debug("value of expression: " + value);
@@ -78,7 +91,7 @@ public class JexlExpression extends ExpressionSupport {
         }
         catch (Exception e) {
         	if (context.isSuppressExpressionExceptions()) {
-	            log.warn("Caught exception evaluating: " + expression + ". Reason: " + e, e);
+	            log.warn("Caught exception evaluating: " + text + ". Reason: " + e, e);
 	            return null;
         	} else {
         		if (e instanceof RuntimeException)
@@ -89,6 +102,44 @@ public class JexlExpression extends ExpressionSupport {
         	}
         }
     }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Evaluates the expression, allowing any exception to be thrown so that
+     * it is handled consistently by {@link #evaluate(JellyContext)}
+     */
+    protected Object evaluateExpression(JellyContext context) throws Exception {
+        return getJexlExpression().evaluate( getJexlContext( context ) );
+    }
+
+    /**
+     * @return the Jexl expression object, which is parsed on first use if
+     * this expression was created from its text
+     */
+    protected Expression getJexlExpression() throws Exception {
+        Expression answer = expression;
+        if ( answer == null ) {
+            answer = org.apache.commons.jexl.ExpressionFactory.createExpression( text );
+            expression = answer;
+        }
+        return answer;
+    }
+
+    /**
+     * @return the JexlContext adapter of the given context, which is created on
+     * first use and then kept in the context and reused by every expression
+     * evaluated against it
+     */
+    static JexlContext getJexlContext(JellyContext context) {
+        Object jexlContext = context.getExpressionContext();
+        if ( ! ( jexlContext instanceof JellyJexlContext ) ) {
+            jexlContext = new JellyJexlContext( context );
+            context.setExpressionContext( jexlContext );
+        }
+        return (JexlContext) jexlContext;
+    }
 }
 
 class JellyJexlContext implements JexlContext {
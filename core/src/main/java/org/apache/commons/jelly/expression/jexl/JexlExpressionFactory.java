@@ -17,6 +17,12 @@
 
 package org.apache.commons.jelly.expression.jexl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.JellyTagException;
@@ -38,6 +44,12 @@ import org.apache.commons.jelly.expression.ExpressionFactory;
 
 public class JexlExpressionFactory implements ExpressionFactory {
 
+    /** The reserved words of Jexl which cannot be used as the name of a variable */
+    private static final Set JEXL_KEYWORDS = new HashSet(Arrays.asList(new String[] {
+        "empty", "size", "or", "and", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod",
+        "not", "null", "true", "false", "if", "else", "while", "foreach", "in"
+    }));
+
     /** whether we should allow Ant-style expressions, using dots as part of variable name */
     private boolean supportAntVariables = true;
 
@@ -56,16 +68,24 @@ public class JexlExpressionFactory implements ExpressionFactory {
         return new JexlExpression( expr );
 */
 
-        Expression jexlExpression = null;
+        // variables and property chains are evaluated without the Jexl interpreter,
+        // so are not parsed by Jexl either. Jexl already looks up the dotted name
+        // when a property is null so these also support Ant-style variables
+        String[] names = getPropertyNames(text);
+        if ( names != null ) {
+            return new JexlPropertyExpression(text, names);
+        }
+
+        org.apache.commons.jexl.Expression expr = null;
         try {
             // this method really does throw Exception
-            jexlExpression = new JexlExpression(
-            org.apache.commons.jexl.ExpressionFactory.createExpression(text)
-            );
+            expr = org.apache.commons.jexl.ExpressionFactory.createExpression(text);
         } catch (Exception e) {
             throw new JellyException("Unable to create expression: " + text, e);
         }
 
+        Expression jexlExpression = new JexlExpression(expr);
+
         if ( isSupportAntVariables() && isValidAntVariableName(text) ) {
             return new ExpressionSupportLocal(jexlExpression,text);
         }
@@ -110,6 +130,39 @@ public class JexlExpressionFactory implements ExpressionFactory {
         return true;
     }
 
+    /**
+     * @return the names of the variable and properties if the given text is
+     * a variable name or a chain of properties, such as <code>foo</code> or
+     * <code>foo.bar.name</code>, otherwise null. The names are Jexl identifiers,
+     * which only use ASCII letters, digits, '_' and '$'.
+     */
+    protected String[] getPropertyNames(String text) {
+        List names = new ArrayList();
+        int start = 0;
+        for (int i = 0, size = text.length(); i <= size; i++ ) {
+            if ( i == size || text.charAt(i) == '.' ) {
+                if ( i == start ) {
+                    return null;
+                }
+                String name = text.substring(start, i);
+                if ( JEXL_KEYWORDS.contains(name) ) {
+                    return null;
+                }
+                names.add(name);
+                start = i + 1;
+            }
+            else {
+                char ch = text.charAt(i);
+                boolean valid = ( ch >= 'a' && ch <= 'z' ) || ( ch >= 'A' && ch <= 'Z' )
+                    || ch == '_' || ch == '$' || ( i > start && ch >= '0' && ch <= '9' );
+                if ( ! valid ) {
+                    return null;
+                }
+            }
+        }
+        return (String[]) names.toArray(new String[names.size()]);
+    }
+
     private class ExpressionSupportLocal extends ExpressionSupport {
 
         protected Expression jexlExpression = null;
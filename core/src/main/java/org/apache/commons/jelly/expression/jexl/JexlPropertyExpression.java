@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.expression.jexl;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.jelly.JellyContext;
+
+import org.apache.commons.jexl.parser.ASTArrayAccess;
+import org.apache.commons.jexl.util.Introspector;
+import org.apache.commons.jexl.util.introspection.Info;
+import org.apache.commons.jexl.util.introspection.VelPropertyGet;
+
+/**
+ * <p>A {@link JexlExpression} for a variable name or a chain of properties,
+ * such as <code>${row}</code> or <code>${row.name}</code>, which is
+ * evaluated directly rather than by the Jexl interpreter.</p>
+ *
+ * <p>The result is the same as Jexl would give: the variable is looked up in
+ * the context and then each property is read in turn. Maps are accessed by key
+ * and beans by a getter which is cached for the class last seen at each step.
+ * Whenever a step gives null the dotted name up to that step is looked up as
+ * a variable instead, so that Ant style names such as <code>maven.home</code>
+ * also work.</p>
+ *
+ * @version $Revision$
+ */
+class JexlPropertyExpression extends JexlExpression {
+
+    /** The Info passed to the Jexl introspector, which is only used for logging */
+    private static final Info INFO = new Info("", 1, 1);
+
+    /** The names of the variable and of each property */
+    private final String[] names;
+
+    /** The dotted names of the variable and properties up to each step */
+    private final String[] dottedNames;
+
+    /** The getter last used at each step, or null if none has been used yet */
+    private final PropertyGetter[] getters;
+
+    /**
+     * @param text the text of the expression, which is never parsed by Jexl
+     * @param names the names of the variable and of each property
+     */
+    JexlPropertyExpression(String text, String[] names) {
+        super(text);
+        this.names = names;
+        this.dottedNames = new String[names.length];
+        this.getters = new PropertyGetter[names.length];
+
+        StringBuffer buffer = new StringBuffer(names[0]);
+        dottedNames[0] = names[0];
+        for (int i = 1; i < names.length; i++) {
+            buffer.append('.');
+            buffer.append(names[i]);
+            dottedNames[i] = buffer.toString();
+        }
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    protected Object evaluateExpression(JellyContext context) throws Exception {
+        Object value = context.getVariable(names[0]);
+        for (int i = 1; i < names.length; i++) {
+            value = getProperty(value, i);
+            if (value == null) {
+                value = context.getVariable(dottedNames[i]);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Reads the property of the given step, in the same way as
+     * <code>ASTArrayAccess.evaluateExpr()</code>
+     */
+    private Object getProperty(Object bean, int index) throws Exception {
+        if (bean == null) {
+            return null;
+        }
+        String name = names[index];
+        if (bean instanceof Map) {
+            Map map = (Map) bean;
+            return map.containsKey(name) ? map.get(name) : null;
+        }
+        if (bean instanceof List || bean.getClass().isArray()) {
+            return ASTArrayAccess.evaluateExpr(bean, name);
+        }
+
+        PropertyGetter getter = getters[index];
+        if (getter == null || getter.type != bean.getClass()) {
+            VelPropertyGet propertyGet = Introspector.getUberspect().getPropertyGet(bean, name, INFO);
+            if (propertyGet == null) {
+                // let Jexl report that there is no such property
+                return ASTArrayAccess.evaluateExpr(bean, name);
+            }
+            getter = new PropertyGetter(bean.getClass(), propertyGet);
+            getters[index] = getter;
+        }
+        return getter.propertyGet.invoke(bean);
+    }
+
+    /**
+     * The getter of a property for a particular class
+     */
+    private static final class PropertyGetter {
+        final Class type;
+        final VelPropertyGet propertyGet;
+
+        PropertyGetter(Class type, VelPropertyGet propertyGet) {
+            this.type = type;
+            this.propertyGet = propertyGet;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.expression.xpath;
+
+import java.util.List;
+
+import org.apache.commons.jelly.JellyContext;
+import org.jaxen.BaseXPath;
+import org.jaxen.Context;
+import org.jaxen.ContextSupport;
+import org.jaxen.FunctionContext;
+import org.jaxen.JaxenException;
+import org.jaxen.NamespaceContext;
+import org.jaxen.Navigator;
+import org.jaxen.SimpleNamespaceContext;
+import org.jaxen.VariableContext;
+import org.jaxen.XPath;
+import org.jaxen.XPathFunctionContext;
+import org.jaxen.util.SingletonList;
+
+/**
+ * An XPath which evaluates a shared, parsed XPath using its own namespace,
+ * function and variable contexts. Variables are looked up in the
+ * JellyContext the XPath was created for, so that the same parsed XPath
+ * can be used by many threads at once.
+ *
+ * @version $Revision$
+ */
+class ContextXPath implements XPath, VariableContext {
+
+    /** The shared parsed XPath */
+    private final BaseXPath xpath;
+
+    /** The context in which variables are looked up */
+    private final JellyContext context;
+
+    private NamespaceContext namespaceContext;
+    private FunctionContext functionContext;
+    private VariableContext variableContext;
+
+    /** The context support created from the contexts above on first use */
+    private volatile ContextSupport support;
+
+    ContextXPath(BaseXPath xpath, JellyContext context, NamespaceContext namespaceContext) {
+        this.xpath = xpath;
+        this.context = context;
+        this.namespaceContext = namespaceContext;
+        this.functionContext = XPathFunctionContext.getInstance();
+        this.variableContext = this;
+    }
+
+    public String toString() {
+        return xpath.toString();
+    }
+
+    // XPath interface
+    //-------------------------------------------------------------------------
+    public Object evaluate(Object node) throws JaxenException {
+        return xpath.evaluate(getContext(node));
+    }
+
+    /**
+     * @deprecated as in {@link XPath}, use {@link #stringValueOf(Object)}
+     */
+    public String valueOf(Object node) throws JaxenException {
+        return stringValueOf(node);
+    }
+
+    public String stringValueOf(Object node) throws JaxenException {
+        return xpath.stringValueOf(getContext(node));
+    }
+
+    public boolean booleanValueOf(Object node) throws JaxenException {
+        return xpath.booleanValueOf(getContext(node));
+    }
+
+    public Number numberValueOf(Object node) throws JaxenException {
+        return xpath.numberValueOf(getContext(node));
+    }
+
+    public List selectNodes(Object node) throws JaxenException {
+        return xpath.selectNodes(getContext(node));
+    }
+
+    public Object selectSingleNode(Object node) throws JaxenException {
+        return xpath.selectSingleNode(getContext(node));
+    }
+
+    public void addNamespace(String prefix, String uri) throws JaxenException {
+        if (!(namespaceContext instanceof SimpleNamespaceContext)) {
+            throw new JaxenException("Operation not permitted while using a non-simple namespace context.");
+        }
+        ((SimpleNamespaceContext) namespaceContext).addNamespace(prefix, uri);
+    }
+
+    public void setNamespaceContext(NamespaceContext namespaceContext) {
+        this.namespaceContext = namespaceContext;
+        this.support = null;
+    }
+
+    public void setFunctionContext(FunctionContext functionContext) {
+        this.functionContext = functionContext;
+        this.support = null;
+    }
+
+    public void setVariableContext(VariableContext variableContext) {
+        this.variableContext = variableContext;
+        this.support = null;
+    }
+
+    public NamespaceContext getNamespaceContext() {
+        return namespaceContext;
+    }
+
+    public FunctionContext getFunctionContext() {
+        return functionContext;
+    }
+
+    public VariableContext getVariableContext() {
+        return variableContext;
+    }
+
+    public Navigator getNavigator() {
+        return xpath.getNavigator();
+    }
+
+    // VariableContext interface
+    //-------------------------------------------------------------------------
+    public Object getVariableValue(String namespaceURI, String prefix, String localName) {
+        return context.getVariable(localName);
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return a Jaxen context for the given node or node set, which uses
+     *  the contexts of this XPath rather than those of the shared one
+     */
+    protected Context getContext(Object node) {
+        if (node instanceof Context) {
+            return (Context) node;
+        }
+        ContextSupport contextSupport = support;
+        if (contextSupport == null) {
+            contextSupport = new ContextSupport(namespaceContext, functionContext, variableContext, getNavigator());
+            support = contextSupport;
+        }
+        Context answer = new Context(contextSupport);
+        if (node instanceof List) {
+            answer.setNodeSet((List) node);
+        }
+        else {
+            answer.setNodeSet(new SingletonList(node));
+        }
+        return answer;
+    }
+}
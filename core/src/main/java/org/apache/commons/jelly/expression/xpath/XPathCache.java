@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.expression.xpath;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jaxen.BaseXPath;
+import org.jaxen.JaxenException;
+import org.jaxen.dom4j.Dom4jXPath;
+
+/**
+ * <p><code>XPathCache</code> is a thread safe, size bounded, least recently
+ * used cache of parsed XPath expressions, used by {@link XPathExpression}
+ * so that the text of an XPath is only parsed once.</p>
+ *
+ * <p>The cached XPaths are shared between threads so their namespace,
+ * function and variable contexts must never be changed. Each evaluation
+ * supplies its own contexts instead, via a {@link org.jaxen.Context}.</p>
+ *
+ * @version $Revision$
+ */
+public class XPathCache {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(XPathCache.class);
+
+    /** The default maximum number of XPaths to cache */
+    public static final int DEFAULT_MAXIMUM_SIZE = 500;
+
+    /** The cache shared by all XPathExpressions */
+    private static final XPathCache sharedInstance = new XPathCache();
+
+    /** The maximum number of XPaths to cache */
+    private final int maximumSize;
+
+    /** The parsed XPaths in least recently used order keyed by their text */
+    private final Map entries;
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @return the cache shared by all XPathExpressions
+     */
+    public static XPathCache getSharedInstance() {
+        return sharedInstance;
+    }
+
+    /**
+     * Creates a cache holding up to {@link #DEFAULT_MAXIMUM_SIZE} XPaths
+     */
+    public XPathCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Creates a cache holding up to the given number of XPaths
+     *
+     * @param maximumSize the maximum number of XPaths to cache
+     */
+    public XPathCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > XPathCache.this.maximumSize;
+            }
+        };
+    }
+
+    public String toString() {
+        return super.toString() + "[size=" + getSize() + ";hits=" + getHitCount()
+            + ";misses=" + getMissCount() + "]";
+    }
+
+    /**
+     * Finds the parsed XPath for the given text, parsing and caching it
+     * if it is not already cached.
+     *
+     * @param text the XPath expression
+     * @return the parsed XPath, which must not be modified
+     * @throws JaxenException if the text is not a valid XPath expression
+     */
+    public BaseXPath getXPath(String text) throws JaxenException {
+        synchronized (this) {
+            BaseXPath xpath = (BaseXPath) entries.get(text);
+            if (xpath != null) {
+                hitCount++;
+                return xpath;
+            }
+            missCount++;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Parsing XPath: " + text);
+        }
+        BaseXPath xpath = new Dom4jXPath(text);
+        synchronized (this) {
+            entries.put(text, xpath);
+        }
+        return xpath;
+    }
+
+    /**
+     * Removes all the cached XPaths
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the maximum number of XPaths which will be cached
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return the number of XPaths currently cached
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups which found a parsed XPath
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups which had to parse the XPath
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
@@ -27,13 +27,15 @@ import org.apache.commons.jelly.expression.ExpressionSupport;
 import org.apache.commons.jelly.impl.TagScript;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jaxen.BaseXPath;
 import org.jaxen.SimpleNamespaceContext;
 import org.jaxen.VariableContext;
-import org.jaxen.XPath;
 import org.jaxen.JaxenException;
-import org.jaxen.dom4j.Dom4jXPath;
+import org.jaxen.UnresolvableException;
 
 /** An expression which returns an XPath object.
+  * The text of the XPath is parsed once and shared via an {@link XPathCache};
+  * each evaluation returns an XPath bound to the given context.
   *
   * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
   * @version $Revision$
@@ -45,8 +47,8 @@ public class XPathExpression extends ExpressionSupport implements VariableContex
 
     private String text;
     private Expression xpathExpr;
-    private JellyContext context;
     private Map uris;
+    private XPathCache xpathCache;
 
     public XPathExpression() {
     }
@@ -73,21 +75,15 @@ public class XPathExpression extends ExpressionSupport implements VariableContex
     }
 
     public Object evaluate(JellyContext context) {
-        this.context = context;
-
         try
         {
-            XPath xpath = new Dom4jXPath( this.xpathExpr.evaluateAsString( context ) );
-
-            xpath.setVariableContext(this);
+            BaseXPath compiled = getXPathCache().getXPath( this.xpathExpr.evaluateAsString( context ) );
 
             if (log.isDebugEnabled()) {
                 log.debug( "Setting the namespace context to be: " + uris );
             }
 
-            xpath.setNamespaceContext( new SimpleNamespaceContext( this.uris ) );
-
-            return xpath;
+            return new ContextXPath( compiled, context, new SimpleNamespaceContext( this.uris ) );
         }
         catch (JaxenException e)
         {
@@ -102,16 +98,41 @@ public class XPathExpression extends ExpressionSupport implements VariableContex
 
     // VariableContext interface
     //-------------------------------------------------------------------------
+    /**
+     * This expression is shared by every evaluation so has no context to
+     * look up variables in, and always throws an exception.
+     *
+     * @throws UnresolvableException always
+     * @deprecated the XPaths returned by {@link #evaluate(JellyContext)}
+     * look up variables in the context they were evaluated in
+     */
     public Object getVariableValue(
         String namespaceURI,
         String prefix,
-        String localName) {
+        String localName) throws UnresolvableException {
+        throw new UnresolvableException(
+            "XPathExpression has no context to look up variables in, use the XPath it evaluates to: " + localName);
+    }
 
-        Object value = context.getVariable(localName);
+    // Properties
+    //-------------------------------------------------------------------------
 
-        //log.debug( "Looking up XPath variable of name: " + localName + " value is: " + value );
+    /**
+     * @return the cache of parsed XPaths used by this expression
+     */
+    public XPathCache getXPathCache() {
+        if (xpathCache == null) {
+            return XPathCache.getSharedInstance();
+        }
+        return xpathCache;
+    }
 
-        return value;
+    /**
+     * Sets the cache of parsed XPaths used by this expression, which
+     * defaults to the shared cache
+     */
+    public void setXPathCache(XPathCache xpathCache) {
+        this.xpathCache = xpathCache;
     }
 
     // Implementation methods
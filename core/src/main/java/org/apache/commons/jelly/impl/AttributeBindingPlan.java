@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.commons.beanutils.ConvertUtils;
+import org.apache.commons.beanutils.Converter;
+import org.apache.commons.beanutils.ConvertingWrapDynaBean;
+import org.apache.commons.beanutils.DynaClass;
+import org.apache.commons.beanutils.DynaProperty;
+import org.apache.commons.beanutils.MethodUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.commons.beanutils.WrapDynaClass;
+
+import org.apache.commons.jelly.DynaTag;
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.Tag;
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.apache.commons.jelly.expression.Expression;
+
+/**
+ * <p><code>AttributeBindingPlan</code> describes how the attributes of a
+ * {@link TagScript} are set on a particular Tag class. The bean properties
+ * of the tag are resolved once, when the plan is created, into parallel
+ * arrays of setter methods, property types and converters, so that running
+ * the tag only has to evaluate the expressions and invoke the setters.</p>
+ *
+ * <p>Values are converted using the same rules as
+ * <code>BeanUtils.setProperty()</code>. Properties which are not simple
+ * scalar bean properties, such as indexed or mapped properties, are still
+ * set via a <code>ConvertingWrapDynaBean</code>.</p>
+ *
+ * <p>Constant attributes converted to immutable values, such as numbers and
+ * booleans, are converted once when the plan is created.</p>
+ *
+ * <p>The <code>ConvertUtils</code> converter of each property type is
+ * looked up once, when the plan is created, unlike
+ * <code>BeanUtils.setProperty()</code> which looks it up for every value.
+ * A converter registered later for a type which had none is still found,
+ * but one which replaces an existing converter, or is deregistered, is only
+ * used by plans created afterwards, that is by scripts compiled after the
+ * change.</p>
+ *
+ * @version $Revision$
+ */
+final class AttributeBindingPlan {
+
+    /** The value of {@link #setters} for a read only property, which is ignored */
+    private static final Method READ_ONLY = null;
+
+    /** The Tag class this plan is for */
+    private final Class tagClass;
+
+    /** Whether the tag is a DynaTag, whose attributes are set by name */
+    private final boolean dynaTag;
+
+    /** The attribute names */
+    private final String[] names;
+
+    /** The attribute expressions */
+    private final Expression[] expressions;
+
+    /** The types of the bean properties */
+    private final Class[] types;
+
+    /** Whether the Expression itself is passed to the property rather than its value */
+    private final boolean[] passExpressions;
+
+    /** Whether the property must be set via a ConvertingWrapDynaBean */
+    private final boolean[] generic;
+
+    /** The write method of each bean property */
+    private final Method[] setters;
+
+    /** The converter for each property type, or null to look it up when used */
+    private final Converter[] converters;
+
+    /** The value set for each constant attribute converted up front, otherwise null */
+    private final Object[] convertedConstants;
+
+    /** The constant values the converted values were converted from */
+    private final Object[] constantSources;
+
+    /**
+     * Creates a plan for setting the given attributes on a Tag of the given class
+     *
+     * @param tagClass the class of the Tag
+     * @param attributes a Map of attribute names to ExpressionAttributes
+     * @throws JellyException if the tag does not understand one of the attributes
+     */
+    AttributeBindingPlan(Class tagClass, Map attributes) throws JellyException {
+        this.tagClass = tagClass;
+        this.dynaTag = DynaTag.class.isAssignableFrom(tagClass);
+
+        int size = attributes.size();
+        names = new String[size];
+        expressions = new Expression[size];
+        int index = 0;
+        for (Iterator iter = attributes.entrySet().iterator(); iter.hasNext(); index++) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            names[index] = (String) entry.getKey();
+            expressions[index] = ((ExpressionAttribute) entry.getValue()).exp;
+        }
+
+        if (dynaTag) {
+            types = null;
+            passExpressions = null;
+            generic = null;
+            setters = null;
+            converters = null;
+            convertedConstants = null;
+            constantSources = null;
+        }
+        else {
+            types = new Class[size];
+            passExpressions = new boolean[size];
+            generic = new boolean[size];
+            setters = new Method[size];
+            converters = new Converter[size];
+            convertedConstants = new Object[size];
+            constantSources = new Object[size];
+            resolveProperties();
+        }
+    }
+
+    /**
+     * @return the Tag class this plan is for
+     */
+    Class getTagClass() {
+        return tagClass;
+    }
+
+    /**
+     * @return the number of constant attributes converted up front
+     */
+    int getPreconvertedAttributeCount() {
+        int count = 0;
+        for (int i = 0; convertedConstants != null && i < convertedConstants.length; i++) {
+            if (convertedConstants[i] != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Evaluates the attribute expressions and sets them on the given tag
+     */
+    void apply(Tag tag, JellyContext context) throws JellyException {
+        if (dynaTag) {
+            applyDynaTag((DynaTag) tag, context);
+            return;
+        }
+        for (int i = 0; i < names.length; i++) {
+            Object converted = convertedConstants[i];
+            if (converted != null
+                && ((ConstantExpression) expressions[i]).getValue() == constantSources[i]) {
+                invokeSetter(tag, i, converted);
+                continue;
+            }
+            Object value = null;
+            if (passExpressions[i]) {
+                value = expressions[i];
+            }
+            else {
+                value = expressions[i].evaluateRecurse(context);
+            }
+
+            if (generic[i]) {
+                new ConvertingWrapDynaBean(tag).set(names[i], value);
+            }
+            else if (setters[i] != READ_ONLY) {
+                invokeSetter(tag, i, convert(i, value));
+            }
+        }
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Sets the attributes of a DynaTag, whose attribute types may change
+     * as other attributes are set
+     */
+    private void applyDynaTag(DynaTag tag, JellyContext context) throws JellyException {
+        for (int i = 0; i < names.length; i++) {
+            Class type = tag.getAttributeType(names[i]);
+            Object value = null;
+            if (type != null && type.isAssignableFrom(Expression.class) && !type.isAssignableFrom(Object.class)) {
+                value = expressions[i];
+            }
+            else {
+                value = expressions[i].evaluateRecurse(context);
+            }
+            tag.setAttribute(names[i], value);
+        }
+    }
+
+    /**
+     * Resolves the bean property of the tag for each attribute
+     */
+    private void resolveProperties() throws JellyException {
+        DynaClass dynaClass = WrapDynaClass.createDynaClass(tagClass);
+        PropertyDescriptor[] descriptors = PropertyUtils.getPropertyDescriptors(tagClass);
+
+        for (int i = 0; i < names.length; i++) {
+            DynaProperty property = dynaClass.getDynaProperty(names[i]);
+            if (property == null) {
+                throw new JellyException("This tag does not understand the '" + names[i] + "' attribute" );
+            }
+            Class type = property.getType();
+            types[i] = type;
+            passExpressions[i] = type.isAssignableFrom(Expression.class) && !type.isAssignableFrom(Object.class);
+
+            PropertyDescriptor descriptor = findDescriptor(descriptors, names[i]);
+            if (descriptor == null
+                || descriptor instanceof IndexedPropertyDescriptor
+                || type.isArray()) {
+                generic[i] = true;
+                continue;
+            }
+            Method writeMethod = descriptor.getWriteMethod();
+            if (writeMethod == null) {
+                setters[i] = READ_ONLY;
+                continue;
+            }
+            Method setter = MethodUtils.getAccessibleMethod(writeMethod);
+            if (setter == null) {
+                generic[i] = true;
+                continue;
+            }
+            setters[i] = setter;
+
+            // converters registered later for new types are looked up when used,
+            // but replaced converters are not seen by this plan
+            converters[i] = ConvertUtils.lookup(type);
+            if (converters[i] != null && !passExpressions[i]
+                && expressions[i] instanceof ConstantExpression) {
+                preconvert(i, ((ConstantExpression) expressions[i]).getValue());
+            }
+        }
+    }
+
+    /**
+     * Converts the value of a constant attribute now rather than whenever
+     * the tag is run, if the converted value is immutable so can be shared
+     * by all the tags
+     */
+    private void preconvert(int index, Object value) {
+        Object converted;
+        try {
+            converted = convert(index, value);
+        }
+        catch (RuntimeException e) {
+            // report the problem when the tag is run, as before
+            return;
+        }
+        if (converted instanceof String
+            || converted instanceof Boolean
+            || converted instanceof Character
+            || converted instanceof Class
+            || (converted instanceof Number && converted.getClass().getName().startsWith("java.lang."))
+            || converted instanceof BigDecimal
+            || converted instanceof BigInteger) {
+            convertedConstants[index] = converted;
+            constantSources[index] = value;
+        }
+    }
+
+    /**
+     * Converts the value to the type of the property following the same
+     * rules as <code>BeanUtils.setProperty()</code>
+     */
+    private Object convert(int index, Object value) {
+        if (value == null || value instanceof String) {
+            return convert(index, (String) value);
+        }
+        if (value instanceof String[]) {
+            return convert(index, ((String[]) value)[0]);
+        }
+        if (ConvertUtils.lookup(value.getClass()) != null) {
+            return convert(index, value.toString());
+        }
+        return value;
+    }
+
+    private Object convert(int index, String value) {
+        Converter converter = converters[index];
+        if (converter == null) {
+            return ConvertUtils.convert(value, types[index]);
+        }
+        return converter.convert(types[index], value);
+    }
+
+    private void invokeSetter(Tag tag, int index, Object value) {
+        try {
+            setters[index].invoke(tag, new Object[] { value });
+        }
+        catch (InvocationTargetException e) {
+            throw new IllegalArgumentException(
+                "Could not set property '" + names[index] + "': " + e.getTargetException());
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(
+                "Could not set property '" + names[index] + "': " + e);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                "Could not set property '" + names[index] + "' to " + value + ": " + e.getMessage());
+        }
+    }
+
+    private static PropertyDescriptor findDescriptor(PropertyDescriptor[] descriptors, String name) {
+        for (int i = 0; i < descriptors.length; i++) {
+            if (name.equals(descriptors[i].getName())) {
+                return descriptors[i];
+            }
+        }
+        return null;
+    }
+}
@@ -23,6 +23,10 @@ import org.apache.commons.jelly.JellyTagException;
  * <p><code>BreakException</code> is used to terminate loops such as
  * &lt;forEach&gt; and &lt;while&gt; tags.</p>
  *
+ * <p>As it is thrown to control the flow of a script rather than to report
+ * an error it does not fill in a stack trace, which would otherwise walk
+ * the deep stack of nested tags every time a loop is broken.</p>
+ *
  * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
  * @version $Revision$
  */
@@ -32,4 +36,13 @@ public class BreakException extends JellyTagException {
     public BreakException() {
         super("Break exception, terminating the parent loop");
     }
+
+    /**
+     * Does not fill in the stack trace, as it is never needed.
+     *
+     * @return this exception
+     */
+    public Throwable fillInStackTrace() {
+        return this;
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.util.Iterator;
+
+import org.apache.commons.jelly.Script;
+
+/**
+ * <p><code>CompileStatistics</code> counts the optimizations made to a
+ * script when it was compiled.</p>
+ *
+ * <p>The counts are found by looking through the compiled script when
+ * the statistics are created, so nothing is counted while scripts are
+ * compiled or run.</p>
+ *
+ * @version $Revision$
+ */
+public class CompileStatistics {
+
+    private long compiledBlockCount;
+    private long mergedTextCount;
+    private long droppedWhitespaceCount;
+
+    /**
+     * Counts the optimizations made to the given compiled script
+     */
+    public CompileStatistics(Script script) {
+        count(script);
+    }
+
+    public String toString() {
+        return "compiledBlocks=" + compiledBlockCount
+            + " mergedTexts=" + mergedTextCount
+            + " droppedWhitespace=" + droppedWhitespaceCount;
+    }
+
+    /**
+     * @return the number of script blocks flattened into arrays
+     */
+    public long getCompiledBlockCount() {
+        return compiledBlockCount;
+    }
+
+    /**
+     * @return the number of text scripts merged into the text before them
+     */
+    public long getMergedTextCount() {
+        return mergedTextCount;
+    }
+
+    /**
+     * @return the number of whitespace only texts left out of trimmed bodies
+     */
+    public long getDroppedWhitespaceCount() {
+        return droppedWhitespaceCount;
+    }
+
+    /**
+     * Adds the optimizations made to the given script and its children
+     */
+    private void count(Script script) {
+        if (script instanceof ScriptBlock) {
+            ScriptBlock block = (ScriptBlock) script;
+            Script[] scripts = block.getCompiledScripts();
+            if (scripts != null) {
+                compiledBlockCount++;
+                mergedTextCount += block.getScriptList().size() - scripts.length;
+                Script trimmed = block.getTrimmedScript();
+                if (trimmed != block && trimmed instanceof ScriptBlock) {
+                    droppedWhitespaceCount += block.getScriptList().size()
+                        - ((ScriptBlock) trimmed).getScriptList().size();
+                }
+            }
+            for (Iterator iter = block.getScriptList().iterator(); iter.hasNext(); ) {
+                count((Script) iter.next());
+            }
+        }
+        else if (script instanceof TagScript) {
+            count(((TagScript) script).getTagBody());
+        }
+    }
+}
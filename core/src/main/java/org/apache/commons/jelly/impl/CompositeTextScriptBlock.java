@@ -16,6 +16,7 @@
  */
 package org.apache.commons.jelly.impl;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.jelly.Script;
@@ -62,5 +63,39 @@ public class CompositeTextScriptBlock extends ScriptBlock {
         }
     }
 
+    /**
+     * Creates the script returned by {@link #getTrimmedScript()}.
+     * In this case, trim the whitespace from the start of the first element
+     * and from the end of the last element, leaving them out if they are empty.
+     */
+    protected Script createTrimmedScript() {
+        List trimmed = new ArrayList(getScriptList());
+        int size = trimmed.size();
+        if ( size > 0 ) {
+            String text = getText((Script) trimmed.get(size - 1));
+            if ( text != null && size > 1 ) {
+                TextScript textScript = new TextScript(text);
+                textScript.trimEndWhitespace();
+                setOrRemove(trimmed, size - 1, textScript);
+            }
+            text = getText((Script) trimmed.get(0));
+            if ( text != null ) {
+                TextScript textScript = new TextScript(text);
+                textScript.trimStartWhitespace();
+                setOrRemove(trimmed, 0, textScript);
+            }
+        }
+        return createCompiledBlock(new CompositeTextScriptBlock(), trimmed);
+    }
+
+    private static void setOrRemove(List list, int index, TextScript textScript) {
+        if ( textScript.getText().length() == 0 ) {
+            list.remove(index);
+        }
+        else {
+            list.set(index, textScript);
+        }
+    }
+
 
 }
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.jelly.Script;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p><code>DefaultScriptCache</code> is a size bounded, least recently used
+ * cache of compiled Scripts. If <code>checkModified</code> is enabled then
+ * the last modified time of the script URL is compared with the time it
+ * was cached on each lookup, so that edited scripts are parsed again.</p>
+ *
+ * <p>The number of hits, misses and evictions are counted so that the
+ * effectiveness of the cache can be monitored.</p>
+ *
+ * @version $Revision$
+ */
+public class DefaultScriptCache implements ScriptCache {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(DefaultScriptCache.class);
+
+    /** The default maximum number of scripts to cache */
+    public static final int DEFAULT_MAXIMUM_SIZE = 100;
+
+    /** The maximum number of scripts to cache */
+    private final int maximumSize;
+
+    /** Whether the last modified time of the URL is checked on each lookup */
+    private boolean checkModified;
+
+    /** The cache entries in least recently used order, keyed by URL String */
+    private final Map entries;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Creates a cache holding up to {@link #DEFAULT_MAXIMUM_SIZE} scripts
+     * which checks whether scripts have been modified
+     */
+    public DefaultScriptCache() {
+        this(DEFAULT_MAXIMUM_SIZE, true);
+    }
+
+    /**
+     * Creates a cache holding up to the given number of scripts
+     *
+     * @param maximumSize the maximum number of scripts to cache
+     * @param checkModified whether the last modified time of the script URL
+     *  is checked on each lookup
+     */
+    public DefaultScriptCache(int maximumSize, boolean checkModified) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.checkModified = checkModified;
+        this.entries = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                if (size() > DefaultScriptCache.this.maximumSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public String toString() {
+        return super.toString() + "[size=" + getSize() + ";hits=" + getHitCount()
+            + ";misses=" + getMissCount() + ";evictions=" + getEvictionCount() + "]";
+    }
+
+    // ScriptCache interface
+    //-------------------------------------------------------------------------
+
+    public Script getScript(URL url) {
+        String key = url.toString();
+        CacheEntry entry;
+        synchronized (this) {
+            entry = (CacheEntry) entries.get(key);
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+        }
+        if (checkModified && entry.lastModified != getLastModified(url)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Script has been modified since it was cached: " + key);
+            }
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+                missCount++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            hitCount++;
+        }
+        return entry.script;
+    }
+
+    public void putScript(URL url, Script script) {
+        long lastModified = checkModified ? getLastModified(url) : 0;
+        CacheEntry entry = new CacheEntry(script, lastModified);
+        synchronized (this) {
+            entries.put(url.toString(), entry);
+        }
+    }
+
+    public synchronized void removeScript(URL url) {
+        entries.remove(url.toString());
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the maximum number of scripts which will be cached
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return the number of scripts currently cached
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return whether the last modified time of the script URL is checked on each lookup
+     */
+    public boolean isCheckModified() {
+        return checkModified;
+    }
+
+    /**
+     * Sets whether the last modified time of the script URL is checked on each lookup
+     */
+    public void setCheckModified(boolean checkModified) {
+        this.checkModified = checkModified;
+    }
+
+    /**
+     * @return the number of lookups which found a valid compiled script
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups which did not find a valid compiled script
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of scripts removed to keep the cache within its maximum size
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the last modified time of the given URL or 0 if it is not known.
+     * Local files are checked directly rather than via a URLConnection.
+     */
+    protected long getLastModified(URL url) {
+        if ("file".equals(url.getProtocol())) {
+            File file;
+            try {
+                file = new File(url.toURI());
+            }
+            catch (URISyntaxException e) {
+                file = new File(url.getFile());
+            }
+            catch (IllegalArgumentException e) {
+                file = new File(url.getFile());
+            }
+            return file.lastModified();
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            try {
+                return connection.getLastModified();
+            }
+            finally {
+                try {
+                    connection.getInputStream().close();
+                }
+                catch (IOException e) {
+                    // ignore, we only wanted the header
+                }
+            }
+        }
+        catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Could not determine last modified time of: " + url, e);
+            }
+            return 0;
+        }
+    }
+
+    private static class CacheEntry {
+        final Script script;
+        final long lastModified;
+
+        CacheEntry(Script script, long lastModified) {
+            this.script = script;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.CompositeExpression;
 import org.apache.commons.jelly.expression.Expression;
 
 import org.xml.sax.SAXException;
@@ -64,15 +65,19 @@ public class ExpressionScript implements Script {
 
     /** Evaluates the body of a tag */
     public void run(JellyContext context, XMLOutput output) throws JellyTagException {
-        Object result = expression.evaluate(context);
-        if ( result != null ) {
-
-            try {
-              output.objectData(result);
-            } catch (SAXException e) {
-                throw new JellyTagException("Could not write to XMLOutput",e);
+        try {
+            if ( expression instanceof CompositeExpression ) {
+                // the value is always a String, so write each part in turn
+                expression.writeAsString(context, output);
+                return;
             }
 
+            Object result = expression.evaluate(context);
+            if ( result != null ) {
+                output.objectData(result);
+            }
+        } catch (SAXException e) {
+            throw new JellyTagException("Could not write to XMLOutput",e);
         }
     }
 }
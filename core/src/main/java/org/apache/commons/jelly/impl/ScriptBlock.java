@@ -36,6 +36,15 @@ public class ScriptBlock implements Script {
     /** The list of scripts */
     private List list = new ArrayList();
 
+    /**
+     * The scripts run, created from the list when the block is compiled
+     * with adjacent text merged, or null if the block is not compiled
+     */
+    private Script[] scripts;
+
+    /** The block with its whitespace trimmed, created when first needed */
+    private Script trimmedScript;
+
     /**
      * Create a new instance.
      */
@@ -52,16 +61,21 @@ public class ScriptBlock implements Script {
     /** Add a new script to the end of this block */
     public void addScript(Script script) {
         list.add(script);
+        scripts = null;
+        trimmedScript = null;
     }
 
     /** Removes a script from this block */
     public void removeScript(Script script) {
         list.remove(script);
+        scripts = null;
+        trimmedScript = null;
     }
 
     /**
      * Gets the child scripts that make up this block. This list is live
-     * so that it can be modified if required
+     * so that it can be modified if required, though a block which has been
+     * compiled must be compiled again for changes to the list to be run.
      */
     public List getScriptList() {
         return list;
@@ -80,26 +94,31 @@ public class ScriptBlock implements Script {
             Script script = (Script) list.get(i);
             list.set(i, script.compile());
         }
+        scripts = toArray(list);
+        trimmedScript = createTrimmedScript();
         return this;
     }
 
     /** Evaluates the body of a tag */
     public void run(JellyContext context, XMLOutput output) throws JellyTagException {
-/*
-        for (int i = 0, size = scripts.length; i < size; i++) {
-            Script script = scripts[i];
-            script.run(context, output);
+        Script[] array = scripts;
+        if (array != null) {
+            for (int i = 0; i < array.length; i++) {
+                array[i].run(context, output);
+            }
+            return;
         }
-*/
         for (Iterator iter = list.iterator(); iter.hasNext(); ) {
             Script script = (Script) iter.next();
             script.run(context, output);
         }
     }
-    
+
     /**
      * Trim the body of the script.
      * In this case, trim all elements, removing any that are empty text.
+     * As this modifies a script which may be shared by many tags and threads,
+     * {@link #getTrimmedScript()} is used in preference.
      */
     public void trimWhitespace() {
         List list = getScriptList();
@@ -117,5 +136,98 @@ public class ScriptBlock implements Script {
                 }
             }
         }
+        scripts = null;
+        trimmedScript = null;
+    }
+
+    /**
+     * Returns the script which outputs this block with its whitespace
+     * trimmed, leaving this block unchanged. For a compiled block this
+     * was created when it was compiled.
+     *
+     * @return the trimmed script
+     */
+    public Script getTrimmedScript() {
+        Script answer = trimmedScript;
+        if (answer == null) {
+            answer = createTrimmedScript();
+            trimmedScript = answer;
+        }
+        return answer;
+    }
+
+    /**
+     * Creates the script returned by {@link #getTrimmedScript()}.
+     * In this case, trim all text elements, leaving out any that are empty.
+     * The trimmed script is a block even if only one element is left, as
+     * tags may look at the scripts in the blocks of their bodies.
+     */
+    protected Script createTrimmedScript() {
+        List trimmed = new ArrayList(list.size());
+        for (Iterator iter = list.iterator(); iter.hasNext(); ) {
+            Script script = (Script) iter.next();
+            String text = getText(script);
+            if (text != null) {
+                String trimmedText = text.trim();
+                if (trimmedText.length() == 0) {
+                    continue;
+                }
+                if (trimmedText.length() < text.length()) {
+                    script = new TextScript(trimmedText);
+                }
+            }
+            trimmed.add(script);
+        }
+        return createCompiledBlock(new ScriptBlock(), trimmed);
+    }
+
+    /**
+     * @return the scripts run, with adjacent text merged, or null if
+     * the block is not compiled
+     */
+    Script[] getCompiledScripts() {
+        return scripts;
+    }
+
+    /**
+     * Makes the given block a compiled block of the given already compiled
+     * scripts, which is its own trimmed script
+     */
+    protected static ScriptBlock createCompiledBlock(ScriptBlock block, List scripts) {
+        block.list = scripts;
+        block.scripts = toArray(scripts);
+        block.trimmedScript = block;
+        return block;
+    }
+
+    /**
+     * @return the scripts in the given list as an array, with adjacent
+     * text scripts merged into one
+     */
+    private static Script[] toArray(List list) {
+        List answer = new ArrayList(list.size());
+        TextScript previous = null;
+        for (Iterator iter = list.iterator(); iter.hasNext(); ) {
+            Script script = (Script) iter.next();
+            if (previous != null && getText(script) != null) {
+                previous = new TextScript(previous.getText() + ((TextScript) script).getText());
+                answer.set(answer.size() - 1, previous);
+                continue;
+            }
+            previous = getText(script) != null ? (TextScript) script : null;
+            answer.add(script);
+        }
+        return (Script[]) answer.toArray(new Script[answer.size()]);
+    }
+
+    /**
+     * @return the text output by the given script if it is a TextScript
+     * with some text, otherwise null
+     */
+    protected static String getText(Script script) {
+        if (script instanceof TextScript) {
+            return ((TextScript) script).getText();
+        }
+        return null;
     }
 }
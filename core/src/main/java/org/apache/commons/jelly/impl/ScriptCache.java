@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.net.URL;
+
+import org.apache.commons.jelly.Script;
+
+/**
+ * <p><code>ScriptCache</code> represents a cache of compiled {@link Script}
+ * instances keyed by the URL they were parsed from.</p>
+ *
+ * <p>A compiled Script depends on the tag libraries registered when it was
+ * parsed, so a cache should only be shared between JellyContexts which
+ * are configured in the same way.</p>
+ *
+ * <b>Note</b> that implementations should be re-entrant and used
+ * concurrently by multiple threads.
+ *
+ * @version $Revision$
+ */
+public interface ScriptCache {
+
+    /**
+     * @return the compiled Script for the given URL or null if there is no
+     * valid entry for it, in which case the caller will parse the script
+     * and add it to the cache.
+     */
+    public Script getScript(URL url);
+
+    /**
+     * Adds the compiled Script for the given URL to the cache
+     */
+    public void putScript(URL url, Script script);
+
+    /**
+     * Removes the compiled Script for the given URL from the cache
+     */
+    public void removeScript(URL url);
+
+    /**
+     * Removes all the compiled Scripts from the cache
+     */
+    public void clear();
+}
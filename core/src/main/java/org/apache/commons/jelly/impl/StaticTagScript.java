@@ -22,12 +22,18 @@ import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.Tag;
 import org.apache.commons.jelly.TagLibrary;
+import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.ConstantExpression;
 import org.apache.commons.jelly.expression.Expression;
+import org.apache.commons.jelly.util.BufferedXMLOutput;
+import org.apache.commons.jelly.util.SerializedXML;
 import org.xml.sax.SAXException;
 
 import java.net.URL;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -36,11 +42,35 @@ import java.util.Map;
  * The first time this tag evaluates, it may have become a dynamic tag, so it will check that
  * a new dynamic tag has not been generated.</p>
  *
+ * <p>When an element, its attributes and all of its content are static, which is
+ * found when the script is compiled, its output is recorded the first time it runs
+ * and written as it is from then on. If the output is an {@link org.apache.commons.jelly.util.XMLSerializer}
+ * the recorded output is written already serialized, otherwise its SAX events are
+ * written again. As the recorded output depends on whether whitespace is trimmed
+ * it is kept for each. The recorded output is only used while the context has no
+ * tag library for the namespace of the subtree, so tags registered after the script
+ * was compiled are still found.</p>
+ *
  * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
  * @version $Revision$
  */
 public class StaticTagScript extends TagScript {
 
+    /** The namespace URI of the element, or null if it is not known */
+    private String namespaceURI;
+
+    /** Whether this is the root of a static subtree, whose output is recorded */
+    private boolean staticSubtree;
+
+    /** Whether the static subtree can be written already serialized */
+    private boolean serializable;
+
+    /** The output of the static subtree when whitespace is trimmed */
+    private volatile StaticOutput trimmedOutput;
+
+    /** The output of the static subtree when whitespace is not trimmed */
+    private volatile StaticOutput untrimmedOutput;
+
     public StaticTagScript() {
     }
 
@@ -48,10 +78,70 @@ public class StaticTagScript extends TagScript {
         super(tagFactory);
     }
 
+    public StaticTagScript(TagFactory tagFactory, String namespaceURI) {
+        super(tagFactory);
+        this.namespaceURI = namespaceURI;
+    }
+
+    /**
+     * @return the namespace URI of the element, or null if it is not known
+     */
+    public String getNamespaceURI() {
+        return namespaceURI;
+    }
+
+    /**
+     * @return whether this element, its attributes and all its content
+     * are static, so its output is recorded when it first runs
+     */
+    public boolean isStaticSubtree() {
+        return staticSubtree;
+    }
+
+    /**
+     * Compiles the body and finds out whether this element is the root of
+     * a static subtree, that is whether its attributes are constants and its
+     * content is text and static elements in the same namespace.
+     * Those elements are then run as part of this one.
+     */
+    public Script compile() throws JellyException {
+        super.compile();
+        trimmedOutput = null;
+        untrimmedOutput = null;
+        staticSubtree = namespaceURI != null && hasConstantAttributes();
+        serializable = staticSubtree && isUnprefixed();
+
+        List children = getChildScripts();
+        for (Iterator iter = children.iterator(); staticSubtree && iter.hasNext(); ) {
+            Script script = (Script) iter.next();
+            if (script instanceof StaticTagScript) {
+                StaticTagScript child = (StaticTagScript) script;
+                staticSubtree = child.staticSubtree && namespaceURI.equals(child.namespaceURI);
+                serializable = serializable && child.serializable;
+            }
+            else if (!(script instanceof TextScript)) {
+                staticSubtree = false;
+            }
+        }
+        if (staticSubtree) {
+            // the output of the children is recorded with this element's
+            for (Iterator iter = children.iterator(); iter.hasNext(); ) {
+                Script script = (Script) iter.next();
+                if (script instanceof StaticTagScript) {
+                    ((StaticTagScript) script).staticSubtree = false;
+                }
+            }
+        }
+        else {
+            serializable = false;
+        }
+        return this;
+    }
+
 
     // Script interface
     //-------------------------------------------------------------------------
-    public void run(JellyContext context, XMLOutput output) throws JellyTagException {
+    protected void runTag(JellyContext context, XMLOutput output) throws JellyTagException {
         try {
             startNamespacePrefixes(output);
         } catch (SAXException e) {
@@ -81,36 +171,13 @@ public class StaticTagScript extends TagScript {
             tag.setContext(context);
             setContextURLs(context);
 
-            DynaTag dynaTag = (DynaTag) tag;
-
-            // ### probably compiling this to 2 arrays might be quicker and smaller
-            for (Iterator iter = attributes.entrySet().iterator(); iter.hasNext();) {
-                Map.Entry entry = (Map.Entry) iter.next();
-                String name = (String) entry.getKey();
-                if(name.indexOf(':')!=-1)
-                    name = name.substring(name.indexOf(':')+1);
-                ExpressionAttribute expat = (ExpressionAttribute) entry.getValue();
-                Expression expression = expat.exp;
-
-                Object value;
-
-                if ( Expression.class.isAssignableFrom( dynaTag.getAttributeType(name) ) ) {
-                    value = expression;
-                } else {
-                    value = expression.evaluate(context);
-                }
-
-                if( expat.prefix != null && expat.prefix.length() > 0 && tag instanceof StaticTag )
-                {
-                    ((StaticTag) dynaTag).setAttribute(name,expat.prefix, expat.nsURI,value);
-                }
-                else
-                {
-                    dynaTag.setAttribute(name, value);
-                }
+            if (isStaticOutputUsable(tag, context)) {
+                writeStaticOutput((StaticTag) tag, context, output);
+            }
+            else {
+                setAttributes((DynaTag) tag, context);
+                tag.doTag(output);
             }
-
-            tag.doTag(output);
         }
         catch (JellyTagException e) {
             handleException(e);
@@ -129,6 +196,130 @@ public class StaticTagScript extends TagScript {
         }
     }
 
+    /**
+     * Sets the attributes of the tag
+     */
+    protected void setAttributes(DynaTag dynaTag, JellyContext context) throws JellyTagException {
+        // ### probably compiling this to 2 arrays might be quicker and smaller
+        for (Iterator iter = attributes.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            String name = (String) entry.getKey();
+            if(name.indexOf(':')!=-1)
+                name = name.substring(name.indexOf(':')+1);
+            ExpressionAttribute expat = (ExpressionAttribute) entry.getValue();
+            Expression expression = expat.exp;
+
+            Object value;
+
+            if ( Expression.class.isAssignableFrom( dynaTag.getAttributeType(name) ) ) {
+                value = expression;
+            } else {
+                value = expression.evaluate(context);
+            }
+
+            if( expat.prefix != null && expat.prefix.length() > 0 && dynaTag instanceof StaticTag )
+            {
+                ((StaticTag) dynaTag).setAttribute(name,expat.prefix, expat.nsURI,value);
+            }
+            else
+            {
+                dynaTag.setAttribute(name, value);
+            }
+        }
+    }
+
+    /**
+     * @return whether the recorded output of this static subtree may be used.
+     * As the whole subtree is in one namespace, no tag library for that namespace
+     * means none of its elements can have become a dynamic tag.
+     */
+    protected boolean isStaticOutputUsable(Tag tag, JellyContext context) {
+        return staticSubtree
+            && tag instanceof StaticTag
+            && context.getTagListener() == null
+            && context.getTagLibrary(namespaceURI) == null;
+    }
+
+    /**
+     * Writes the output of this static subtree, recording it first if
+     * this is the first time it has been run
+     */
+    protected void writeStaticOutput(StaticTag tag, JellyContext context, XMLOutput output)
+        throws JellyTagException {
+        boolean trim = tag.isTrim();
+        StaticOutput staticOutput = trim ? trimmedOutput : untrimmedOutput;
+        try {
+            if (staticOutput == null) {
+                setAttributes(tag, context);
+                BufferedXMLOutput events = new BufferedXMLOutput();
+                tag.doTag(events);
+                staticOutput = new StaticOutput(events, serializable ? new SerializedXML(events) : null);
+                if (trim) {
+                    trimmedOutput = staticOutput;
+                }
+                else {
+                    untrimmedOutput = staticOutput;
+                }
+            }
+            if (staticOutput.serialized == null
+                || !output.writeSerialized(namespaceURI, staticOutput.serialized)) {
+                staticOutput.events.writeTo(output);
+            }
+        }
+        catch (SAXException e) {
+            throw new JellyTagException(e);
+        }
+    }
+
+    /**
+     * @return whether all the attributes are constants
+     */
+    private boolean hasConstantAttributes() {
+        for (Iterator iter = attributes.values().iterator(); iter.hasNext(); ) {
+            ExpressionAttribute expat = (ExpressionAttribute) iter.next();
+            if (!(expat.exp instanceof ConstantExpression)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether neither the element nor its attributes have namespace
+     * prefixes and the element declares no namespaces
+     */
+    private boolean isUnprefixed() {
+        String elementName = getElementName();
+        if (elementName == null || elementName.indexOf(':') >= 0) {
+            return false;
+        }
+        Map tagNamespacesMap = getTagNamespacesMap();
+        if (tagNamespacesMap != null && !tagNamespacesMap.isEmpty()) {
+            return false;
+        }
+        for (Iterator iter = attributes.values().iterator(); iter.hasNext(); ) {
+            ExpressionAttribute expat = (ExpressionAttribute) iter.next();
+            if (expat.prefix != null && expat.prefix.length() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the scripts making up the body
+     */
+    private List getChildScripts() {
+        Script body = getTagBody();
+        if (body instanceof ScriptBlock) {
+            return ((ScriptBlock) body).getScriptList();
+        }
+        if (body == null) {
+            return Collections.EMPTY_LIST;
+        }
+        return Collections.singletonList(body);
+    }
+
     /**
      * Attempts to find a dynamically created tag that has been created since this
      * script was compiled
@@ -146,4 +337,17 @@ public class StaticTagScript extends TagScript {
         }
         return tag;
     }
+
+    /**
+     * The recorded output of a static subtree
+     */
+    private static final class StaticOutput {
+        final BufferedXMLOutput events;
+        final SerializedXML serialized;
+
+        StaticOutput(BufferedXMLOutput events, SerializedXML serialized) {
+            this.events = events;
+            this.serialized = serialized;
+        }
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import org.apache.commons.jelly.JellyContext;
+
+/**
+ * <p><code>TagListener</code> is notified before and after each
+ * {@link TagScript} is run, so that the time spent in each tag of a script
+ * can be measured. A listener is registered via
+ * {@link JellyContext#setTagListener(TagListener)}; when none is registered
+ * running a tag costs no more than a null check.</p>
+ *
+ * <p>The location of a tag is available from the TagScript via
+ * <code>getFileName()</code>, <code>getLineNumber()</code> and
+ * <code>getElementName()</code>.</p>
+ *
+ * <b>Note</b> that implementations should be re-entrant and used
+ * concurrently by multiple threads. Calls for nested tags are nested on the
+ * same thread.
+ *
+ * @version $Revision$
+ */
+public interface TagListener {
+
+    /**
+     * Called before the tag of the given script is created, has its
+     * attributes set and is run
+     */
+    public void startTag(TagScript script, JellyContext context);
+
+    /**
+     * Called after the tag of the given script has been run, whether or not
+     * it completed normally
+     */
+    public void endTag(TagScript script, JellyContext context);
+}
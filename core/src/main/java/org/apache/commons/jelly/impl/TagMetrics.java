@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+/**
+ * <p><code>TagMetrics</code> holds the measurements a
+ * {@link TagMetricsCollector} made of the tags at one location in a script.</p>
+ *
+ * <p>Total times include the time spent in nested tags whereas self times
+ * exclude it. Allocated bytes are estimates from the JVM and are -1 if
+ * allocations were not tracked for every invocation.</p>
+ *
+ * @version $Revision$
+ */
+public class TagMetrics {
+
+    private final String fileName;
+    private final int lineNumber;
+    private final String elementName;
+
+    long invocationCount;
+    long totalNanos;
+    long selfNanos;
+    long allocatedBytes;
+    long selfAllocatedBytes;
+
+    TagMetrics(String fileName, int lineNumber, String elementName) {
+        this.fileName = fileName;
+        this.lineNumber = lineNumber;
+        this.elementName = elementName;
+    }
+
+    public String toString() {
+        return getLocation() + " <" + elementName + "> invocations=" + invocationCount
+            + " totalNanos=" + totalNanos + " selfNanos=" + selfNanos;
+    }
+
+    /**
+     * @return the file name and line number of the tags, as in error messages
+     */
+    public String getLocation() {
+        return fileName + ":" + lineNumber;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getElementName() {
+        return elementName;
+    }
+
+    public long getInvocationCount() {
+        return invocationCount;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getSelfNanos() {
+        return selfNanos;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getSelfAllocatedBytes() {
+        return selfAllocatedBytes;
+    }
+
+    /**
+     * Adds the measurements of the given metrics of the same location
+     */
+    void add(TagMetrics metrics) {
+        invocationCount += metrics.invocationCount;
+        totalNanos += metrics.totalNanos;
+        selfNanos += metrics.selfNanos;
+        if (allocatedBytes >= 0 && metrics.allocatedBytes >= 0) {
+            allocatedBytes += metrics.allocatedBytes;
+            selfAllocatedBytes += metrics.selfAllocatedBytes;
+        }
+        else {
+            allocatedBytes = -1;
+            selfAllocatedBytes = -1;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p><code>TagMetricsCollector</code> is a {@link TagListener} which
+ * measures how often each tag of a script is run, the time spent in it with
+ * and without its nested tags and, optionally, an estimate of the memory
+ * it allocated. Measurements are grouped by the file, line and element
+ * name of the tags.</p>
+ *
+ * <p>To find out which tags of a slow script are responsible, register a
+ * collector before running the script and then read its report:</p>
+ *
+ * <pre>
+ * TagMetricsCollector collector = new TagMetricsCollector();
+ * context.setTagListener(collector);
+ * context.runScript(url, output);
+ * System.out.println(collector.getReport());
+ * </pre>
+ *
+ * <p>The collector is also a standard MBean, so that it can be read and
+ * reset via JMX, see {@link #registerMBean(MBeanServer, ObjectName)}.</p>
+ *
+ * @version $Revision$
+ */
+public class TagMetricsCollector implements TagListener, TagMetricsCollectorMBean {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(TagMetricsCollector.class);
+
+    /** The name under which {@link #registerMBean()} registers collectors */
+    public static final String DEFAULT_OBJECT_NAME = "org.apache.commons.jelly:type=TagMetrics";
+
+    /** The bean used to estimate allocations or null if the JVM does not support it */
+    private static final Object threadMXBean;
+
+    /** The method which returns the bytes allocated by a thread */
+    private static final Method allocatedBytesMethod;
+
+    static {
+        Object bean = null;
+        Method method = null;
+        try {
+            Class beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            Object candidate = ManagementFactory.getThreadMXBean();
+            if (beanClass.isInstance(candidate)) {
+                Method supported = beanClass.getMethod("isThreadAllocatedMemorySupported", new Class[0]);
+                if (Boolean.TRUE.equals(supported.invoke(candidate, new Object[0]))) {
+                    method = beanClass.getMethod("getThreadAllocatedBytes", new Class[] {Long.TYPE});
+                    bean = candidate;
+                }
+            }
+        }
+        catch (Throwable e) {
+            log.debug("Allocations of tags cannot be estimated by this JVM", e);
+        }
+        threadMXBean = bean;
+        allocatedBytesMethod = method;
+    }
+
+    /**
+     * The measurements keyed by the location of the tags, so that scripts
+     * which are compiled again are measured together and are not kept
+     */
+    private final ConcurrentHashMap metrics = new ConcurrentHashMap();
+
+    /** The tags which are running on each thread, removed when the outermost is done */
+    private final ThreadLocal frames = new ThreadLocal() {
+        protected Object initialValue() {
+            return new FrameStack();
+        }
+    };
+
+    /** Whether allocations are estimated */
+    private volatile boolean trackAllocations;
+
+    public TagMetricsCollector() {
+    }
+
+    /**
+     * @param trackAllocations whether allocations are estimated, which
+     *  roughly doubles the cost of measuring each tag
+     */
+    public TagMetricsCollector(boolean trackAllocations) {
+        setTrackAllocations(trackAllocations);
+    }
+
+    public String toString() {
+        return super.toString() + "[locations=" + getLocationCount()
+            + ";invocations=" + getInvocationCount() + "]";
+    }
+
+    /**
+     * Registers this collector with the platform MBeanServer under
+     * {@link #DEFAULT_OBJECT_NAME}
+     *
+     * @return the name this collector was registered under
+     */
+    public ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName(DEFAULT_OBJECT_NAME);
+        registerMBean(ManagementFactory.getPlatformMBeanServer(), name);
+        return name;
+    }
+
+    /**
+     * Registers this collector with the given MBeanServer
+     */
+    public void registerMBean(MBeanServer server, ObjectName name) throws JMException {
+        server.registerMBean(this, name);
+    }
+
+    // TagListener interface
+    //-------------------------------------------------------------------------
+    public void startTag(TagScript script, JellyContext context) {
+        FrameStack stack = (FrameStack) frames.get();
+        long allocated = trackAllocations ? getAllocatedBytes() : -1;
+        stack.push(System.nanoTime(), allocated);
+    }
+
+    public void endTag(TagScript script, JellyContext context) {
+        long now = System.nanoTime();
+        FrameStack stack = (FrameStack) frames.get();
+        if (stack.depth == 0) {
+            // the collector was registered while the tag was running
+            frames.remove();
+            return;
+        }
+        int frame = --stack.depth;
+        if (frame == 0) {
+            frames.remove();
+        }
+        long elapsed = now - stack.startNanos[frame];
+        long self = elapsed - stack.childNanos[frame];
+        long allocated = -1;
+        long selfAllocated = -1;
+        if (stack.startAllocated[frame] >= 0) {
+            long end = getAllocatedBytes();
+            if (end >= 0) {
+                allocated = end - stack.startAllocated[frame];
+                selfAllocated = allocated - stack.childAllocated[frame];
+            }
+        }
+        if (frame > 0) {
+            stack.childNanos[frame - 1] += elapsed;
+            if (allocated >= 0) {
+                stack.childAllocated[frame - 1] += allocated;
+            }
+        }
+
+        Location location = new Location(script.getFileName(), script.getLineNumber(), script.getElementName());
+        TagMetrics entry = (TagMetrics) metrics.get(location);
+        if (entry == null) {
+            entry = new TagMetrics(location.fileName, location.lineNumber, location.elementName);
+            TagMetrics previous = (TagMetrics) metrics.putIfAbsent(location, entry);
+            if (previous != null) {
+                entry = previous;
+            }
+        }
+        synchronized (entry) {
+            entry.invocationCount++;
+            entry.totalNanos += elapsed;
+            entry.selfNanos += self;
+            if (allocated >= 0 && entry.allocatedBytes >= 0) {
+                entry.allocatedBytes += allocated;
+                entry.selfAllocatedBytes += selfAllocated;
+            }
+            else {
+                entry.allocatedBytes = -1;
+                entry.selfAllocatedBytes = -1;
+            }
+        }
+    }
+
+    // TagMetricsCollectorMBean interface
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return a table of the measured tags, with the most self time first
+     */
+    public String getReport() {
+        List list = getMetrics();
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("invocations    total ms     self ms   self KB  location <element>\n");
+        for (Iterator iter = list.iterator(); iter.hasNext(); ) {
+            TagMetrics entry = (TagMetrics) iter.next();
+            pad(buffer, String.valueOf(entry.getInvocationCount()), 11);
+            pad(buffer, toMillis(entry.getTotalNanos()), 12);
+            pad(buffer, toMillis(entry.getSelfNanos()), 12);
+            pad(buffer, entry.getSelfAllocatedBytes() < 0 ? "-" : String.valueOf(entry.getSelfAllocatedBytes() / 1024), 10);
+            buffer.append("  ").append(entry.getLocation());
+            buffer.append(" <").append(entry.getElementName()).append(">\n");
+        }
+        return buffer.toString();
+    }
+
+    public int getLocationCount() {
+        return getMetrics().size();
+    }
+
+    public long getInvocationCount() {
+        long answer = 0;
+        for (Iterator iter = metrics.values().iterator(); iter.hasNext(); ) {
+            TagMetrics entry = (TagMetrics) iter.next();
+            synchronized (entry) {
+                answer += entry.invocationCount;
+            }
+        }
+        return answer;
+    }
+
+    public boolean isTrackAllocations() {
+        return trackAllocations;
+    }
+
+    public void setTrackAllocations(boolean trackAllocations) {
+        if (trackAllocations && allocatedBytesMethod == null) {
+            log.warn("Allocations of tags cannot be estimated by this JVM");
+            return;
+        }
+        this.trackAllocations = trackAllocations;
+    }
+
+    public void reset() {
+        metrics.clear();
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return a snapshot of the measurements of each location, with the
+     *  most self time first
+     */
+    public List getMetrics() {
+        List answer = new ArrayList();
+        for (Iterator iter = metrics.values().iterator(); iter.hasNext(); ) {
+            TagMetrics entry = (TagMetrics) iter.next();
+            TagMetrics copy = new TagMetrics(entry.getFileName(), entry.getLineNumber(), entry.getElementName());
+            synchronized (entry) {
+                copy.add(entry);
+            }
+            answer.add(copy);
+        }
+        Collections.sort(answer, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long self1 = ((TagMetrics) o1).getSelfNanos();
+                long self2 = ((TagMetrics) o2).getSelfNanos();
+                return self1 > self2 ? -1 : (self1 == self2 ? 0 : 1);
+            }
+        });
+        return answer;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the number of bytes allocated by the current thread so far
+     */
+    private static long getAllocatedBytes() {
+        try {
+            Object[] args = {new Long(Thread.currentThread().getId())};
+            return ((Long) allocatedBytesMethod.invoke(threadMXBean, args)).longValue();
+        }
+        catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static String toMillis(long nanos) {
+        long hundredths = nanos / 10000;
+        String fraction = String.valueOf(hundredths % 100);
+        return (hundredths / 100) + (fraction.length() == 1 ? ".0" : ".") + fraction;
+    }
+
+    private static void pad(StringBuffer buffer, String text, int width) {
+        for (int i = text.length(); i < width; i++) {
+            buffer.append(' ');
+        }
+        buffer.append(text);
+    }
+
+    /**
+     * The file, line and element name of the tags whose measurements are
+     * kept together
+     */
+    private static final class Location {
+        final String fileName;
+        final int lineNumber;
+        final String elementName;
+        private final int hashCode;
+
+        Location(String fileName, int lineNumber, String elementName) {
+            this.fileName = fileName;
+            this.lineNumber = lineNumber;
+            this.elementName = elementName;
+            int hash = lineNumber;
+            hash = 31 * hash + (fileName == null ? 0 : fileName.hashCode());
+            hash = 31 * hash + (elementName == null ? 0 : elementName.hashCode());
+            this.hashCode = hash;
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Location)) {
+                return false;
+            }
+            Location that = (Location) object;
+            return lineNumber == that.lineNumber
+                && (fileName == null ? that.fileName == null : fileName.equals(that.fileName))
+                && (elementName == null ? that.elementName == null : elementName.equals(that.elementName));
+        }
+    }
+
+    /**
+     * The start times and allocations of the tags running on one thread
+     */
+    private static class FrameStack {
+        int depth;
+        long[] startNanos = new long[16];
+        long[] childNanos = new long[16];
+        long[] startAllocated = new long[16];
+        long[] childAllocated = new long[16];
+
+        void push(long nanos, long allocated) {
+            if (depth == startNanos.length) {
+                startNanos = grow(startNanos);
+                childNanos = grow(childNanos);
+                startAllocated = grow(startAllocated);
+                childAllocated = grow(childAllocated);
+            }
+            startNanos[depth] = nanos;
+            childNanos[depth] = 0;
+            startAllocated[depth] = allocated;
+            childAllocated[depth] = 0;
+            depth++;
+        }
+
+        private static long[] grow(long[] array) {
+            long[] answer = new long[array.length * 2];
+            System.arraycopy(array, 0, answer, 0, array.length);
+            return answer;
+        }
+    }
+}
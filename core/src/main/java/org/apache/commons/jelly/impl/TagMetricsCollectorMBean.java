@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+/**
+ * The management interface of a {@link TagMetricsCollector}
+ *
+ * @version $Revision$
+ */
+public interface TagMetricsCollectorMBean {
+
+    /**
+     * @return a report of the measured tags, slowest first
+     */
+    public String getReport();
+
+    /**
+     * @return the number of distinct tag locations which have been measured
+     */
+    public int getLocationCount();
+
+    /**
+     * @return the number of tags which have been run
+     */
+    public long getInvocationCount();
+
+    /**
+     * @return whether allocations are estimated
+     */
+    public boolean isTrackAllocations();
+
+    /**
+     * Sets whether allocations are estimated, if the JVM supports it
+     */
+    public void setTrackAllocations(boolean trackAllocations);
+
+    /**
+     * Discards all the measurements
+     */
+    public void reset();
+}
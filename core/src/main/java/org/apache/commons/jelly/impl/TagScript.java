@@ -17,25 +17,21 @@
 package org.apache.commons.jelly.impl;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Collections;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.beanutils.ConvertingWrapDynaBean;
 import org.apache.commons.beanutils.ConvertUtils;
-import org.apache.commons.beanutils.DynaBean;
-import org.apache.commons.beanutils.DynaProperty;
 
 import org.apache.commons.jelly.CompilableTag;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.JellyTagException;
-import org.apache.commons.jelly.DynaTag;
 import org.apache.commons.jelly.LocationAware;
 import org.apache.commons.jelly.NamespaceAwareTag;
 import org.apache.commons.jelly.Script;
@@ -57,6 +53,11 @@ import org.xml.sax.SAXException;
  * <b>Note</b> that this class should be re-entrant and used
  * concurrently by multiple threads.
  *
+ * <p>How the attributes are set on the tag is worked out the first time
+ * the tag is run, including which <code>ConvertUtils</code> converters are
+ * used for them. Converters which are replaced after that are only used by
+ * scripts compiled afterwards.</p>
+ *
  * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
  * @version $Revision$
  */
@@ -111,10 +112,29 @@ public class TagScript implements Script {
     
     /** the url of the script when parsed */
     private URL scriptURL = null;
+
+    /** how the attributes are set on the tag, created lazily on first use */
+    private volatile AttributeBindingPlan attributeBindingPlan;
     
-    /** A synchronized WeakHashMap from the current Thread (key) to a Tag object (value).
+    /** The smallest number of cached tags before entries for dead threads are purged */
+    private static final int MINIMUM_PURGE_THRESHOLD = 16;
+
+    /** The key which identifies the current Thread in the tag cache of every TagScript */
+    private static final ThreadLocal threadKey = new ThreadLocal() {
+        protected Object initialValue() {
+            return new ThreadKey(Thread.currentThread());
+        }
+    };
+
+    /**
+     * A map from the ThreadKey of a Thread to the Tag object used by it.
+     * Lookups do not lock and updates only lock a small part of the map so
+     * that many threads can run the same script concurrently.
      */
-    private Map threadLocalTagCache = Collections.synchronizedMap(new WeakHashMap());
+    private final Map threadLocalTagCache = new ConcurrentHashMap(4, 0.75f, 4);
+
+    /** The number of cached tags at which entries for dead threads are purged */
+    private int purgeThreshold = MINIMUM_PURGE_THRESHOLD;
 
     /**
      * @return a new TagScript based on whether
@@ -158,6 +178,14 @@ public class TagScript implements Script {
         this.tagNamespacesMap = tagNamespacesMap;
     }
 
+    /**
+     * @return the namespaces prefix -> URI map of the namespaces attached
+     * to this Tag, or null if there are none
+     */
+    public Map getTagNamespacesMap() {
+        return tagNamespacesMap;
+    }
+
     /**
      * Configures this TagScript from the SAX Locator, setting the column
      * and line numbers
@@ -176,6 +204,7 @@ public class TagScript implements Script {
             log.debug("adding attribute name: " + name + " expression: " + expression);
         }
         attributes.put(name, new ExpressionAttribute(name,expression));
+        attributeBindingPlan = null;
     }
 
     /** Add an initialization attribute for the tag.
@@ -188,6 +217,7 @@ public class TagScript implements Script {
         if(name.indexOf(':')==-1)
             name = prefix + ':' + name;
         attributes.put(name, new ExpressionAttribute(name,prefix,nsURI,expression));
+        attributeBindingPlan = null;
     }
 
     /**
@@ -204,8 +234,27 @@ public class TagScript implements Script {
     // Script interface
     //-------------------------------------------------------------------------
 
-    /** Evaluates the body of a tag */
+    /**
+     * Evaluates the body of a tag, notifying the TagListener of the context
+     * if there is one
+     */
     public void run(JellyContext context, XMLOutput output) throws JellyTagException {
+        TagListener listener = context.getTagListener();
+        if (listener == null) {
+            runTag(context, output);
+            return;
+        }
+        listener.startTag(this, context);
+        try {
+            runTag(context, output);
+        }
+        finally {
+            listener.endTag(this, context);
+        }
+    }
+
+    /** Evaluates the body of a tag */
+    protected void runTag(JellyContext context, XMLOutput output) throws JellyTagException {
         URL rootURL = context.getRootURL();
         URL currentURL = context.getCurrentURL();
         if ( ! context.isCacheTags() ) {
@@ -219,56 +268,18 @@ public class TagScript implements Script {
             tag.setContext(context);
             setContextURLs(context);
 
-            if ( tag instanceof DynaTag ) {
-                DynaTag dynaTag = (DynaTag) tag;
-
-                // ### probably compiling this to 2 arrays might be quicker and smaller
-                for (Iterator iter = attributes.entrySet().iterator(); iter.hasNext();) {
-                    Map.Entry entry = (Map.Entry) iter.next();
-                    String name = (String) entry.getKey();
-                    Expression expression = ((ExpressionAttribute) entry.getValue()).exp;
-
-                    Class type = dynaTag.getAttributeType(name);
-                    Object value = null;
-                    if (type != null && type.isAssignableFrom(Expression.class) && !type.isAssignableFrom(Object.class)) {
-                        value = expression;
-                    }
-                    else {
-                        value = expression.evaluateRecurse(context);
-                    }
-                    dynaTag.setAttribute(name, value);
-                }
-            }
-            else {
-                // treat the tag as a bean
-                DynaBean dynaBean = new ConvertingWrapDynaBean( tag );
-                for (Iterator iter = attributes.entrySet().iterator(); iter.hasNext();) {
-                    Map.Entry entry = (Map.Entry) iter.next();
-                    String name = (String) entry.getKey();
-                    Expression expression = ((ExpressionAttribute) entry.getValue()).exp;
-
-                    DynaProperty property = dynaBean.getDynaClass().getDynaProperty(name);
-                    if (property == null) {
-                        throw new JellyException("This tag does not understand the '" + name + "' attribute" );
-                    }
-                    Class type = property.getType();
-
-                    Object value = null;
-                    if (type.isAssignableFrom(Expression.class) && !type.isAssignableFrom(Object.class)) {
-                        value = expression;
-                    }
-                    else {
-                        value = expression.evaluateRecurse(context);
-                    }
-                    dynaBean.set(name, value);
-                }
-            }
+            getAttributeBindingPlan(tag).apply(tag, context);
 
             tag.doTag(output);
             if (output != null) {
-                output.flush();
+                output.autoFlush();
             }
         }
+        catch (BreakException e) {
+            // a loop is being terminated, so pass it straight on to the loop
+            applyLocation(e);
+            throw e;
+        }
         catch (JellyTagException e) {
             handleException(e);
         } catch (JellyException e) {
@@ -292,6 +303,19 @@ public class TagScript implements Script {
 
     }
 
+    /**
+     * @return the plan used to set the attributes of the given tag, which is
+     * created on first use and recreated if the class of the tag changes
+     */
+    private AttributeBindingPlan getAttributeBindingPlan(Tag tag) throws JellyException {
+        AttributeBindingPlan plan = attributeBindingPlan;
+        if ( plan == null || plan.getTagClass() != tag.getClass() ) {
+            plan = new AttributeBindingPlan(tag.getClass(), attributes);
+            attributeBindingPlan = plan;
+        }
+        return plan;
+    }
+
     /**
      * Set the context's root and current URL if not present
      * @param context
@@ -312,12 +336,11 @@ public class TagScript implements Script {
      * @return the tag to be evaluated, creating it lazily if required.
      */
     public Tag getTag(JellyContext context) throws JellyException {
-        Thread t = Thread.currentThread();
-        Tag tag = (Tag) threadLocalTagCache.get(t);
+        Tag tag = (Tag) threadLocalTagCache.get(threadKey.get());
         if ( tag == null ) {
             tag = createTag();
             if ( tag != null ) {
-                threadLocalTagCache.put(t,tag);
+                putTag(tag);
                 configureTag(tag,context);
             }
         }
@@ -554,8 +577,7 @@ public class TagScript implements Script {
      * Flushes the current cached tag so that it will be created, lazily, next invocation
      */
     protected void clearTag() {
-        Thread t = Thread.currentThread();
-        threadLocalTagCache.put(t,null);
+        threadLocalTagCache.remove(threadKey.get());
     }
 
     /**
@@ -563,8 +585,32 @@ public class TagScript implements Script {
      * when a StaticTag is switched with a DynamicTag
      */
     protected void setTag(Tag tag, JellyContext context) {
-        Thread t = Thread.currentThread();
-        threadLocalTagCache.put(t,tag);
+        putTag(tag);
+    }
+
+    /**
+     * Caches the tag used by the current thread. Whenever the cache has grown
+     * enough the tags of threads which have since died are released.
+     */
+    private void putTag(Tag tag) {
+        threadLocalTagCache.put(threadKey.get(), tag);
+        if ( threadLocalTagCache.size() > purgeThreshold ) {
+            purgeDeadThreads();
+        }
+    }
+
+    /**
+     * Removes the cached tags of any threads which have terminated or been
+     * garbage collected
+     */
+    private void purgeDeadThreads() {
+        for ( Iterator iter = threadLocalTagCache.keySet().iterator(); iter.hasNext(); ) {
+            Thread thread = (Thread) ((ThreadKey) iter.next()).get();
+            if ( thread == null || ! thread.isAlive() ) {
+                iter.remove();
+            }
+        }
+        purgeThreshold = Math.max( MINIMUM_PURGE_THRESHOLD, threadLocalTagCache.size() * 2 );
     }
 
     /**
@@ -731,6 +777,17 @@ public class TagScript implements Script {
 
         throw new JellyTagException(e, fileName, elementName, columnNumber, lineNumber);
     }
+
+    /**
+     * Identifies a Thread in the tag caches without preventing it from being
+     * garbage collected. There is exactly one key per thread so identity
+     * equality is used.
+     */
+    private static final class ThreadKey extends WeakReference {
+        ThreadKey(Thread thread) {
+            super(thread);
+        }
+    }
 }
 
 
@@ -33,6 +33,12 @@ public class TextScript implements Script {
     /** the text output by this script */
     private String text;
 
+    /** the characters of the text, created lazily when the script is first run */
+    private char[] chars;
+
+    /** this script with its whitespace trimmed, created when first needed */
+    private TextScript trimmedScript;
+
     public TextScript() {
     }
 
@@ -49,6 +55,8 @@ public class TextScript implements Script {
      */
     public void trimWhitespace() {
         this.text = text.trim();
+        this.chars = null;
+        this.trimmedScript = null;
     }
 
     /**
@@ -64,6 +72,8 @@ public class TextScript implements Script {
         }
         if ( index > 0 ) {
             this.text = text.substring(index);
+            this.chars = null;
+            this.trimmedScript = null;
         }
     }
 
@@ -81,6 +91,8 @@ public class TextScript implements Script {
         index++;
         if ( index < text.length() ) {
             this.text = text.substring(0,index);
+            this.chars = null;
+            this.trimmedScript = null;
         }
     }
 
@@ -92,19 +104,50 @@ public class TextScript implements Script {
     /** Sets the text output by this script */
     public void setText(String text) {
         this.text = text;
+        this.chars = null;
+        this.trimmedScript = null;
+    }
+
+    /**
+     * Returns a script which outputs the text of this script with its
+     * whitespace trimmed, leaving this script unchanged.
+     *
+     * @return the trimmed script, which is this script if the text
+     * has no whitespace to trim
+     */
+    public TextScript getTrimmedScript() {
+        TextScript answer = trimmedScript;
+        if (answer == null) {
+            answer = this;
+            if (text != null) {
+                String trimmed = text.trim();
+                if (trimmed.length() < text.length()) {
+                    answer = new TextScript(trimmed);
+                }
+            }
+            trimmedScript = answer;
+        }
+        return answer;
     }
 
     // Script interface
     //-------------------------------------------------------------------------
     public Script compile() {
+        getTrimmedScript();
         return this;
     }
 
     /** Evaluates the body of a tag */
     public void run(JellyContext context, XMLOutput output) throws JellyTagException {
         if ( text != null ) {
+            // the text is constant so its characters are only copied once
+            char[] ch = chars;
+            if ( ch == null ) {
+                ch = text.toCharArray();
+                chars = ch;
+            }
             try {
-              output.write(text);
+              output.characters(ch, 0, ch.length);
             } catch (SAXException e) {
                 throw new JellyTagException("could not write to XMLOutput",e);
             }
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.parser;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.jar.JarEntry;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * <p><code>CompiledScriptReader</code> reads a script written by a
+ * {@link CompiledScriptWriter} and passes its SAX events to a ContentHandler,
+ * such as an {@link XMLParser}, which is quicker than parsing the XML
+ * of the script again. It is also the Locator of the events, giving
+ * the line and column number of each element.</p>
+ *
+ * <p>The compiled form of a script is kept next to it, with the same name
+ * followed by {@link #SUFFIX}, so <code>foo.jelly</code> is compiled into
+ * <code>foo.jellyc</code>.</p>
+ *
+ * @see XMLParser#parseCompiled(InputStream, String)
+ * @version $Revision$
+ */
+public class CompiledScriptReader implements Locator {
+
+    /** What is added to the name of a script to give the name of its compiled form */
+    public static final String SUFFIX = "c";
+
+    /** The first four bytes of a compiled script */
+    static final int MAGIC = 0x4A454C43;
+
+    /** The version of the format, which is changed whenever the format changes */
+    static final int VERSION = 1;
+
+    static final int START_DOCUMENT = 1;
+    static final int END_DOCUMENT = 2;
+    static final int START_ELEMENT = 3;
+    static final int END_ELEMENT = 4;
+    static final int CHARACTERS = 5;
+    static final int START_PREFIX_MAPPING = 6;
+    static final int END_PREFIX_MAPPING = 7;
+
+    /** The stream the events are read from */
+    private final DataInputStream in;
+
+    /** The system ID of the script */
+    private final String systemId;
+
+    /** The strings read so far, in the order they were written */
+    private final ArrayList strings = new ArrayList();
+
+    /** The line number of the current element */
+    private int lineNumber = -1;
+
+    /** The column number of the current element */
+    private int columnNumber = -1;
+
+    /**
+     * @param in the stream to read the compiled script from
+     * @param systemId the system ID of the script, which is given by the Locator
+     */
+    public CompiledScriptReader(InputStream in, String systemId) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.systemId = systemId;
+    }
+
+    /**
+     * @return the URL of the compiled form of the script at the given URL
+     */
+    public static URL getCompiledURL(URL url) {
+        try {
+            return new URL(url.toExternalForm() + SUFFIX);
+        }
+        catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the compiled script exists and is at least as new as the
+     * script. Only <code>file</code> and <code>jar</code> URLs are checked, other
+     * URLs are never up to date so that no connection is made to check them.
+     *
+     * @param url the URL of the script
+     * @param compiledURL the URL of its compiled form
+     * @return whether the compiled form should be read instead of the script
+     */
+    public static boolean isUpToDate(URL url, URL compiledURL) {
+        long compiledTime = getLastModified(compiledURL);
+        return compiledTime > 0 && compiledTime >= getLastModified(url);
+    }
+
+    /**
+     * Reads the compiled script, passing its events to the given handler
+     *
+     * @param handler the handler to pass the events to
+     * @throws IOException if the script could not be read or is not a compiled script
+     * @throws SAXException if the handler fails
+     */
+    public void read(ContentHandler handler) throws IOException, SAXException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a compiled Jelly script: " + systemId);
+        }
+        int version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Compiled Jelly script: " + systemId
+                + " has version " + version + " rather than " + VERSION);
+        }
+        handler.setDocumentLocator(this);
+
+        AttributesImpl attributes = new AttributesImpl();
+        char[] buffer = new char[256];
+        while (true) {
+            int event = in.readByte();
+            switch (event) {
+                case START_DOCUMENT:
+                    handler.startDocument();
+                    break;
+                case END_DOCUMENT:
+                    handler.endDocument();
+                    return;
+                case START_ELEMENT:
+                    lineNumber = readNumber() - 1;
+                    columnNumber = readNumber() - 1;
+                    String namespaceURI = readString();
+                    String localName = readString();
+                    String qName = readString();
+                    attributes.clear();
+                    for (int i = readNumber(); i > 0; i--) {
+                        attributes.addAttribute(readString(), readString(), readString(),
+                            readString(), readString());
+                    }
+                    handler.startElement(namespaceURI, localName, qName, attributes);
+                    break;
+                case END_ELEMENT:
+                    handler.endElement(readString(), readString(), readString());
+                    break;
+                case CHARACTERS:
+                    String text = readString();
+                    if (text.length() > buffer.length) {
+                        buffer = new char[text.length()];
+                    }
+                    text.getChars(0, text.length(), buffer, 0);
+                    handler.characters(buffer, 0, text.length());
+                    break;
+                case START_PREFIX_MAPPING:
+                    handler.startPrefixMapping(readString(), readString());
+                    break;
+                case END_PREFIX_MAPPING:
+                    handler.endPrefixMapping(readString());
+                    break;
+                default:
+                    throw new IOException("Unknown event: " + event + " in compiled Jelly script: " + systemId);
+            }
+        }
+    }
+
+    // Locator interface
+    //-------------------------------------------------------------------------
+    public String getPublicId() {
+        return null;
+    }
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public int getColumnNumber() {
+        return columnNumber;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Reads a string written by {@link CompiledScriptWriter}
+     */
+    private String readString() throws IOException {
+        int index = readNumber();
+        if (index == 0) {
+            return null;
+        }
+        if (index > 1) {
+            if (index - 2 >= strings.size()) {
+                throw new IOException("Unknown string: " + index + " in compiled Jelly script: " + systemId);
+            }
+            return (String) strings.get(index - 2);
+        }
+        byte[] bytes = new byte[readNumber()];
+        in.readFully(bytes);
+        String value = new String(bytes, "UTF-8");
+        strings.add(value);
+        return value;
+    }
+
+    /**
+     * Reads a number written seven bits at a time
+     */
+    private int readNumber() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Bad number in compiled Jelly script: " + systemId);
+    }
+
+    /**
+     * @return when the file or jar entry at the URL was last modified,
+     * or zero if it does not exist or is not a file or jar entry
+     */
+    private static long getLastModified(URL url) {
+        try {
+            if ("file".equals(url.getProtocol())) {
+                File file;
+                try {
+                    file = new File(url.toURI());
+                }
+                catch (URISyntaxException e) {
+                    file = new File(url.getFile());
+                }
+                catch (IllegalArgumentException e) {
+                    file = new File(url.getFile());
+                }
+                return file.lastModified();
+            }
+            if ("jar".equals(url.getProtocol())) {
+                URLConnection connection = url.openConnection();
+                JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+                return entry != null ? entry.getTime() : 0;
+            }
+        }
+        catch (IOException e) {
+            // treat it as missing
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * <p><code>CompiledScriptWriter</code> writes the SAX events of a script in
+ * the compact binary format read by {@link CompiledScriptReader}, passing
+ * them on to another ContentHandler, such as the {@link XMLParser} building
+ * the script.</p>
+ *
+ * <p>Only the events an XMLParser uses are written: elements with their
+ * attributes and line and column numbers, text and namespace prefix mappings.
+ * Adjacent text is written as one event and each distinct string is only
+ * written once.</p>
+ *
+ * @see XMLParser#parse(org.xml.sax.InputSource, OutputStream)
+ * @version $Revision$
+ */
+public class CompiledScriptWriter implements ContentHandler {
+
+    /** The stream the events are written to */
+    private final DataOutputStream out;
+
+    /** The handler the events are passed on to, which may be null */
+    private final ContentHandler handler;
+
+    /** The index of each string written so far */
+    private final Map strings = new HashMap();
+
+    /** The text which has not been written yet */
+    private final StringBuffer text = new StringBuffer();
+
+    /** The locator of the parser, which may be null */
+    private Locator locator;
+
+    /**
+     * Creates a writer which does not pass the events on
+     *
+     * @param out the stream to write the events to
+     */
+    public CompiledScriptWriter(OutputStream out) {
+        this(out, null);
+    }
+
+    /**
+     * @param out the stream to write the events to
+     * @param handler the handler to pass the events on to, or null
+     */
+    public CompiledScriptWriter(OutputStream out, ContentHandler handler) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.handler = handler;
+    }
+
+    // ContentHandler interface
+    //-------------------------------------------------------------------------
+    public void setDocumentLocator(Locator locator) {
+        this.locator = locator;
+        if (handler != null) {
+            handler.setDocumentLocator(locator);
+        }
+    }
+
+    public void startDocument() throws SAXException {
+        try {
+            out.writeInt(CompiledScriptReader.MAGIC);
+            out.writeShort(CompiledScriptReader.VERSION);
+            out.writeByte(CompiledScriptReader.START_DOCUMENT);
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+        if (handler != null) {
+            handler.startDocument();
+        }
+    }
+
+    public void endDocument() throws SAXException {
+        try {
+            writeText();
+            out.writeByte(CompiledScriptReader.END_DOCUMENT);
+            out.flush();
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+        if (handler != null) {
+            handler.endDocument();
+        }
+    }
+
+    public void startElement(String namespaceURI, String localName, String qName, Attributes atts)
+        throws SAXException {
+        try {
+            writeText();
+            out.writeByte(CompiledScriptReader.START_ELEMENT);
+            writeNumber(locator != null ? locator.getLineNumber() + 1 : 0);
+            writeNumber(locator != null ? locator.getColumnNumber() + 1 : 0);
+            writeString(namespaceURI);
+            writeString(localName);
+            writeString(qName);
+            int size = atts.getLength();
+            writeNumber(size);
+            for (int i = 0; i < size; i++) {
+                writeString(atts.getURI(i));
+                writeString(atts.getLocalName(i));
+                writeString(atts.getQName(i));
+                writeString(atts.getType(i));
+                writeString(atts.getValue(i));
+            }
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+        if (handler != null) {
+            handler.startElement(namespaceURI, localName, qName, atts);
+        }
+    }
+
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException {
+        try {
+            writeText();
+            out.writeByte(CompiledScriptReader.END_ELEMENT);
+            writeString(namespaceURI);
+            writeString(localName);
+            writeString(qName);
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+        if (handler != null) {
+            handler.endElement(namespaceURI, localName, qName);
+        }
+    }
+
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        text.append(ch, start, length);
+        if (handler != null) {
+            handler.characters(ch, start, length);
+        }
+    }
+
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        try {
+            writeText();
+            out.writeByte(CompiledScriptReader.START_PREFIX_MAPPING);
+            writeString(prefix);
+            writeString(uri);
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+        if (handler != null) {
+            handler.startPrefixMapping(prefix, uri);
+        }
+    }
+
+    public void endPrefixMapping(String prefix) throws SAXException {
+        try {
+            writeText();
+            out.writeByte(CompiledScriptReader.END_PREFIX_MAPPING);
+            writeString(prefix);
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+        if (handler != null) {
+            handler.endPrefixMapping(prefix);
+        }
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        if (handler != null) {
+            handler.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    public void processingInstruction(String target, String data) throws SAXException {
+        if (handler != null) {
+            handler.processingInstruction(target, data);
+        }
+    }
+
+    public void skippedEntity(String name) throws SAXException {
+        if (handler != null) {
+            handler.skippedEntity(name);
+        }
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Writes any text received since the last event
+     */
+    private void writeText() throws IOException {
+        if (text.length() > 0) {
+            out.writeByte(CompiledScriptReader.CHARACTERS);
+            writeString(text.toString());
+            text.setLength(0);
+        }
+    }
+
+    /**
+     * Writes a string as the index of an earlier copy of it, or as
+     * its UTF-8 bytes the first time it is written
+     */
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            writeNumber(0);
+            return;
+        }
+        Integer index = (Integer) strings.get(value);
+        if (index != null) {
+            writeNumber(index.intValue() + 2);
+            return;
+        }
+        strings.put(value, new Integer(strings.size()));
+        byte[] bytes = value.getBytes("UTF-8");
+        writeNumber(1);
+        writeNumber(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a non negative number in as few bytes as it needs, seven bits at a time
+     */
+    private void writeNumber(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * <p><code>ScriptCompiler</code> writes the compiled form of scripts next to
+ * them, which {@link JellyContext#compileScript(java.net.URL)} then reads
+ * rather than parsing the XML of the script, for as long as the compiled
+ * form is at least as new as the script.</p>
+ *
+ * <p>It can be run from the command line with the scripts, or directories
+ * containing <code>.jelly</code> scripts, to compile. To compile the scripts
+ * of a project when it is built it can be run by the Maven antrun plugin,
+ * once the resources have been copied:</p>
+ *
+ * <pre>
+ * &lt;plugin&gt;
+ *   &lt;artifactId&gt;maven-antrun-plugin&lt;/artifactId&gt;
+ *   &lt;executions&gt;
+ *     &lt;execution&gt;
+ *       &lt;id&gt;compile-jelly-scripts&lt;/id&gt;
+ *       &lt;phase&gt;process-classes&lt;/phase&gt;
+ *       &lt;goals&gt;&lt;goal&gt;run&lt;/goal&gt;&lt;/goals&gt;
+ *       &lt;configuration&gt;
+ *         &lt;target&gt;
+ *           &lt;java classname="org.apache.commons.jelly.parser.ScriptCompiler"
+ *                 classpathref="maven.compile.classpath" failonerror="true"&gt;
+ *             &lt;arg value="${project.build.outputDirectory}"/&gt;
+ *           &lt;/java&gt;
+ *         &lt;/target&gt;
+ *       &lt;/configuration&gt;
+ *     &lt;/execution&gt;
+ *   &lt;/executions&gt;
+ * &lt;/plugin&gt;
+ * </pre>
+ *
+ * @version $Revision$
+ */
+public class ScriptCompiler {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(ScriptCompiler.class);
+
+    /** The context which resolves the tag libraries used by the scripts */
+    private JellyContext context;
+
+    /**
+     * Compiles the given scripts, or the <code>.jelly</code> scripts in the given directories
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: ScriptCompiler (script | directory)...");
+            System.exit(1);
+        }
+        ScriptCompiler compiler = new ScriptCompiler();
+        int count = 0;
+        for (int i = 0; i < args.length; i++) {
+            count += compiler.compileAll(new File(args[i]));
+        }
+        log.info("Compiled " + count + " Jelly scripts");
+    }
+
+    public ScriptCompiler() {
+        this(new JellyContext());
+    }
+
+    /**
+     * @param context the context which resolves the tag libraries used by the scripts
+     */
+    public ScriptCompiler(JellyContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Compiles the given script, or the <code>.jelly</code> scripts in the given
+     * directory and the directories it contains
+     *
+     * @param file the script or directory
+     * @return the number of scripts compiled
+     * @throws JellyException if a script could not be compiled
+     */
+    public int compileAll(File file) throws JellyException {
+        if (!file.isDirectory()) {
+            compile(file);
+            return 1;
+        }
+        int count = 0;
+        File[] files = file.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory() || files[i].getName().endsWith(".jelly")) {
+                count += compileAll(files[i]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Compiles the given script, writing its compiled form next to it
+     *
+     * @param file the script
+     * @return the file the compiled script was written to
+     * @throws JellyException if the script could not be compiled
+     */
+    public File compile(File file) throws JellyException {
+        File compiledFile = new File(file.getPath() + CompiledScriptReader.SUFFIX);
+        XMLParser parser = new XMLParser(context.isAllowDtdToCallExternalEntities());
+        parser.setContext(context);
+        try {
+            OutputStream out = new FileOutputStream(compiledFile);
+            try {
+                parser.parse(new InputSource(file.toURI().toString()), out);
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            compiledFile.delete();
+            throw new JellyException("Could not compile script: " + file, e);
+        }
+        catch (SAXException e) {
+            compiledFile.delete();
+            throw new JellyException("Could not compile script: " + file, e);
+        }
+        return compiledFile;
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.commons.jelly.parser;
 import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.net.URL;
 import java.util.ArrayList;
@@ -27,6 +28,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.WeakHashMap;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -75,9 +77,9 @@ import org.xml.sax.helpers.AttributesImpl;
 public class XMLParser extends DefaultHandler {
 
     /**
-     * Share the Jelly properties across parsers
+     * Share the Jelly properties across parsers, loaded once for each ClassLoader
      */
-    private static Properties jellyProperties;
+    private static final Map jellyPropertiesCache = new WeakHashMap();
 
 
     /** JellyContext which is used to locate tag libraries*/
@@ -125,10 +127,17 @@ public class XMLParser extends DefaultHandler {
     protected ErrorHandler errorHandler = null;
 
     /**
-     * The SAXParserFactory that is created the first time we need it.
+     * The SAXParserFactory that is created the first time we need a
+     * non validating parser.
      */
     protected static SAXParserFactory factory = null;
 
+    /**
+     * The SAXParserFactory that is created the first time we need a
+     * validating parser.
+     */
+    private static SAXParserFactory validatingFactory = null;
+
     /**
      * The SAXParser we will use to parse the input stream.
      */
@@ -332,6 +341,86 @@ public class XMLParser extends DefaultHandler {
         return script;
     }
 
+    /**
+     * Parse the content of the specified input source using this XMLParser,
+     * also writing its events to the given stream as a compiled script,
+     * which can be read again by {@link #parseCompiled}.
+     * Returns the root element from the object stack (if any).
+     *
+     * @param input Input source containing the XML data to be parsed
+     * @param compiledOutput the stream to write the compiled script to, which
+     *   is flushed but not closed
+     *
+     * @throws IOException if an input/output error occurs
+     * @throws SAXException if a parsing exception occurs
+     */
+    public Script parse(InputSource input, OutputStream compiledOutput) throws IOException, SAXException {
+        ensureConfigured();
+        this.fileName = input.getSystemId();
+        XMLReader reader = getXMLReader();
+        reader.setContentHandler(new CompiledScriptWriter(compiledOutput, this));
+        reader.parse(input);
+        return script;
+    }
+
+    /**
+     * Parse a compiled script, written by {@link #parse(InputSource, OutputStream)},
+     * using this XMLParser. This is quicker than parsing the XML of the
+     * script, though its tags and expressions are still created by the
+     * tag libraries it uses.
+     * Returns the root element from the object stack (if any).
+     *
+     * @param input Input stream containing the compiled script
+     * @param systemId the system ID of the script, used as its file name
+     *
+     * @throws IOException if an input/output error occurs or the input is
+     *   not a compiled script
+     * @throws SAXException if a parsing exception occurs
+     */
+    public Script parseCompiled(InputStream input, String systemId) throws IOException, SAXException {
+        ensureConfigured();
+        this.fileName = systemId;
+        new CompiledScriptReader(input, systemId).read(this);
+        return script;
+    }
+
+    /**
+     * Parse the compiled form of the script at the given URL using this
+     * XMLParser, if it is at least as new as the script, as given by
+     * {@link CompiledScriptReader#isUpToDate}. If the compiled script cannot
+     * be read a warning is logged and this parser is made ready to parse
+     * the XML of the script instead. Parsers with a default namespace URI do
+     * not read compiled scripts, which are written without one.
+     *
+     * @param url the URL of the script
+     * @return the script or null if it has no up to date compiled form
+     */
+    public Script parseCompiled(URL url) {
+        if (defaultNamespaceURI != null) {
+            return null;
+        }
+        URL compiledURL = CompiledScriptReader.getCompiledURL(url);
+        if (compiledURL == null || !CompiledScriptReader.isUpToDate(url, compiledURL)) {
+            return null;
+        }
+        try {
+            InputStream in = compiledURL.openStream();
+            try {
+                return parseCompiled(in, url.toString());
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (Exception e) {
+            log.warn("Could not read compiled script: " + compiledURL + ". Reason: " + e, e);
+            JellyContext jellyContext = context;
+            reset();
+            setContext(jellyContext);
+            return null;
+        }
+    }
+
     /**
      * Return the currently mapped namespace URI for the specified prefix,
      * if any; otherwise return <code>null</code>.  These mappings come and
@@ -373,6 +462,13 @@ public class XMLParser extends DefaultHandler {
         this.defaultNamespaceURI = namespace;
     }
 
+    /**
+     * @return the jelly namespace used for unprefixed elements or null if there is none
+     */
+    public String getDefaultNamespaceURI() {
+        return defaultNamespaceURI;
+    }
+
     /**
      * Return the class loader to be used for instantiating application objects
      * when required.  This is determined based upon the following rules:
@@ -524,12 +620,10 @@ public class XMLParser extends DefaultHandler {
         // Create and return a new parser
         synchronized (this) {
             try {
-                if (factory == null) {
-                    factory = SAXParserFactory.newInstance();
+                SAXParserFactory parserFactory = getFactory(validating);
+                synchronized (parserFactory) {
+                    parser = parserFactory.newSAXParser();
                 }
-                factory.setNamespaceAware(true);
-                factory.setValidating(validating);
-                parser = factory.newSAXParser();
                 return (parser);
             }
             catch (Exception e) {
@@ -539,6 +633,28 @@ public class XMLParser extends DefaultHandler {
         }
     }
 
+    /**
+     * Returns the shared SAXParserFactory for validating or non validating
+     * parsers, so that factories are only looked up once and are not
+     * reconfigured while another thread is using them.
+     */
+    private static synchronized SAXParserFactory getFactory(boolean validating) {
+        if (validating) {
+            if (validatingFactory == null) {
+                validatingFactory = SAXParserFactory.newInstance();
+                validatingFactory.setNamespaceAware(true);
+                validatingFactory.setValidating(true);
+            }
+            return validatingFactory;
+        }
+        if (factory == null) {
+            factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setValidating(false);
+        }
+        return factory;
+    }
+
     /**
      * By setting the reader in the constructor, you can bypass JAXP and
      * be able to use digester in Weblogic 6.0.
@@ -611,6 +727,26 @@ public class XMLParser extends DefaultHandler {
         return script;
     }
 
+    /**
+     * Clears the state of the last parse, including the JellyContext, so
+     * that this parser and its XMLReader can be used again, such as by an
+     * {@link XMLParserPool}. The default tag libraries are registered with
+     * the next context that is used.
+     */
+    public void reset() {
+        context = null;
+        script = null;
+        tagScript = null;
+        scriptStack.clear();
+        tagScriptStack.clear();
+        textBuffer = null;
+        locator = null;
+        namespaces.clear();
+        elementNamespaces = null;
+        fileName = null;
+        configured = false;
+    }
+
 
     // ContentHandler interface
     //-------------------------------------------------------------------------
@@ -1008,6 +1144,9 @@ public class XMLParser extends DefaultHandler {
      */
     private void ensureConfigured() {
         if (!configured) {
+            if (context == null) {
+                context = new JellyContext();
+            }
             configure();
             configured = true;
         }
@@ -1035,15 +1174,20 @@ public class XMLParser extends DefaultHandler {
 
 
     /**
-     * A helper method which loads the static Jelly properties once on startup
+     * A helper method which loads the static Jelly properties once for each ClassLoader
      */
-    protected synchronized Properties getJellyProperties() {
-        if (jellyProperties == null) {
+    protected Properties getJellyProperties() {
+        ClassLoader loader = getClassLoader();
+        synchronized (jellyPropertiesCache) {
+            Properties jellyProperties = (Properties) jellyPropertiesCache.get(loader);
+            if (jellyProperties != null) {
+                return jellyProperties;
+            }
             jellyProperties = new Properties();
 
             InputStream in = null;
             URL url =
-                getClassLoader().getResource("org/apache/commons/jelly/jelly.properties");
+                loader.getResource("org/apache/commons/jelly/jelly.properties");
             if (url != null) {
                 log.debug("Loading Jelly default tag libraries from: " + url);
                 try {
@@ -1062,8 +1206,9 @@ public class XMLParser extends DefaultHandler {
                     }
                 }
             }
+            jellyPropertiesCache.put(loader, jellyProperties);
+            return jellyProperties;
         }
-        return jellyProperties;
     }
 
     /**
@@ -1164,7 +1309,8 @@ public class XMLParser extends DefaultHandler {
                     public Tag createTag(String name, Attributes attributes) {
                         return new StaticTag( namespaceURI, localName, qName );
                     }
-                }
+                },
+                namespaceURI
             );
             configureTagScript(script);
 
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.parser;
+
+import java.util.ArrayList;
+
+/**
+ * <p><code>XMLParserPool</code> is a thread safe, size bounded pool of idle
+ * {@link XMLParser} instances, so that the SAXParser and XMLReader of a
+ * parser can be reused to compile many scripts.</p>
+ *
+ * <p>Parsers are pooled separately for each combination of the validating
+ * and allowDtdToCallExternalEntities settings, as these are fixed once the
+ * XMLReader of a parser has been created. A parser is {@link XMLParser#reset reset}
+ * when it is returned, and parsers which use a default namespace are not pooled.</p>
+ *
+ * @version $Revision$
+ */
+public class XMLParserPool {
+
+    /** The default maximum number of idle parsers kept for each setting */
+    public static final int DEFAULT_MAXIMUM_SIZE = 8;
+
+    /** The pool shared by all JellyContexts which do not configure their own */
+    private static final XMLParserPool sharedInstance = new XMLParserPool();
+
+    /** The maximum number of idle parsers kept for each setting */
+    private final int maximumSize;
+
+    /** The idle parsers, indexed by {@link #indexOf} */
+    private final ArrayList[] idleParsers = new ArrayList[4];
+
+    /**
+     * @return the pool shared by all JellyContexts which do not configure their own
+     */
+    public static XMLParserPool getSharedInstance() {
+        return sharedInstance;
+    }
+
+    /**
+     * Creates a pool keeping up to {@link #DEFAULT_MAXIMUM_SIZE} idle parsers
+     * for each setting
+     */
+    public XMLParserPool() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Creates a pool keeping up to the given number of idle parsers for each setting
+     *
+     * @param maximumSize the maximum number of idle parsers, where zero disables pooling
+     */
+    public XMLParserPool(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        for (int i = 0; i < idleParsers.length; i++) {
+            idleParsers[i] = new ArrayList();
+        }
+    }
+
+    /**
+     * Takes an idle parser with the given settings from the pool.
+     *
+     * @return the parser or null if there is no idle parser with these settings
+     */
+    public XMLParser borrowParser(boolean validating, boolean allowDtdToCallExternalEntities) {
+        ArrayList parsers = idleParsers[indexOf(validating, allowDtdToCallExternalEntities)];
+        synchronized (parsers) {
+            int size = parsers.size();
+            if (size == 0) {
+                return null;
+            }
+            return (XMLParser) parsers.remove(size - 1);
+        }
+    }
+
+    /**
+     * Resets the given parser, which must no longer be used by the caller,
+     * and keeps it for reuse unless the pool is already full.
+     */
+    public void returnParser(XMLParser parser) {
+        if (parser == null || parser.getDefaultNamespaceURI() != null) {
+            return;
+        }
+        parser.reset();
+        ArrayList parsers = idleParsers[indexOf(parser.getValidating(), parser.isAllowDtdToCallExternalEntities())];
+        synchronized (parsers) {
+            if (parsers.size() < maximumSize) {
+                parsers.add(parser);
+            }
+        }
+    }
+
+    /**
+     * @return the number of idle parsers with the given settings
+     */
+    public int getIdleCount(boolean validating, boolean allowDtdToCallExternalEntities) {
+        ArrayList parsers = idleParsers[indexOf(validating, allowDtdToCallExternalEntities)];
+        synchronized (parsers) {
+            return parsers.size();
+        }
+    }
+
+    /**
+     * Discards all the idle parsers
+     */
+    public void clear() {
+        for (int i = 0; i < idleParsers.length; i++) {
+            synchronized (idleParsers[i]) {
+                idleParsers[i].clear();
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of idle parsers kept for each setting
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    private static int indexOf(boolean validating, boolean allowDtdToCallExternalEntities) {
+        return (validating ? 2 : 0) + (allowDtdToCallExternalEntities ? 1 : 0);
+    }
+}
@@ -18,6 +18,7 @@
 package org.apache.commons.jelly.servlet;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
@@ -33,6 +34,9 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.impl.DefaultScriptCache;
+import org.apache.commons.jelly.impl.ScriptCache;
+import org.apache.commons.jelly.util.XMLSerializer;
 
 /**
  * Servlet for handling display of Jelly-fied XML files. Modelled after VelocityServlet.
@@ -51,6 +55,68 @@ public class JellyServlet extends HttpServlet {
      */
     public static final String RESPONSE = "response";
 
+    /**
+     * The init parameter which, when set to <code>true</code>, writes the
+     * output of scripts with an {@link XMLSerializer} rather than a dom4j XMLWriter.
+     */
+    public static final String SERIALIZING_OUTPUT = "serializingOutput";
+
+    /**
+     * The init parameter giving the number of characters after which the
+     * output of a script is flushed to the response. If it is not set the
+     * output is only flushed by &lt;j:flush&gt; and when the script ends.
+     */
+    public static final String FLUSH_THRESHOLD = "flushThreshold";
+
+    /**
+     * The cache of compiled scripts shared by all requests
+     */
+    private ScriptCache scriptCache;
+
+    /**
+     * Whether output is written with an XMLSerializer
+     */
+    private boolean serializingOutput;
+
+    /**
+     * The flush threshold of the output, or zero to only flush explicitly
+     */
+    private int flushThreshold;
+
+    /**
+     * Creates the cache of compiled scripts shared by all requests.
+     */
+    public void init() throws ServletException {
+        scriptCache = createScriptCache();
+        serializingOutput = "true".equalsIgnoreCase(getInitParameter(SERIALIZING_OUTPUT));
+        String threshold = getInitParameter(FLUSH_THRESHOLD);
+        if (threshold != null) {
+            try {
+                flushThreshold = Integer.parseInt(threshold.trim());
+            }
+            catch (NumberFormatException e) {
+                throw new ServletException("Invalid " + FLUSH_THRESHOLD + ": " + threshold, e);
+            }
+        }
+    }
+
+    /**
+     * Factory method to create the cache of compiled scripts shared by all
+     * requests. By default scripts are reparsed when they are modified.
+     *
+     * @return the cache to use or null if scripts should be parsed on every request
+     */
+    protected ScriptCache createScriptCache() {
+        return new DefaultScriptCache();
+    }
+
+    /**
+     * @return the cache of compiled scripts shared by all requests
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
     protected void doGet(
         HttpServletRequest request,
         HttpServletResponse response)
@@ -98,6 +164,7 @@ public class JellyServlet extends HttpServlet {
         HttpServletResponse res) {
 
         JellyContext ctx = new JellyServletContext(getServletContext());
+        ctx.setScriptCache(scriptCache);
         ctx.setVariable(REQUEST, req);
         ctx.setVariable(RESPONSE, res);
         return ctx;
@@ -149,13 +216,43 @@ public class JellyServlet extends HttpServlet {
         throws IOException, UnsupportedEncodingException, JellyException {
 
         ServletOutputStream output = res.getOutputStream();
-        XMLOutput xmlOutput = XMLOutput.createXMLOutput(output);
+        XMLOutput xmlOutput = createXMLOutput(output);
         context.runScript(script, xmlOutput);
         xmlOutput.flush();
         xmlOutput.close();
         output.flush();
     }
 
+    /**
+     * Factory method to create the XMLOutput which writes the output of
+     * a script to the response, using an {@link XMLSerializer} if the
+     * {@link #SERIALIZING_OUTPUT} init parameter is <code>true</code>.
+     * Rather than being flushed after every tag the output is buffered
+     * until the {@link #FLUSH_THRESHOLD} is reached, if there is one,
+     * or until it is flushed explicitly.
+     *
+     * @param output the output stream of the response
+     * @return the XMLOutput to run the script with
+     * @throws UnsupportedEncodingException
+     */
+    protected XMLOutput createXMLOutput(OutputStream output) throws UnsupportedEncodingException {
+        XMLOutput answer;
+        if (serializingOutput) {
+            answer = XMLOutput.createSerializingXMLOutput(output, false);
+        }
+        else {
+            answer = XMLOutput.createXMLOutput(output);
+        }
+        if (flushThreshold > 0) {
+            answer.setFlushPolicy(XMLOutput.FLUSH_ON_THRESHOLD);
+            answer.setFlushThreshold(flushThreshold);
+        }
+        else {
+            answer.setFlushPolicy(XMLOutput.FLUSH_EXPLICIT);
+        }
+        return answer;
+    }
+
     /**
      * Invoked when there is an error thrown in any part of doRequest() processing.
      * <br><br>
@@ -58,6 +58,7 @@ public class CoreTagLibrary extends TagLibrary {
         registerTag("break", BreakTag.class);
         registerTag("expr", ExprTag.class);
         registerTag("file", FileTag.class);
+        registerTag("flush", FlushTag.class);
         registerTag("getStatic", GetStaticTag.class);
         registerTag("invoke", InvokeTag.class);
         registerTag("invokeStatic", InvokeStaticTag.class);
@@ -40,15 +40,11 @@ public class ExprTag extends TagSupport {
     //-------------------------------------------------------------------------
     public void doTag(XMLOutput output) throws JellyTagException {
         if (value != null) {
-            String text = value.evaluateAsString(context);
-            if (text != null) {
-
-                try {
-                    output.write(text);
-                }
-                catch (SAXException e) {
-                    throw new JellyTagException("could not write the XMLOutput",e);
-                }
+            try {
+                value.writeAsString(context, output);
+            }
+            catch (SAXException e) {
+                throw new JellyTagException("could not write the XMLOutput",e);
             }
         }
     }
@@ -18,23 +18,50 @@
 package org.apache.commons.jelly.tags.core;
 
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.jsp.jstl.core.LoopTagStatus;
 
+import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.MissingAttributeException;
 import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.jelly.expression.Expression;
 import org.apache.commons.jelly.impl.BreakException;
+import org.apache.commons.jelly.util.BufferedXMLOutput;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.xml.sax.SAXException;
 
 /**
   * Iterates over a collection, iterator or an array of objects.
   * Uses the same syntax as the <a href="http://java.sun.com/products/jsp/jstl/">JSTL</a>
   * <code>forEach</code> tag does.
   *
+  * <p>If <code>parallel</code> is greater than one the body is run for that
+  * many items at a time by a pool of threads. Each item is run in a child
+  * context, so the variables it sets are not seen by the other items or
+  * after the loop, and its output is buffered then written in the order of
+  * the items, or as soon as it is complete if <code>ordered</code> is
+  * false. The pool is created for each run of the tag and shut down
+  * before it returns, unless an <code>executor</code> is given to run the
+  * items with instead. The tag does not return until all the items it
+  * started are done, even when the loop is broken out of or an item
+  * fails.</p>
+  *
   * @author <a href="mailto:jstrachan@apache.org">James Strachan</a>
   * @version $Revision$
   */
@@ -73,6 +100,18 @@ public class ForEachTag extends TagSupport {
     /** The iteration index */
     private int index;
 
+    /** The number of items to run the body for at a time */
+    private int parallel = 1;
+
+    /** Whether the output of parallel items is written in the order of the items */
+    private boolean ordered = true;
+
+    /** The executor given to run parallel items with */
+    private ExecutorService executor;
+
+    /** The number of the next parallel pool, used to name its threads */
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
     public ForEachTag() {
     }
 
@@ -85,6 +124,11 @@ public class ForEachTag extends TagSupport {
             log.debug("running with items: " + items);
         }
 
+        if (parallel > 1) {
+            new ParallelLoop().run(output);
+            return;
+        }
+
         try {
             if (items != null) {
                 Iterator iter = items.evaluateAsIterator(context);
@@ -243,6 +287,34 @@ public class ForEachTag extends TagSupport {
         this.step = step;
     }
 
+    /**
+     * Sets the number of items to run the body for at the same time, each
+     * in its own thread. The default of 1 runs the body for one item after
+     * another in the current thread.
+     */
+    public void setParallel(int parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * If false the output of each parallel item is written as soon as the
+     * item is complete, rather than in the order of the items, which is
+     * the default.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * Sets the executor to run parallel items with, such as a pool created
+     * by the executor tag of the threads tag library. The executor is not
+     * shut down by this tag. By default a pool of <code>parallel</code>
+     * threads is created.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
     /**
      * Sets the variable name to export the current status to.
      * The status is an implementation of the JSTL LoopTagStatus interface that provides
@@ -261,6 +333,296 @@ public class ForEachTag extends TagSupport {
         this.statusVar = var;
     }
     
+    /**
+     * Runs the body for the items of the loop in parallel. The items are
+     * found in the same way as for a sequential loop, but each is given a
+     * child context holding its own variables and status.
+     */
+    private class ParallelLoop {
+        private Iterator iter;
+        private String varName;
+        private Integer statusBegin;
+        private Integer statusEnd;
+        private Integer statusStep;
+        private int count;
+        private boolean finished;
+
+        /** Set once an item has broken out of the loop */
+        private volatile boolean broken;
+
+        ParallelLoop() throws MissingAttributeException, JellyTagException {
+            varName = var;
+            if (items != null) {
+                iter = items.evaluateAsIterator(context);
+                // ignore the first items of the iterator
+                for (index = 0; index < begin && iter.hasNext(); index++ ) {
+                    iter.next();
+                }
+                statusBegin = (begin == 0) ? null : new Integer(begin);
+                statusEnd = (end == Integer.MAX_VALUE) ? null : new Integer(end);
+                statusStep = (step == 1) ? null : new Integer(step);
+                finished = !(iter.hasNext() && index <= end);
+            }
+            else {
+                if ( end == Integer.MAX_VALUE && begin == 0 ) {
+                    throw new MissingAttributeException( "items" );
+                }
+                if ( varName == null ) {
+                    varName = indexVar;
+                }
+                index = begin;
+                statusBegin = new Integer(begin);
+                statusEnd = new Integer(end);
+                statusStep = new Integer(step);
+                finished = index > end;
+            }
+        }
+
+        public void run(XMLOutput output) throws JellyTagException {
+            ExecutorService executor = ForEachTag.this.executor;
+            // the pool of this run, if no executor was given
+            ExecutorService pool = null;
+            if (executor == null) {
+                pool = createPool();
+                executor = pool;
+            }
+            // the items which have been submitted but whose output is yet to be written
+            LinkedList pending = new LinkedList();
+            // limit the items run ahead of those whose output is yet to be written
+            int window = parallel * 2;
+            try {
+                if (ordered) {
+                    while (true) {
+                        while (!finished && !broken && pending.size() < window) {
+                            Item item = nextItem();
+                            item.future = executor.submit(item);
+                            pending.add(item);
+                        }
+                        if (pending.isEmpty()) {
+                            break;
+                        }
+                        Item item = getItem(((Item) pending.getFirst()).future);
+                        pending.removeFirst();
+                        item.output.writeTo(output);
+                        if (item.broken) {
+                            break;
+                        }
+                    }
+                }
+                else {
+                    CompletionService completionService = new ExecutorCompletionService(executor);
+                    while (true) {
+                        while (!finished && !broken && pending.size() < window) {
+                            Item item = nextItem();
+                            item.future = completionService.submit(item);
+                            pending.add(item);
+                        }
+                        if (pending.isEmpty()) {
+                            break;
+                        }
+                        Item item = getItem(completionService.take());
+                        pending.remove(item);
+                        item.output.writeTo(output);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                throw new JellyTagException(e);
+            }
+            catch (SAXException e) {
+                throw new JellyTagException(e);
+            }
+            finally {
+                for (Iterator iter = pending.iterator(); iter.hasNext(); ) {
+                    ((Item) iter.next()).cancel();
+                }
+                awaitItems(pending);
+                if (pool != null) {
+                    shutdownPool(pool);
+                }
+            }
+        }
+
+        /**
+         * Waits until none of the given items is running, so that nothing
+         * is done by the body once the tag has returned
+         */
+        private void awaitItems(LinkedList items) {
+            boolean interrupted = false;
+            for (Iterator iter = items.iterator(); iter.hasNext(); ) {
+                Item item = (Item) iter.next();
+                while (true) {
+                    try {
+                        item.done.await();
+                        break;
+                    }
+                    catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Shuts down the pool of this run and waits for its threads to
+         * finish, which is quick as none of its items is running any more
+         */
+        private void shutdownPool(ExecutorService pool) {
+            pool.shutdown();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    if (pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * @return the task which runs the body for the next item
+         */
+        private Item nextItem() {
+            Object value;
+            int itemIndex = index;
+            boolean first = count == 0;
+            boolean last;
+            if (iter != null) {
+                value = iter.next();
+                // advance the iterator and index past the step
+                index++;
+                boolean skipped = false;
+                for ( int i = 1; i < step && !skipped; i++, index++ ) {
+                    if ( ! iter.hasNext() ) {
+                       skipped = true;
+                    }
+                    else {
+                        iter.next();
+                    }
+                }
+                last = skipped || !iter.hasNext() || index > end;
+            }
+            else {
+                value = new Integer(index);
+                last = index > end - step;
+                index += step;
+            }
+            finished = last;
+            count++;
+
+            JellyContext itemContext = context.newJellyContext();
+            if (varName != null) {
+                itemContext.setVariable(varName, value);
+            }
+            if (indexVar != null && iter != null) {
+                itemContext.setVariable(indexVar, new Integer(itemIndex));
+            }
+            if (statusVar != null) {
+                LoopStatus status = new LoopStatus(statusBegin, statusEnd, statusStep);
+                status.setCount(count);
+                status.setCurrent(value);
+                status.setFirst(first);
+                status.setIndex(itemIndex);
+                status.setLast(last);
+                itemContext.setVariable(statusVar, status);
+            }
+            return new Item(itemContext);
+        }
+
+        /**
+         * @return the completed item of the given future
+         */
+        private Item getItem(Future future) throws JellyTagException, InterruptedException {
+            try {
+                return (Item) future.get();
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof JellyTagException) {
+                    throw (JellyTagException) cause;
+                }
+                throw new JellyTagException(cause);
+            }
+        }
+
+        /**
+         * Runs the body for one item, buffering its output
+         */
+        private class Item implements Callable {
+            private final JellyContext itemContext;
+            private final BufferedXMLOutput output = new BufferedXMLOutput();
+            private boolean broken;
+            private Future future;
+
+            /** Set once the item has started, or once it is cancelled before starting */
+            private final AtomicBoolean started = new AtomicBoolean();
+
+            /** Counted down once the item is done or will never start */
+            private final CountDownLatch done = new CountDownLatch(1);
+
+            Item(JellyContext itemContext) {
+                this.itemContext = itemContext;
+            }
+
+            public Object call() throws Exception {
+                if (!started.compareAndSet(false, true)) {
+                    return this;
+                }
+                try {
+                    getBody().run(itemContext, output);
+                }
+                catch (BreakException e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("loop terminated by break: " + e, e);
+                    }
+                    broken = true;
+                    ParallelLoop.this.broken = true;
+                }
+                finally {
+                    done.countDown();
+                }
+                return this;
+            }
+
+            /**
+             * Stops the item from starting, or interrupts it if it is running
+             */
+            void cancel() {
+                if (started.compareAndSet(false, true)) {
+                    done.countDown();
+                }
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Creates a pool of <code>parallel</code> daemon threads to run the
+     * items of one run of the tag
+     */
+    private ExecutorService createPool() {
+        final String poolName = "Jelly forEach #" + poolNumber.getAndIncrement();
+        ThreadFactory factory = new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, poolName + "-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        return Executors.newFixedThreadPool(parallel, factory);
+    }
+
     /**
      * Holds the status of the loop. 
      */
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * <p><code>BufferedXMLOutput</code> is an XMLOutput which records the events
+ * written to it, so that they can be written to another XMLOutput later,
+ * possibly from another thread.</p>
+ *
+ * <p>Namespace declarations are handled by the XMLOutput the events are
+ * written to, so the events can be written inside any element.</p>
+ *
+ * @version $Revision$
+ */
+public class BufferedXMLOutput extends XMLOutput {
+
+    /** The events written so far */
+    private final List events = new ArrayList();
+
+    public BufferedXMLOutput() {
+    }
+
+    /**
+     * Writes the events recorded so far to the given output
+     *
+     * @param output the output to write to
+     * @throws SAXException if the output fails
+     */
+    public void writeTo(XMLOutput output) throws SAXException {
+        for (int i = 0, size = events.size(); i < size; i++) {
+            ((Event) events.get(i)).writeTo(output);
+        }
+    }
+
+    /**
+     * @return the number of events recorded
+     */
+    public int getEventCount() {
+        return events.size();
+    }
+
+    /**
+     * Discards the events recorded so far
+     */
+    public void clear() {
+        events.clear();
+    }
+
+    // ContentHandler interface
+    //-------------------------------------------------------------------------
+    public void setDocumentLocator(Locator locator) {
+    }
+
+    public void startDocument() throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.startDocument();
+            }
+        });
+    }
+
+    public void endDocument() throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.endDocument();
+            }
+        });
+    }
+
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.startPrefixMapping(prefix, uri);
+            }
+        });
+    }
+
+    public void endPrefixMapping(final String prefix) throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.endPrefixMapping(prefix);
+            }
+        });
+    }
+
+    public void startElement(final String uri, final String localName, final String qName, Attributes atts)
+        throws SAXException {
+        final Attributes copy = new AttributesImpl(atts);
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.startElement(uri, localName, qName, copy);
+            }
+        });
+    }
+
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.endElement(uri, localName, qName);
+            }
+        });
+    }
+
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        final char[] copy = copy(ch, start, length);
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.characters(copy, 0, copy.length);
+            }
+        });
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        final char[] copy = copy(ch, start, length);
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.ignorableWhitespace(copy, 0, copy.length);
+            }
+        });
+    }
+
+    public void processingInstruction(final String target, final String data) throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.processingInstruction(target, data);
+            }
+        });
+    }
+
+    public void skippedEntity(final String name) throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.skippedEntity(name);
+            }
+        });
+    }
+
+    // LexicalHandler interface
+    //-------------------------------------------------------------------------
+    public void startDTD(final String name, final String publicId, final String systemId) throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.startDTD(name, publicId, systemId);
+            }
+        });
+    }
+
+    public void endDTD() throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.endDTD();
+            }
+        });
+    }
+
+    public void startEntity(final String name) throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.startEntity(name);
+            }
+        });
+    }
+
+    public void endEntity(final String name) throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.endEntity(name);
+            }
+        });
+    }
+
+    public void startCDATA() throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.startCDATA();
+            }
+        });
+    }
+
+    public void endCDATA() throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.endCDATA();
+            }
+        });
+    }
+
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        final char[] copy = copy(ch, start, length);
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.comment(copy, 0, copy.length);
+            }
+        });
+    }
+
+    public void objectData(final Object object) throws SAXException {
+        events.add(new Event() {
+            void writeTo(XMLOutput output) throws SAXException {
+                output.objectData(object);
+            }
+        });
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+    private static char[] copy(char[] ch, int start, int length) {
+        char[] answer = new char[length];
+        System.arraycopy(ch, start, answer, 0, length);
+        return answer;
+    }
+
+    /**
+     * A recorded event
+     */
+    private abstract static class Event {
+        abstract void writeTo(XMLOutput output) throws SAXException;
+    }
+}
@@ -110,6 +110,8 @@ public class CommandLineParser {
             final XMLOutput output = cmdLine.hasOption("o") ?
                     XMLOutput.createXMLOutput(new FileWriter(cmdLine.getOptionValue("o"))) :
                     XMLOutput.createXMLOutput(System.out);
+            // only flush at the end of the script or when asked to by <j:flush>
+            output.setFlushPolicy(XMLOutput.FLUSH_EXPLICIT);
 
             Jelly jelly = new Jelly();
             jelly.setScript(scriptFile);
@@ -130,6 +132,7 @@ public class CommandLineParser {
             } } ); } else {
                 script.run(context, output);
             }
+            output.flush();
 
             // now lets wait for all threads to close
             Runtime.getRuntime().addShutdownHook(new Thread() {
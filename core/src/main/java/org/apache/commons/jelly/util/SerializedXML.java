@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * <p><code>SerializedXML</code> holds some XML events serialized by an
+ * {@link XMLSerializer}, both with and without text escaping, so that they
+ * can be written to a serializer as they are rather than serialized again.</p>
+ *
+ * <p>The events must be of elements without namespace prefixes or
+ * declarations, as the namespaces of the XMLOutput they are written
+ * to are not taken into account when they are serialized.</p>
+ *
+ * @see XMLOutput#writeSerialized(String, SerializedXML)
+ * @version $Revision$
+ */
+public final class SerializedXML {
+
+    /** The XML with text escaped */
+    private final char[] escapedText;
+
+    /** The XML with text as it is */
+    private final char[] unescapedText;
+
+    /** The largest character in the XML */
+    private final char maximumCharacter;
+
+    /**
+     * Serializes the given events
+     *
+     * @param events the events to serialize
+     * @throws SAXException if the events cannot be serialized
+     */
+    public SerializedXML(BufferedXMLOutput events) throws SAXException {
+        this.escapedText = serialize(events, true);
+        this.unescapedText = serialize(events, false);
+        this.maximumCharacter = (char) Math.max(maximum(escapedText), maximum(unescapedText));
+    }
+
+    /**
+     * @param escaped whether text is escaped
+     * @return the serialized XML
+     */
+    public char[] getCharacters(boolean escaped) {
+        return escaped ? escapedText : unescapedText;
+    }
+
+    /**
+     * @return the largest character in the serialized XML
+     */
+    public char getMaximumCharacter() {
+        return maximumCharacter;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    private static char[] serialize(BufferedXMLOutput events, boolean escapeText) throws SAXException {
+        CharArrayWriter writer = new CharArrayWriter();
+        final XMLSerializer serializer = new XMLSerializer(writer);
+        serializer.setEscapeText(escapeText);
+
+        // elements are passed straight on, without declaring their namespace
+        events.writeTo(new XMLOutput(serializer) {
+            public void startElement(String uri, String localName, String qName, Attributes atts)
+                throws SAXException {
+                serializer.startElement(uri, localName, qName, atts);
+            }
+
+            public void endElement(String uri, String localName, String qName) throws SAXException {
+                serializer.endElement(uri, localName, qName);
+            }
+        });
+        try {
+            serializer.flush();
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+        return writer.toCharArray();
+    }
+
+    private static char maximum(char[] ch) {
+        char answer = 0;
+        for (int i = 0; i < ch.length; i++) {
+            if (ch[i] > answer) {
+                answer = ch[i];
+            }
+        }
+        return answer;
+    }
+}
@@ -31,7 +31,8 @@ public class TagUtils {
     }
 
     /** Trims the whitespace from a script and its children.
-     * 
+     * As this modifies a script which may be shared by many tags and threads,
+     * {@link #getTrimmedScript(Script)} is used in preference.
      */
     public static void trimScript(Script body) {
         synchronized(body) {
@@ -51,4 +52,21 @@ public class TagUtils {
         }
     }
 
+    /** Returns a script which outputs the given script with the whitespace
+     * of its children trimmed, without modifying the script. For compiled
+     * scripts the trimmed script was created when they were compiled.
+     *
+     * @param body the script to trim
+     * @return the trimmed script, which is the script itself if
+     * there is nothing to trim
+     */
+    public static Script getTrimmedScript(Script body) {
+        if ( body instanceof ScriptBlock ) {
+            return ((ScriptBlock) body).getTrimmedScript();
+        }
+        else if ( body instanceof TextScript ) {
+            return ((TextScript) body).getTrimmedScript();
+        }
+        return body;
+    }
 }
\ No newline at end of file
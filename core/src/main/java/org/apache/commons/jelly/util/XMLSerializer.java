@@ -0,0 +1,564 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * <p><code>XMLSerializer</code> is a SAX ContentHandler and LexicalHandler
+ * which writes the events it receives as XML text, producing the same output
+ * as dom4j's <code>XMLWriter</code> with its default format.</p>
+ *
+ * <p>Text is collected in a reused character buffer and special characters
+ * are escaped using lookup tables. When writing to an OutputStream in UTF-8
+ * the buffer is encoded directly into bytes, so that no Writer is needed.
+ * Unlike <code>XMLWriter</code>, text inside CDATA sections is never escaped.</p>
+ *
+ * @version $Revision$
+ */
+public class XMLSerializer extends DefaultHandler implements LexicalHandler {
+
+    /** The number of characters buffered before they are written */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The escaped form of each ASCII character in text, or null if it is written as it is */
+    private static final char[][] TEXT_ESCAPES = new char[128][];
+
+    /** The escaped form of each ASCII character in attribute values, or null if it is written as it is */
+    private static final char[][] ATTRIBUTE_ESCAPES = new char[128][];
+
+    static {
+        for (int c = 0; c < 32; c++) {
+            if (c != '\t' && c != '\n' && c != '\r') {
+                TEXT_ESCAPES[c] = ("&#" + c + ";").toCharArray();
+            }
+        }
+        TEXT_ESCAPES['<'] = "&lt;".toCharArray();
+        TEXT_ESCAPES['>'] = "&gt;".toCharArray();
+        TEXT_ESCAPES['&'] = "&amp;".toCharArray();
+
+        System.arraycopy(TEXT_ESCAPES, 0, ATTRIBUTE_ESCAPES, 0, TEXT_ESCAPES.length);
+        ATTRIBUTE_ESCAPES['"'] = "&quot;".toCharArray();
+    }
+
+    /** The Writer output goes to, or null if it is encoded directly to the OutputStream */
+    private final Writer writer;
+
+    /** The OutputStream UTF-8 output goes to, or null if output goes to a Writer */
+    private final OutputStream out;
+
+    /** The name of the encoding given in the XML declaration */
+    private final String encoding;
+
+    /** The largest character which can be written without a character reference when escaping */
+    private final int maximumCharacter;
+
+    /** The characters waiting to be written */
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    /** The number of characters in the buffer */
+    private int count;
+
+    /** The buffer UTF-8 bytes are encoded into, which is big enough for a full character buffer */
+    private byte[] bytes;
+
+    /** The buffer attribute values are copied into to be escaped */
+    private char[] valueBuffer = new char[64];
+
+    /** The namespace prefixes and URIs to declare on the next element */
+    private String[] namespaces = new String[8];
+
+    /** The number of entries used in namespaces, two per declaration */
+    private int namespaceCount;
+
+    /** Whether text is escaped */
+    private boolean escapeText = true;
+
+    /** Whether we are inside a CDATA section */
+    private boolean inCDATA;
+
+    /** Whether we are inside the DTD */
+    private boolean inDTD;
+
+    /**
+     * Creates a serializer writing to the given Writer
+     */
+    public XMLSerializer(Writer writer) {
+        this.writer = writer;
+        this.out = null;
+        this.encoding = "UTF-8";
+        this.maximumCharacter = Character.MAX_VALUE;
+    }
+
+    /**
+     * Creates a serializer writing to the given OutputStream in UTF-8
+     */
+    public XMLSerializer(OutputStream out) {
+        this.writer = null;
+        this.out = out;
+        this.encoding = "UTF-8";
+        this.maximumCharacter = Character.MAX_VALUE;
+        this.bytes = new byte[BUFFER_SIZE * 3];
+    }
+
+    /**
+     * Creates a serializer writing to the given OutputStream in the given encoding
+     *
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    public XMLSerializer(OutputStream out, String encoding) throws UnsupportedEncodingException {
+        if ("UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding)) {
+            this.writer = null;
+            this.out = out;
+            this.bytes = new byte[BUFFER_SIZE * 3];
+        }
+        else {
+            this.writer = new OutputStreamWriter(out, encoding);
+            this.out = null;
+        }
+        this.encoding = encoding;
+        if ("US-ASCII".equalsIgnoreCase(encoding) || "ASCII".equalsIgnoreCase(encoding)) {
+            this.maximumCharacter = 127;
+        }
+        else if ("ISO-8859-1".equalsIgnoreCase(encoding)) {
+            this.maximumCharacter = 255;
+        }
+        else {
+            this.maximumCharacter = Character.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return whether special characters in text are escaped
+     */
+    public boolean isEscapeText() {
+        return escapeText;
+    }
+
+    /**
+     * Sets whether special characters in text are escaped, which must be true
+     * if the output is XML but could be false if the output is textual.
+     * Attribute values are always escaped.
+     */
+    public void setEscapeText(boolean escapeText) {
+        this.escapeText = escapeText;
+    }
+
+    /**
+     * Writes any buffered output and flushes the underlying stream
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        if (writer != null) {
+            writer.flush();
+        }
+        else {
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes any buffered output and closes the underlying stream
+     */
+    public void close() throws IOException {
+        flushBuffer();
+        if (writer != null) {
+            writer.close();
+        }
+        else {
+            if (count > 0) {
+                // a high surrogate was never followed by the rest of its character
+                out.write('?');
+                count = 0;
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * Writes XML which has already been serialized, if it is what this
+     * serializer would write for the same events. That is not the case if
+     * namespace declarations are waiting to be written on the next element,
+     * inside CDATA sections or the DTD, or if the XML contains characters
+     * this serializer would write as character references.
+     *
+     * @param xml the serialized XML
+     * @return whether the XML was written
+     * @throws SAXException if the XML could not be written
+     */
+    public boolean writeSerialized(SerializedXML xml) throws SAXException {
+        if (namespaceCount > 0 || inCDATA || inDTD || xml.getMaximumCharacter() > maximumCharacter) {
+            return false;
+        }
+        char[] ch = xml.getCharacters(escapeText);
+        try {
+            write(ch, 0, ch.length);
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+        return true;
+    }
+
+    // ContentHandler interface
+    //-------------------------------------------------------------------------
+
+    public void startDocument() throws SAXException {
+        try {
+            write("<?xml version=\"1.0\" encoding=\"");
+            write(encoding);
+            write("\"?>\n");
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    public void endDocument() throws SAXException {
+        try {
+            flush();
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        if (prefix == null) {
+            prefix = "";
+        }
+        for (int i = 0; i < namespaceCount; i += 2) {
+            if (namespaces[i].equals(prefix)) {
+                namespaces[i + 1] = uri;
+                return;
+            }
+        }
+        if (namespaceCount == namespaces.length) {
+            String[] newNamespaces = new String[namespaceCount * 2];
+            System.arraycopy(namespaces, 0, newNamespaces, 0, namespaceCount);
+            namespaces = newNamespaces;
+        }
+        namespaces[namespaceCount++] = prefix;
+        namespaces[namespaceCount++] = uri;
+    }
+
+    public void startElement(String namespaceURI, String localName, String qName, Attributes attributes)
+        throws SAXException {
+        try {
+            write('<');
+            write(qName);
+            for (int i = 0; i < namespaceCount; i += 2) {
+                String prefix = namespaces[i];
+                if (prefix.length() > 0) {
+                    write(" xmlns:");
+                    write(prefix);
+                    write("=\"");
+                }
+                else {
+                    write(" xmlns=\"");
+                }
+                writeAttributeValue(namespaces[i + 1]);
+                write('"');
+                namespaces[i] = null;
+                namespaces[i + 1] = null;
+            }
+            namespaceCount = 0;
+
+            for (int i = 0, size = attributes.getLength(); i < size; i++) {
+                write(' ');
+                write(attributes.getQName(i));
+                write("=\"");
+                writeAttributeValue(attributes.getValue(i));
+                write('"');
+            }
+            write('>');
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    public void endElement(String namespaceURI, String localName, String qName) throws SAXException {
+        try {
+            write("</");
+            write(qName);
+            write('>');
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (ch == null || length <= 0) {
+            return;
+        }
+        try {
+            if (escapeText && !inCDATA) {
+                writeEscaped(ch, start, length, TEXT_ESCAPES);
+            }
+            else {
+                write(ch, start, length);
+            }
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    public void processingInstruction(String target, String data) throws SAXException {
+        try {
+            write("<?");
+            write(target);
+            write(' ');
+            if (data != null) {
+                write(data);
+            }
+            write("?>");
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    // LexicalHandler interface
+    //-------------------------------------------------------------------------
+
+    public void startDTD(String name, String publicId, String systemId) throws SAXException {
+        inDTD = true;
+        try {
+            write("<!DOCTYPE ");
+            write(name);
+            boolean hasPublic = false;
+            if (publicId != null && publicId.length() > 0) {
+                write(" PUBLIC \"");
+                write(publicId);
+                write('"');
+                hasPublic = true;
+            }
+            if (systemId != null && systemId.length() > 0) {
+                if (!hasPublic) {
+                    write(" SYSTEM");
+                }
+                write(" \"");
+                write(systemId);
+                write('"');
+            }
+            write('>');
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    public void endDTD() throws SAXException {
+        inDTD = false;
+    }
+
+    public void startEntity(String name) throws SAXException {
+        try {
+            write('&');
+            write(name);
+            write(';');
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    public void endEntity(String name) throws SAXException {
+    }
+
+    public void startCDATA() throws SAXException {
+        inCDATA = true;
+        try {
+            write("<![CDATA[");
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    public void endCDATA() throws SAXException {
+        inCDATA = false;
+        try {
+            write("]]>");
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        if (inDTD) {
+            return;
+        }
+        try {
+            write("<!--");
+            write(ch, start, length);
+            write("-->");
+        }
+        catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    private void writeAttributeValue(String value) throws IOException {
+        int length = value.length();
+        if (length > valueBuffer.length) {
+            valueBuffer = new char[Math.max(length, valueBuffer.length * 2)];
+        }
+        value.getChars(0, length, valueBuffer, 0);
+        writeEscaped(valueBuffer, 0, length, ATTRIBUTE_ESCAPES);
+    }
+
+    /**
+     * Writes the characters replacing those which have an escaped form,
+     * copying the runs of characters in between directly to the buffer
+     */
+    private void writeEscaped(char[] ch, int start, int length, char[][] escapes) throws IOException {
+        int end = start + length;
+        int last = start;
+        for (int i = start; i < end; i++) {
+            char c = ch[i];
+            if (c < 128) {
+                char[] escape = escapes[c];
+                if (escape != null) {
+                    write(ch, last, i - last);
+                    write(escape, 0, escape.length);
+                    last = i + 1;
+                }
+            }
+            else if (c > maximumCharacter) {
+                write(ch, last, i - last);
+                int codePoint = c;
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(ch[i + 1])) {
+                    codePoint = Character.toCodePoint(c, ch[++i]);
+                }
+                write("&#");
+                write(Integer.toString(codePoint));
+                write(';');
+                last = i + 1;
+            }
+        }
+        write(ch, last, end - last);
+    }
+
+    private void write(char c) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = c;
+    }
+
+    private void write(String text) throws IOException {
+        int length = text.length();
+        int offset = 0;
+        while (length > 0) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            int n = Math.min(length, buffer.length - count);
+            text.getChars(offset, offset + n, buffer, count);
+            count += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private void write(char[] ch, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            int n = Math.min(length, buffer.length - count);
+            System.arraycopy(ch, offset, buffer, count, n);
+            count += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Writes the buffered characters to the Writer, or encodes them as
+     * UTF-8 to the OutputStream. A high surrogate at the end of the buffer
+     * is kept until the rest of its character has been buffered.
+     */
+    private void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.write(buffer, 0, count);
+            count = 0;
+            return;
+        }
+
+        int end = count;
+        if (end > 0 && Character.isHighSurrogate(buffer[end - 1])) {
+            end--;
+        }
+        byte[] b = bytes;
+        int n = 0;
+        for (int i = 0; i < end; i++) {
+            char c = buffer[i];
+            if (c < 0x80) {
+                b[n++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                b[n++] = (byte) (0xC0 | (c >> 6));
+                b[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(buffer[i + 1])) {
+                    int codePoint = Character.toCodePoint(c, buffer[++i]);
+                    b[n++] = (byte) (0xF0 | (codePoint >> 18));
+                    b[n++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    b[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    b[n++] = (byte) (0x80 | (codePoint & 0x3F));
+                }
+                else {
+                    // an unpaired surrogate cannot be encoded
+                    b[n++] = (byte) '?';
+                }
+            }
+            else {
+                b[n++] = (byte) (0xE0 | (c >> 12));
+                b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out.write(b, 0, n);
+
+        if (end < count) {
+            buffer[0] = buffer[end];
+            count = 1;
+        }
+        else {
+            count = 0;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.commons.jelly.xpath;
 
 import java.util.Comparator;
 import java.util.List;
+import java.util.ListIterator;
 
 import org.apache.commons.jelly.util.NestedRuntimeException;
 import org.dom4j.Node;
@@ -28,6 +29,10 @@ import org.jaxen.XPath;
  * Compares xml nodes by extracting the value at xpath and
  * comparing it.
  *
+ * <p>Lists of nodes are best sorted via {@link #sort(List)}, which evaluates
+ * the xpath once per node rather than twice per comparison. The sort keys
+ * can optionally be extracted by several threads for large lists.</p>
+ *
  * @author <a href="mailto:jason@jhorman.org">Jason Horman</a>
  * @version $Id$
  */
@@ -40,6 +45,12 @@ public class XPathComparator implements Comparator {
     /** Sort descending or ascending */
     private boolean descending = false;
 
+    /** The minimum number of nodes for which keys are extracted in parallel */
+    public static final int PARALLEL_THRESHOLD = 5000;
+
+    /** Whether sort keys of large lists are extracted by several threads */
+    private boolean parallel = false;
+
     public XPathComparator() {
 
     }
@@ -61,6 +72,49 @@ public class XPathComparator implements Comparator {
         this.descending = descending;
     }
 
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * Sets whether the sort keys of lists of at least
+     * {@link #PARALLEL_THRESHOLD} nodes are extracted by several threads.
+     * The xpath must then be safe to evaluate concurrently.
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Sorts the given list of nodes in the same order as this comparator,
+     * evaluating the xpath once for each node. Like Collections.sort() the
+     * sort is stable.
+     */
+    public void sort(List nodes) {
+        int size = nodes.size();
+        if (size < 2) {
+            return;
+        }
+        Object[] items = nodes.toArray();
+        SortKeys keys = createSortKeys(items);
+
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = i;
+        }
+        mergeSort((int[]) indexes.clone(), indexes, 0, size, keys);
+
+        ListIterator iter = nodes.listIterator();
+        for (int i = 0; i < size; i++) {
+            iter.next();
+            iter.set(items[indexes[i]]);
+        }
+    }
+
     public int compare(Object o1, Object o2) {
         return compare((Node)o1, (Node)o2);
     }
@@ -119,6 +173,147 @@ public class XPathComparator implements Comparator {
         return value.toString();
     }
 
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the sort keys of the given nodes, held as doubles if they are
+     *  all numbers, otherwise as Comparable objects
+     */
+    private SortKeys createSortKeys(final Object[] items) {
+        final Comparable[] values = new Comparable[items.length];
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (parallel && threads > 1 && items.length >= PARALLEL_THRESHOLD) {
+            final RuntimeException[] failure = new RuntimeException[1];
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final int begin = (int) ((long) items.length * t / threads);
+                final int end = (int) ((long) items.length * (t + 1) / threads);
+                workers[t] = new Thread("XPathComparator-" + t) {
+                    public void run() {
+                        try {
+                            extractValues(items, values, begin, end);
+                        }
+                        catch (RuntimeException e) {
+                            synchronized (failure) {
+                                failure[0] = e;
+                            }
+                        }
+                    }
+                };
+                workers[t].start();
+            }
+            for (int t = 0; t < threads; t++) {
+                try {
+                    workers[t].join();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new XPathSortException("interrupted while sorting nodes", e);
+                }
+            }
+            synchronized (failure) {
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+        }
+        else {
+            extractValues(items, values, 0, items.length);
+        }
+
+        double[] numbers = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (!(values[i] instanceof Number)) {
+                return new SortKeys(values, null);
+            }
+            numbers[i] = ((Number) values[i]).doubleValue();
+        }
+        return new SortKeys(null, numbers);
+    }
+
+    /**
+     * Evaluates the xpath against each of the given range of nodes
+     */
+    private void extractValues(Object[] items, Comparable[] values, int begin, int end) {
+        try {
+            for (int i = begin; i < end; i++) {
+                Object value = xpath.evaluate(items[i]);
+                values[i] = value == null ? null : getComparableValue(value);
+            }
+        }
+        catch (JaxenException e) {
+            throw new XPathSortException("error sorting nodes", e);
+        }
+    }
+
+    /**
+     * A stable merge sort of the indexes in <code>src</code> between
+     * <code>begin</code> and <code>end</code> into <code>dest</code>
+     */
+    private void mergeSort(int[] src, int[] dest, int begin, int end, SortKeys keys) {
+        int length = end - begin;
+        if (length < 7) {
+            for (int i = begin + 1; i < end; i++) {
+                for (int j = i; j > begin && compareKeys(dest[j - 1], dest[j], keys) > 0; j--) {
+                    int swap = dest[j];
+                    dest[j] = dest[j - 1];
+                    dest[j - 1] = swap;
+                }
+            }
+            return;
+        }
+        int middle = (begin + end) >>> 1;
+        mergeSort(dest, src, begin, middle, keys);
+        mergeSort(dest, src, middle, end, keys);
+
+        if (compareKeys(src[middle - 1], src[middle], keys) <= 0) {
+            System.arraycopy(src, begin, dest, begin, length);
+            return;
+        }
+        for (int i = begin, p = begin, q = middle; i < end; i++) {
+            if (q >= end || (p < middle && compareKeys(src[p], src[q], keys) <= 0)) {
+                dest[i] = src[p++];
+            }
+            else {
+                dest[i] = src[q++];
+            }
+        }
+    }
+
+    /**
+     * Compares the keys at the given indexes in the same way as
+     * {@link #compare(Node, Node)}, except that two null values are equal
+     */
+    private int compareKeys(int i, int j, SortKeys keys) {
+        int answer;
+        if (keys.numbers != null) {
+            answer = Double.compare(keys.numbers[i], keys.numbers[j]);
+        }
+        else {
+            Comparable c1 = keys.values[i];
+            Comparable c2 = keys.values[j];
+            if (c1 == null || c2 == null) {
+                return c1 == null ? (c2 == null ? 0 : -1) : 1;
+            }
+            answer = c1.compareTo(c2);
+        }
+        return descending ? -answer : answer;
+    }
+
+    /**
+     * The sort keys of a list of nodes
+     */
+    private static class SortKeys {
+        final Comparable[] values;
+        final double[] numbers;
+
+        SortKeys(Comparable[] values, double[] numbers) {
+            this.values = values;
+            this.numbers = numbers;
+        }
+    }
+
     /**
      * My own runtime exception in case something goes wrong with sort.
      */
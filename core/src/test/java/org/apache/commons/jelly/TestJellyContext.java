@@ -17,6 +17,8 @@
 package org.apache.commons.jelly;
 
 import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import junit.framework.TestCase;
 
@@ -41,4 +43,64 @@ public class TestJellyContext extends TestCase
 
         assertNotNull( "Value after setVariables()", jc.getVariable( "context" ) );
     }
+
+    public void testScopeTypesGiveTheSameResults()
+    {
+        System.setProperty( "test.jelly.scope", "system" );
+        try
+        {
+            int[] types = { JellyContext.SYNCHRONIZED_SCOPE, JellyContext.UNSYNCHRONIZED_SCOPE,
+                JellyContext.CONCURRENT_SCOPE };
+            for ( int i = 0; i < types.length; i++ )
+            {
+                JellyContext root = new JellyContext();
+                root.setVariable( "a", "root" );
+                root.setScopeType( types[i] );
+                assertEquals( types[i], root.getScopeType() );
+                assertEquals( "variables are kept", "root", root.getVariable( "a" ) );
+
+                JellyContext child = root.newJellyContext();
+                JellyContext grandChild = child.newJellyContext();
+                assertEquals( "children have the scope type", types[i], grandChild.getScopeType() );
+                child.setVariable( "b", "child" );
+
+                assertEquals( "root", grandChild.getVariable( "a" ) );
+                assertEquals( "child", grandChild.findVariable( "b" ) );
+                assertEquals( "system", grandChild.getVariable( "test.jelly.scope" ) );
+                assertEquals( "system", grandChild.findVariable( "test.jelly.scope" ) );
+                assertNull( grandChild.getVariable( "test.jelly.missing" ) );
+                assertSame( child.getVariables(), grandChild.getVariable( "parentScope" ) );
+
+                grandChild.setInherit( false );
+                assertNull( grandChild.getVariable( "a" ) );
+                assertEquals( "system", grandChild.getVariable( "test.jelly.scope" ) );
+
+                child.setVariable( "b", null );
+                assertNull( grandChild.findVariable( "b" ) );
+            }
+        }
+        finally
+        {
+            System.getProperties().remove( "test.jelly.scope" );
+        }
+    }
+
+    public void testScopeTypeMaps()
+    {
+        JellyContext context = new JellyContext();
+        assertTrue( context.getVariables() instanceof Hashtable );
+        context.setScopeType( JellyContext.UNSYNCHRONIZED_SCOPE );
+        assertTrue( context.getVariables() instanceof HashMap );
+        context.setScopeType( JellyContext.CONCURRENT_SCOPE );
+        assertTrue( context.getVariables() instanceof ConcurrentHashMap );
+        try
+        {
+            context.setScopeType( 3 );
+            fail( "An unknown scope type should be rejected" );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
 }
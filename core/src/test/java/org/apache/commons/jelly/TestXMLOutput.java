@@ -17,6 +17,12 @@
 package org.apache.commons.jelly;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
 
 import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.XMLOutput;
@@ -79,4 +85,158 @@ public class TestXMLOutput extends BaseJellyTest {
         output.flush();
         assertEquals("[string]",bos.toString().trim());
 	}
+
+    public void testWriteReusesBuffer() throws Exception {
+        StringWriter writer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(writer);
+
+        StringBuffer longText = new StringBuffer();
+        for (int i = 0; i < 1000; i++) {
+            longText.append("0123456789");
+        }
+        output.write("short ");
+        output.write("longer text ");
+        output.write("x");
+        output.writeCDATA("<cdata>");
+        output.write(longText.toString());
+        output.flush();
+        assertEquals("short longer text x<![CDATA[<cdata>]]>" + longText, writer.toString());
+    }
+
+    public void testFlushEveryTag() throws Exception {
+        FlushCountingWriter writer = runFlushScript(XMLOutput.FLUSH_EVERY_TAG);
+        // the forEach, its 10 outs, the flush and the last out
+        assertTrue("flushes: " + writer.flushes, writer.flushes >= 13);
+    }
+
+    public void testFlushExplicit() throws Exception {
+        FlushCountingWriter writer = runFlushScript(XMLOutput.FLUSH_EXPLICIT);
+        assertEquals(1, writer.flushes);
+        assertEquals("12345678910", writer.flushedText);
+    }
+
+    public void testFlushNever() throws Exception {
+        FlushCountingWriter writer = runFlushScript(XMLOutput.FLUSH_NEVER);
+        assertEquals(0, writer.flushes);
+        assertEquals("12345678910", writer.toString().trim().substring(0, 11));
+    }
+
+    public void testFlushOnThreshold() throws Exception {
+        setUpScript("outputFlush.jelly");
+        Script script = getJelly().compileScript();
+        FlushCountingWriter writer = new FlushCountingWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(writer);
+        output.setFlushPolicy(XMLOutput.FLUSH_ON_THRESHOLD);
+        output.setFlushThreshold(4);
+
+        script.run(getJellyContext(), output);
+        // after "1234" and "5678", then the explicit flush
+        assertEquals(3, output.getFlushCount());
+        assertEquals(3, writer.flushes);
+        assertTrue(output.getFlushRequestCount() >= 13);
+    }
+
+    public void testFlushOnInterval() throws Exception {
+        XMLOutput output = XMLOutput.createXMLOutput(new FlushCountingWriter());
+        output.setFlushPolicy(XMLOutput.FLUSH_ON_INTERVAL);
+        output.setFlushInterval(60000);
+        for (int i = 0; i < 100; i++) {
+            output.write("x");
+            output.autoFlush();
+        }
+        assertEquals(0, output.getFlushCount());
+
+        output.setFlushInterval(0);
+        output.autoFlush();
+        assertEquals(1, output.getFlushCount());
+        assertEquals(101, output.getFlushRequestCount());
+    }
+
+    public void testWrappedOutputKeepsPolicy() throws Exception {
+        FlushCountingWriter writer = new FlushCountingWriter();
+        XMLOutput inner = XMLOutput.createXMLOutput(writer);
+        inner.setFlushPolicy(XMLOutput.FLUSH_EXPLICIT);
+        XMLOutput outer = new XMLOutput(inner);
+        outer.write("x");
+        outer.autoFlush();
+        assertEquals(0, writer.flushes);
+        outer.flush();
+        assertEquals(1, writer.flushes);
+    }
+
+    public void testUnflushableHandlerIsNotCounted() throws Exception {
+        XMLOutput output = new XMLOutput(new DefaultHandler());
+        output.write("x");
+        output.flush();
+        assertEquals(0, output.getFlushCount());
+    }
+
+    private FlushCountingWriter runFlushScript(int flushPolicy) throws Exception {
+        setUpScript("outputFlush.jelly");
+        Script script = getJelly().compileScript();
+        FlushCountingWriter writer = new FlushCountingWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(writer);
+        output.setFlushPolicy(flushPolicy);
+        script.run(getJellyContext(), output);
+        assertEquals(writer.flushes, output.getFlushCount());
+        return writer;
+    }
+
+    /** A Writer which counts its flushes and remembers what the first flush wrote */
+    private static class FlushCountingWriter extends StringWriter {
+        int flushes;
+        String flushedText;
+
+        public void flush() {
+            super.flush();
+            if (flushes++ == 0) {
+                flushedText = toString().trim();
+            }
+        }
+
+        public void close() throws IOException {
+        }
+    }
+
+    public void testNamespaceScopes() throws Exception {
+        final StringBuffer events = new StringBuffer();
+        XMLOutput output = new XMLOutput(new DefaultHandler() {
+            public void startPrefixMapping(String prefix, String uri) {
+                events.append("start " + prefix + "=" + uri + ";");
+            }
+            public void endPrefixMapping(String prefix) {
+                events.append("end " + prefix + ";");
+            }
+        });
+        AttributesImpl attributes = new AttributesImpl();
+
+        output.startElement("", "root", "root", attributes);
+        output.startElement("urn:a", "a", "p:a", attributes);
+        // nested elements in the same namespace declare nothing
+        for (int i = 0; i < 40; i++) {
+            output.startElement("urn:a", "a", "p:a", attributes);
+        }
+        output.startElement("urn:b", "b", "p:b", attributes);
+        output.endElement("urn:b", "b", "p:b");
+        for (int i = 0; i < 40; i++) {
+            output.endElement("urn:a", "a", "p:a");
+        }
+        output.endElement("urn:a", "a", "p:a");
+        output.startElement("urn:a", "a", "p:a", attributes);
+        output.endElement("urn:a", "a", "p:a");
+        output.endElement("", "root", "root");
+
+        assertEquals(
+            "start p=urn:a;start p=urn:b;end p;end p;start p=urn:a;end p;",
+            events.toString());
+
+        output.startPrefixMapping("q", "urn:a");
+        try {
+            output.startPrefixMapping("q", "urn:b");
+            fail("should not map the same prefix to different URIs in the same node");
+        }
+        catch (SAXException e) {
+            // expected
+        }
+    }
 }
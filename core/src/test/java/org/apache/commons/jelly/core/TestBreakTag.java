@@ -19,6 +19,7 @@ package org.apache.commons.jelly.core;
 import junit.framework.TestSuite;
 
 import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.impl.BreakException;
 import org.apache.commons.jelly.test.BaseJellyTest;
 
 public class TestBreakTag extends BaseJellyTest
@@ -82,5 +83,34 @@ public class TestBreakTag extends BaseJellyTest
         assertEquals("varNotBroken", "false", varNotBroken);
     }
 
+    public void testWhileBreakTag() throws Exception
+    {
+        setUpScript("testBreakTag.jelly");
+        Script script = getJelly().compileScript();
+
+        script.run(getJellyContext(), getXMLOutput());
+
+        assertEquals("whileResult", "3", String.valueOf(getJellyContext().getVariable("whileResult")));
+    }
 
+    public void testBreakOutsideLoop() throws Exception
+    {
+        setUpScript("testBreakOutsideLoop.jelly");
+        Script script = getJelly().compileScript();
+
+        try {
+            script.run(getJellyContext(), getXMLOutput());
+            fail("the break should have terminated the script");
+        }
+        catch (BreakException e) {
+            assertEquals("j:break", e.getElementName());
+            assertEquals(19, e.getLineNumber());
+            assertEquals("inner", getJellyContext().getVariable("reached"));
+        }
+    }
+
+    public void testBreakExceptionIsStackless() throws Exception
+    {
+        assertEquals(0, new BreakException().getStackTrace().length);
+    }
 }
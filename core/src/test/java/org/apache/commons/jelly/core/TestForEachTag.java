@@ -16,6 +16,13 @@
  */
 package org.apache.commons.jelly.core;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.TestSuite;
 
 import org.apache.commons.jelly.Script;
@@ -79,4 +86,84 @@ public class TestForEachTag extends BaseJellyTest
                        "FIRST_262_122/MIDDLE_244/LAST_366/",
                      resultOrdered);
     }
+
+    public void testParallelForEach() throws Exception
+    {
+        setUpScript("testForEachTag.jelly");
+        Script script = getJelly().compileScript();
+
+        Map threads = new ConcurrentHashMap();
+        getJellyContext().setVariable("threads", threads);
+        getJellyContext().setVariable("running", new AtomicInteger());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        getJellyContext().setVariable("executor", executor);
+        getJellyContext().setVariable("myList", new Object[] {"a", "b", "c", "d", "e", "f", "g"});
+        getJellyContext().setVariable("testParallel", Boolean.TRUE);
+        try {
+            script.run(getJellyContext(), getXMLOutput());
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        String resultOrdered =
+                (String) getJellyContext().getVariable("result.ordered");
+        resultOrdered = StringUtils.replace(resultOrdered, " ", "");
+        resultOrdered = StringUtils.replace(resultOrdered, "\n", "");
+        assertEquals("result.ordered", "FIRST_1a/2b/3c/4d/5e/6f/LAST_7g/", resultOrdered);
+
+        String resultBreak = (String) getJellyContext().getVariable("result.break");
+        resultBreak = StringUtils.replace(resultBreak, " ", "");
+        resultBreak = StringUtils.replace(resultBreak, "\n", "");
+        assertEquals("result.break", "1/2/3/4/", resultBreak);
+
+        assertNull("items set variables in their own context", getJellyContext().getVariable("result.local"));
+        assertTrue("at most 4 threads were used", threads.size() <= 4);
+        assertFalse("the body was run by the pool", threads.containsKey(Thread.currentThread().getName()));
+
+        assertEquals("no items were running after the loop was broken",
+                     new Integer(0), getJellyContext().getVariable("result.running"));
+
+        String resultExecutor = (String) getJellyContext().getVariable("result.executor");
+        assertEquals("result.executor", "1/2/3/4/5/", resultExecutor);
+    }
+
+    public void testParallelForEachReleasesThreads() throws Exception
+    {
+        setUpScript("testForEachTag.jelly");
+        Script script = getJelly().compileScript();
+
+        getJellyContext().setVariable("testParallelRuns", Boolean.TRUE);
+        for (int i = 0; i < 20; i++) {
+            script.run(getJellyContext(), getXMLOutput());
+        }
+        assertEquals("no pool threads are left after the runs", 0, countPoolThreads());
+    }
+
+    /**
+     * @return the number of live threads of the pools created by parallel loops
+     */
+    private static int countPoolThreads() {
+        int count = 0;
+        for (Iterator iter = Thread.getAllStackTraces().keySet().iterator(); iter.hasNext(); ) {
+            Thread thread = (Thread) iter.next();
+            if (thread.isAlive() && thread.getName().startsWith("Jelly forEach")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Called by the items of a parallel loop. Counts the items running while
+     * it takes a while, ignoring interrupts as a body may.
+     */
+    public static void work(AtomicInteger running) {
+        running.incrementAndGet();
+        long until = System.currentTimeMillis() + 200;
+        while (System.currentTimeMillis() < until) {
+            Thread.yield();
+        }
+        running.decrementAndGet();
+    }
 }
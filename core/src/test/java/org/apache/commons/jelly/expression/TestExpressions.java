@@ -16,6 +16,12 @@
  */
 package org.apache.commons.jelly.expression;
 
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -24,6 +30,7 @@ import junit.textui.TestRunner;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.jelly.expression.jexl.JexlExpressionFactory;
 
 /**
@@ -43,6 +50,12 @@ public class TestExpressions extends TestCase {
         }
     }
     public static final class TestHelper {
+        public String getName() {
+            return "helper";
+        }
+        public boolean isValid() {
+            return true;
+        }
         public Object throwAnException() throws TestException {
             throw new TestException();
         }
@@ -96,7 +109,52 @@ public class TestExpressions extends TestCase {
         assertExpression("ham and ${maven.home.foo} pizza", "ham and cheese pizza");
         assertExpression("${maven.home.foo.length()}", new Integer(6));
     }
-    
+
+    public void testAntExpressionsWithProperties() throws Exception {
+        Map pizza = new HashMap();
+        pizza.put("topping", "ham");
+        context.setVariable("pizza", pizza);
+        context.setVariable("pizza.type", "deepPan");
+
+        assertExpression("${pizza.topping}", "ham");
+        assertExpression("${pizza.type}", "deepPan");
+        assertExpression("${pizza}", pizza);
+    }
+
+    public void testPropertyChains() throws Exception {
+        context.setVariable("test", new TestHelper());
+        context.setVariable("maven.home", new TestHelper());
+        context.setVariable("list", Arrays.asList(new String[] {"a", "b"}));
+
+        assertExpression("${test.name}", "helper");
+        assertExpression("${test.name.class.name}", "java.lang.String");
+        assertExpression("${test.valid}", Boolean.TRUE);
+        // a property of a dotted variable name
+        assertExpression("${maven.home.name}", "helper");
+        assertExpression("${list[1]}", "b");
+        assertExpression("${unknown.name}", null);
+
+        // the getter cached for one class must not be used for another
+        Expression expression = CompositeExpression.parse("${test.name}", factory);
+        assertEquals("helper", expression.evaluate(context));
+        context.setVariable("test", Collections.singletonMap("name", "map"));
+        assertEquals("map", expression.evaluate(context));
+    }
+
+    public void testPropertyChainsAreJexlIdentifiers() throws Exception {
+        context.setVariable("$test", new TestHelper());
+        assertExpression("${$test.name}", "helper");
+
+        // Jexl identifiers are ASCII, so these are parsed by Jexl, which rejects them
+        try {
+            factory.createExpression("caf\u00e9");
+            fail("Jexl identifiers are ASCII");
+        }
+        catch (JellyException e) {
+            // expected
+        }
+    }
+
     /** tests that $${xx} is output as ${xx}. This trick is ued
         by several plugins to generate other jelly files or ant files.
         The maven ant plugin is one of them. */
@@ -108,6 +166,21 @@ public class TestExpressions extends TestCase {
         assertEquals("$${xx} should output ${xx}","ham and ${maven.home.foo} pizza",value);
     }
 
+    public void testStreamingEvaluation() throws Exception {
+        context.setVariable("topping", "cheese");
+        Expression expression = CompositeExpression.parse("A ${topping} ${missing}pizza", factory);
+
+        StringBuilder buffer = new StringBuilder();
+        expression.appendAsString(context, buffer);
+        assertEquals("A cheese pizza", buffer.toString());
+
+        StringWriter writer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(writer);
+        expression.writeAsString(context, output);
+        output.flush();
+        assertEquals("A cheese pizza", writer.toString());
+    }
+
     public void testNotConditions() throws Exception {
         context.setVariable("a", Boolean.TRUE);
         context.setVariable("b", Boolean.FALSE);
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.expression.jexl;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.expression.Expression;
+import org.apache.commons.jexl.JexlContext;
+
+/**
+ * Tests that the JexlContext adapter of a context is kept in it and
+ * reused by every evaluation
+ *
+ * @version $Revision$
+ */
+public class TestJexlContext extends TestCase {
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestJexlContext.class);
+    }
+
+    public TestJexlContext(String testName) {
+        super(testName);
+    }
+
+    public void testJexlContextIsReused() throws Exception {
+        JellyContext context = new JellyContext();
+        context.setVariable("topping", "cheese");
+        Expression expression = new JexlExpressionFactory().createExpression("topping.length()");
+        assertEquals(new Integer(6), expression.evaluate(context));
+
+        JexlContext jexlContext = JexlExpression.getJexlContext(context);
+        assertSame(jexlContext, JexlExpression.getJexlContext(context));
+        assertEquals("cheese", jexlContext.getVars().get("topping"));
+
+        JellyContext other = new JellyContext();
+        other.setVariable("topping", "ham");
+        JexlContext otherJexlContext = JexlExpression.getJexlContext(other);
+        assertNotSame(jexlContext, otherJexlContext);
+        assertEquals("ham", otherJexlContext.getVars().get("topping"));
+
+        // each context keeps its own adapter
+        assertSame(jexlContext, context.getExpressionContext());
+        assertSame(jexlContext, JexlExpression.getJexlContext(context));
+        assertSame(otherJexlContext, JexlExpression.getJexlContext(other));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.expression.xpath;
+
+import java.util.Collections;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.apache.commons.jelly.impl.TagScript;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.jaxen.XPath;
+
+/**
+ * Tests that XPathExpressions share parsed XPaths while binding variables
+ * to the context they were evaluated in
+ *
+ * @version $Revision$
+ */
+public class TestXPathExpression extends TestCase {
+
+    private Document document;
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestXPathExpression.class);
+    }
+
+    public TestXPathExpression(String testName) {
+        super(testName);
+    }
+
+    public void setUp() throws Exception {
+        document = DocumentHelper.parseText(
+            "<root xmlns='urn:a'><item id='1'>one</item><item id='2'>two</item></root>");
+    }
+
+    public void testParsedXPathIsShared() throws Exception {
+        XPathCache cache = new XPathCache();
+        XPathExpression expression = createExpression("/a:root/a:item[@id = $id]");
+        expression.setXPathCache(cache);
+
+        JellyContext first = new JellyContext();
+        first.setVariable("id", "1");
+        JellyContext second = new JellyContext();
+        second.setVariable("id", "2");
+
+        XPath firstXPath = (XPath) expression.evaluate(first);
+        XPath secondXPath = (XPath) expression.evaluate(second);
+
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals("one", firstXPath.stringValueOf(document));
+        assertEquals("two", secondXPath.stringValueOf(document));
+        assertEquals(1, secondXPath.selectNodes(document).size());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        XPathCache cache = new XPathCache(2);
+        cache.getXPath("a");
+        cache.getXPath("b");
+        cache.getXPath("a");
+        cache.getXPath("c");
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getHitCount());
+        cache.getXPath("b");
+        assertEquals(4, cache.getMissCount());
+    }
+
+    public void testConcurrentEvaluation() throws Exception {
+        final XPathExpression expression = createExpression("count(/a:root/a:item[@id <= $id])");
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final String id = String.valueOf(i % 2 + 1);
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        JellyContext context = new JellyContext();
+                        context.setVariable("id", id);
+                        for (int j = 0; j < 500; j++) {
+                            XPath xpath = (XPath) expression.evaluate(context);
+                            assertEquals(id, String.valueOf(xpath.numberValueOf(document).intValue()));
+                        }
+                    }
+                    catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        if (failure[0] != null) {
+            fail(failure[0].toString());
+        }
+    }
+
+    private XPathExpression createExpression(String text) {
+        TagScript tagScript = new TagScript();
+        tagScript.setTagNamespacesMap(Collections.singletonMap("a", "urn:a"));
+        return new XPathExpression(text, new ConstantExpression(text), tagScript);
+    }
+}
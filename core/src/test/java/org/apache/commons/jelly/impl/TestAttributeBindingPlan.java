@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.util.Hashtable;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.TagSupport;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.apache.commons.jelly.expression.Expression;
+
+/**
+ * Tests setting the attributes of a bean tag with an AttributeBindingPlan
+ *
+ * @version $Revision$
+ */
+public class TestAttributeBindingPlan extends TestCase {
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestAttributeBindingPlan.class);
+    }
+
+    public TestAttributeBindingPlan(String testName) {
+        super(testName);
+    }
+
+    public void testConversion() throws Exception {
+        Map attributes = new Hashtable();
+        addAttribute(attributes, "count", "42");
+        addAttribute(attributes, "enabled", "true");
+        addAttribute(attributes, "name", new Integer(7));
+        addAttribute(attributes, "ratio", null);
+
+        BeanTag tag = new BeanTag();
+        new AttributeBindingPlan(BeanTag.class, attributes).apply(tag, new JellyContext());
+
+        assertEquals(42, tag.getCount());
+        assertTrue(tag.isEnabled());
+        assertEquals("7", tag.getName());
+        assertEquals(0.0, tag.getRatio(), 0.0);
+    }
+
+    public void testExpressionProperty() throws Exception {
+        Map attributes = new Hashtable();
+        Expression expression = addAttribute(attributes, "test", "value");
+
+        BeanTag tag = new BeanTag();
+        new AttributeBindingPlan(BeanTag.class, attributes).apply(tag, new JellyContext());
+
+        assertSame(expression, tag.getTest());
+    }
+
+    public void testReadOnlyPropertyIsIgnored() throws Exception {
+        Map attributes = new Hashtable();
+        addAttribute(attributes, "description", "ignored");
+
+        BeanTag tag = new BeanTag();
+        new AttributeBindingPlan(BeanTag.class, attributes).apply(tag, new JellyContext());
+        assertEquals("read only", tag.getDescription());
+    }
+
+    public void testUnknownAttribute() throws Exception {
+        Map attributes = new Hashtable();
+        addAttribute(attributes, "doesNotExist", "value");
+        try {
+            new AttributeBindingPlan(BeanTag.class, attributes);
+            fail("should not understand the attribute");
+        }
+        catch (JellyException e) {
+            // expected
+        }
+    }
+
+    public void testConstantsAreConvertedOnce() throws Exception {
+        Map attributes = new Hashtable();
+        ConstantExpression count = (ConstantExpression) addAttribute(attributes, "count", "42");
+        addAttribute(attributes, "enabled", "true");
+
+        AttributeBindingPlan plan = new AttributeBindingPlan(BeanTag.class, attributes);
+        assertEquals(2, plan.getPreconvertedAttributeCount());
+
+        BeanTag tag = new BeanTag();
+        plan.apply(tag, new JellyContext());
+        assertEquals(42, tag.getCount());
+        assertTrue(tag.isEnabled());
+
+        // a changed constant is converted again
+        count.setValue("43");
+        tag = new BeanTag();
+        plan.apply(tag, new JellyContext());
+        assertEquals(43, tag.getCount());
+    }
+
+    private Expression addAttribute(Map attributes, String name, Object value) {
+        Expression expression = new ConstantExpression(value);
+        attributes.put(name, new ExpressionAttribute(name, expression));
+        return expression;
+    }
+
+    public static class BeanTag extends TagSupport {
+        private int count;
+        private boolean enabled;
+        private String name;
+        private double ratio = 1.0;
+        private Expression test;
+
+        public void doTag(XMLOutput output) {
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public double getRatio() {
+            return ratio;
+        }
+
+        public void setRatio(double ratio) {
+            this.ratio = ratio;
+        }
+
+        public String getDescription() {
+            return "read only";
+        }
+
+        public Expression getTest() {
+            return test;
+        }
+
+        public void setTest(Expression test) {
+            this.test = test;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.StringWriter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.apache.commons.jelly.util.TagUtils;
+
+/**
+ * Tests the optimizations made when a ScriptBlock is compiled
+ *
+ * @version $Revision$
+ */
+public class TestScriptBlock extends TestCase {
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestScriptBlock.class);
+    }
+
+    public TestScriptBlock(String testName) {
+        super(testName);
+    }
+
+    public void testAdjacentTextIsMerged() throws Exception {
+        ScriptBlock block = new ScriptBlock();
+        block.addScript(new TextScript("a "));
+        block.addScript(new TextScript(" b"));
+        block.addScript(new ExpressionScript(new ConstantExpression("c")));
+        block.addScript(new TextScript("d"));
+
+        Script script = block.compile();
+
+        assertSame(block, script);
+        CompileStatistics statistics = new CompileStatistics(script);
+        assertEquals(1, statistics.getCompiledBlockCount());
+        assertEquals(1, statistics.getMergedTextCount());
+        assertEquals(4, block.getScriptList().size());
+        assertEquals("a  bcd", run(script));
+    }
+
+    public void testTrimmedScriptLeavesBlockUnchanged() throws Exception {
+        ScriptBlock block = new ScriptBlock();
+        block.addScript(new TextScript("  "));
+        block.addScript(new ExpressionScript(new ConstantExpression("x")));
+        block.addScript(new TextScript(" y "));
+        block.addScript(new TextScript(" z"));
+        Script script = block.compile();
+
+        Script trimmed = TagUtils.getTrimmedScript(script);
+        assertEquals("xyz", run(trimmed));
+        assertSame(trimmed, TagUtils.getTrimmedScript(trimmed));
+        assertEquals("  x y  z", run(script));
+        assertEquals(1, new CompileStatistics(script).getDroppedWhitespaceCount());
+    }
+
+    public void testTrimmedCompositeText() throws Exception {
+        ScriptBlock block = new CompositeTextScriptBlock();
+        block.addScript(new TextScript(" a "));
+        block.addScript(new ExpressionScript(new ConstantExpression("x")));
+        block.addScript(new TextScript(" b "));
+        Script script = block.compile();
+
+        assertEquals("a x b", run(TagUtils.getTrimmedScript(script)));
+        assertEquals(" a x b ", run(script));
+    }
+
+    public void testTrimmedText() throws Exception {
+        TextScript text = new TextScript(" a ");
+        assertEquals("a", run(TagUtils.getTrimmedScript(text.compile())));
+        assertEquals(" a ", text.getText());
+
+        text = new TextScript("a");
+        assertSame(text, TagUtils.getTrimmedScript(text));
+    }
+
+    public void testChangedBlockIsRun() throws Exception {
+        ScriptBlock block = new ScriptBlock();
+        block.addScript(new TextScript("a"));
+        block.addScript(new TextScript("b"));
+        block.compile();
+        block.addScript(new TextScript("c"));
+
+        assertEquals("abc", run(block));
+    }
+
+    private String run(Script script) throws Exception {
+        StringWriter writer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(writer);
+        script.run(new JellyContext(), output);
+        output.flush();
+        return writer.toString();
+    }
+}
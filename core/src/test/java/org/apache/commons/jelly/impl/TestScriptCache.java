@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringWriter;
+import java.net.URL;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+
+/**
+ * Tests the caching of compiled scripts by JellyContext
+ *
+ * @version $Revision$
+ */
+public class TestScriptCache extends TestCase {
+
+    private File file;
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestScriptCache.class);
+    }
+
+    public TestScriptCache(String testName) {
+        super(testName);
+    }
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("testScriptCache", ".jelly");
+        writeScript("one");
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testCompiledScriptIsReused() throws Exception {
+        DefaultScriptCache cache = new DefaultScriptCache(10, false);
+        JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+
+        URL url = file.toURL();
+        Script first = context.compileScript(url);
+        Script second = context.compileScript(url);
+
+        assertSame("compiled script should be reused", first, second);
+        assertEquals("hits", 1, cache.getHitCount());
+        assertEquals("misses", 1, cache.getMissCount());
+    }
+
+    public void testRunScriptUsesCache() throws Exception {
+        DefaultScriptCache cache = new DefaultScriptCache(10, false);
+        JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+
+        assertEquals("one", run(context));
+        assertEquals("one", run(context));
+        assertEquals("one", run(context.newJellyContext()));
+        assertEquals("hits", 2, cache.getHitCount());
+        assertEquals("misses", 1, cache.getMissCount());
+    }
+
+    public void testModifiedScriptIsReparsed() throws Exception {
+        DefaultScriptCache cache = new DefaultScriptCache(10, true);
+        JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+
+        assertEquals("one", run(context));
+        writeScript("two");
+        file.setLastModified(file.lastModified() + 10000);
+        assertEquals("two", run(context));
+        assertEquals("hits", 0, cache.getHitCount());
+        assertEquals("misses", 2, cache.getMissCount());
+    }
+
+    public void testModifiedScriptWithEncodedURLIsReparsed() throws Exception {
+        file.delete();
+        File directory = new File("target/script cache");
+        directory.mkdirs();
+        file = new File(directory, "testScriptCache.jelly");
+        writeScript("one");
+        URL url = file.toURI().toURL();
+        assertTrue(url.toString().indexOf("%20") >= 0);
+
+        DefaultScriptCache cache = new DefaultScriptCache(10, true);
+        JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+
+        assertEquals("one", run(context, url));
+        writeScript("two");
+        file.setLastModified(file.lastModified() + 10000);
+        assertEquals("two", run(context, url));
+        assertEquals("misses", 2, cache.getMissCount());
+    }
+
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        DefaultScriptCache cache = new DefaultScriptCache(1, false);
+        JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+
+        File other = File.createTempFile("testScriptCache", ".jelly");
+        try {
+            writeScript(other, "other");
+            context.compileScript(file.toURL());
+            context.compileScript(other.toURL());
+            assertEquals("size", 1, cache.getSize());
+            assertEquals("evictions", 1, cache.getEvictionCount());
+            assertNull(cache.getScript(file.toURL()));
+            assertNotNull(cache.getScript(other.toURL()));
+        }
+        finally {
+            other.delete();
+        }
+    }
+
+    private String run(JellyContext context) throws Exception {
+        StringWriter buffer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(buffer);
+        context.runScript(file, output);
+        output.flush();
+        return buffer.toString().trim();
+    }
+
+    private String run(JellyContext context, URL url) throws Exception {
+        StringWriter buffer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(buffer);
+        context.runScript(url, output);
+        output.flush();
+        return buffer.toString().trim();
+    }
+
+    private void writeScript(String text) throws Exception {
+        writeScript(file, text);
+    }
+
+    private void writeScript(File target, String text) throws Exception {
+        FileWriter writer = new FileWriter(target);
+        try {
+            writer.write("<j:jelly xmlns:j=\"jelly:core\">" + text + "</j:jelly>");
+        }
+        finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Iterator;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.DynaTagSupport;
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.TagLibrary;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.util.BufferedXMLOutput;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Tests that static subtrees are recorded when first run and give the
+ * same output as running them each time
+ *
+ * @version $Revision$
+ */
+public class TestStaticTagScript extends TestCase {
+
+    private static final String JELLY = "<j:jelly xmlns:j='jelly:core'>";
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestStaticTagScript.class);
+    }
+
+    public TestStaticTagScript(String testName) {
+        super(testName);
+    }
+
+    public void testStaticSubtreeIsRecorded() throws Exception {
+        Script script = compile(JELLY
+            + "<j:forEach begin='1' end='3'><a x='1&amp;2'><b> t &lt; u </b><c/></a></j:forEach>"
+            + "</j:jelly>");
+        StaticTagScript a = findStaticTagScript(script, "a");
+        assertTrue(a.isStaticSubtree());
+        assertFalse(findStaticTagScript(script, "b").isStaticSubtree());
+
+        String expected = "<a x=\"1&amp;2\"><b>t &lt; u</b><c></c></a>";
+        assertEquals(expected + expected + expected, run(script, new JellyContext()));
+        assertEquals(expected, replay(script));
+
+        String unescaped = "<a x=\"1&amp;2\"><b>t < u</b><c></c></a>";
+        assertEquals(unescaped + unescaped + unescaped, run(script, new JellyContext(), false));
+    }
+
+    public void testTagListenerSeesEveryTag() throws Exception {
+        Script script = compile(JELLY + "<a><b/></a></j:jelly>");
+        final StringBuffer started = new StringBuffer();
+        JellyContext context = new JellyContext();
+        context.setTagListener(new TagListener() {
+            public void startTag(TagScript tagScript, JellyContext context) {
+                started.append(tagScript.getLocalName());
+            }
+
+            public void endTag(TagScript tagScript, JellyContext context) {
+            }
+        });
+
+        assertEquals("<a><b></b></a>", run(script, new JellyContext()));
+        assertEquals("<a><b></b></a>", run(script, context));
+        assertEquals("jellyabjellyab", started.toString());
+    }
+
+    public void testDynamicContentIsNotRecorded() throws Exception {
+        Script script = compile(JELLY
+            + "<j:forEach var='i' begin='1' end='2'><a><b>${i}</b></a><c y='${i}'/></j:forEach>"
+            + "</j:jelly>");
+        assertFalse(findStaticTagScript(script, "a").isStaticSubtree());
+        assertFalse(findStaticTagScript(script, "c").isStaticSubtree());
+        assertEquals("<a><b>1</b></a><c y=\"1\"></c><a><b>2</b></a><c y=\"2\"></c>",
+            run(script, new JellyContext()));
+    }
+
+    public void testWhitespaceIsRecordedForEachTrimSetting() throws Exception {
+        Script script = compile(JELLY
+            + "<a> <b> x </b> </a>"
+            + "<j:whitespace><a> <b> x </b> </a></j:whitespace>"
+            + "</j:jelly>");
+        assertEquals("<a><b>x</b></a><a> <b> x </b> </a>", run(script, new JellyContext()));
+        assertEquals("<a><b>x</b></a><a> <b> x </b> </a>", run(script, new JellyContext()));
+    }
+
+    public void testPrefixedSubtreeIsReplayed() throws Exception {
+        Script script = compile(JELLY
+            + "<j:forEach begin='1' end='2'><p:a xmlns:p='urn:p'><p:b p:z='1'/></p:a></j:forEach>"
+            + "</j:jelly>");
+        assertTrue(findStaticTagScript(script, "a").isStaticSubtree());
+        String expected = "<p:a xmlns:p=\"urn:p\"><p:b p:z=\"1\"></p:b></p:a>";
+        assertEquals(expected + expected, run(script, new JellyContext()));
+    }
+
+    public void testTagLibraryRegisteredBetweenRuns() throws Exception {
+        Script script = compile(JELLY
+            + "<j:forEach var='n' begin='1' end='2'><x:list xmlns:x='urn:x'><x:item/></x:list></j:forEach>"
+            + "</j:jelly>");
+        assertTrue(findStaticTagScript(script, "list").isStaticSubtree());
+        assertEquals("<x:list xmlns:x=\"urn:x\"><x:item></x:item></x:list>"
+            + "<x:list xmlns:x=\"urn:x\"><x:item></x:item></x:list>",
+            run(script, new JellyContext()));
+
+        JellyContext context = new JellyContext();
+        context.registerTagLibrary("urn:x", new ItemTagLibrary());
+        assertEquals("<x:list xmlns:x=\"urn:x\">DYNAMIC:1</x:list>"
+            + "<x:list xmlns:x=\"urn:x\">DYNAMIC:2</x:list>",
+            run(script, context));
+    }
+
+    private Script compile(String text) throws Exception {
+        return new JellyContext().compileScript(new InputSource(new StringReader(text)));
+    }
+
+    private String run(Script script, JellyContext context) throws Exception {
+        return run(script, context, true);
+    }
+
+    /**
+     * Runs the script to both a dom4j XMLWriter and an XMLSerializer, which
+     * takes serialized output, and checks that they write the same
+     */
+    private String run(Script script, JellyContext context, boolean escapeText) throws Exception {
+        StringWriter writer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(writer, escapeText);
+        script.run(context, output);
+        output.flush();
+
+        StringWriter serializerWriter = new StringWriter();
+        output = XMLOutput.createSerializingXMLOutput(serializerWriter, escapeText);
+        script.run(context, output);
+        output.flush();
+
+        assertEquals(writer.toString(), serializerWriter.toString());
+        return writer.toString();
+    }
+
+    /**
+     * Runs the first static subtree through a BufferedXMLOutput, which does not
+     * take serialized output, and replays it into a serializing XMLOutput
+     */
+    private String replay(Script script) throws Exception {
+        StaticTagScript a = findStaticTagScript(script, "a");
+        BufferedXMLOutput events = new BufferedXMLOutput();
+        a.run(new JellyContext(), events);
+        StringWriter writer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(writer, true);
+        events.writeTo(output);
+        output.flush();
+        return writer.toString();
+    }
+
+    private StaticTagScript findStaticTagScript(Script script, String localName) {
+        if (script instanceof StaticTagScript
+            && localName.equals(((StaticTagScript) script).getLocalName())) {
+            return (StaticTagScript) script;
+        }
+        Script body = null;
+        if (script instanceof TagScript) {
+            body = ((TagScript) script).getTagBody();
+        }
+        else if (script instanceof ScriptBlock) {
+            for (Iterator iter = ((ScriptBlock) script).getScriptList().iterator(); iter.hasNext(); ) {
+                StaticTagScript answer = findStaticTagScript((Script) iter.next(), localName);
+                if (answer != null) {
+                    return answer;
+                }
+            }
+        }
+        return body != null ? findStaticTagScript(body, localName) : null;
+    }
+
+    /**
+     * A tag library which defines only the item tag
+     */
+    public static class ItemTagLibrary extends TagLibrary {
+        public ItemTagLibrary() {
+            registerTag("item", ItemTag.class);
+        }
+    }
+
+    public static class ItemTag extends DynaTagSupport {
+        public void setAttribute(String name, Object value) {
+        }
+
+        public void doTag(XMLOutput output) throws JellyTagException {
+            try {
+                output.write("DYNAMIC:" + context.getVariable("n"));
+            }
+            catch (SAXException e) {
+                throw new JellyTagException(e);
+            }
+        }
+    }
+}
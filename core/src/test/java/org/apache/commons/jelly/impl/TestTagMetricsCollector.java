@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.InputSource;
+
+/**
+ * Tests the measurements made by a TagMetricsCollector
+ *
+ * @version $Revision$
+ */
+public class TestTagMetricsCollector extends TestCase {
+
+    private static final String SCRIPT =
+        "<j:jelly xmlns:j='jelly:core'>\n"
+        + "<j:forEach var='i' begin='1' end='5'>\n"
+        + "<j:set var='x' value='${i}'/><p>${x}</p>\n"
+        + "</j:forEach>\n"
+        + "</j:jelly>";
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestTagMetricsCollector.class);
+    }
+
+    public TestTagMetricsCollector(String testName) {
+        super(testName);
+    }
+
+    public void testNestedTagsAreMeasured() throws Exception {
+        TagMetricsCollector collector = new TagMetricsCollector(true);
+        runScript(collector);
+
+        List metrics = collector.getMetrics();
+        assertEquals(4, metrics.size());
+        assertEquals(1 + 1 + 5 + 5, collector.getInvocationCount());
+
+        TagMetrics jelly = find(metrics, "j:jelly");
+        TagMetrics forEach = find(metrics, "j:forEach");
+        TagMetrics set = find(metrics, "j:set");
+        TagMetrics p = find(metrics, "p");
+        assertEquals(1, forEach.getInvocationCount());
+        assertEquals(5, set.getInvocationCount());
+        assertEquals(5, p.getInvocationCount());
+        assertEquals(3, set.getLineNumber());
+
+        assertTrue(jelly.getTotalNanos() >= forEach.getTotalNanos());
+        assertTrue(forEach.getTotalNanos() >= set.getTotalNanos() + p.getTotalNanos());
+        assertEquals(forEach.getTotalNanos() - set.getTotalNanos() - p.getTotalNanos(), forEach.getSelfNanos());
+        if (collector.isTrackAllocations()) {
+            assertTrue(forEach.getAllocatedBytes() >= forEach.getSelfAllocatedBytes());
+        }
+
+        String report = collector.getReport();
+        assertTrue(report, report.indexOf("<j:forEach>") > 0);
+
+        collector.reset();
+        assertEquals(0, collector.getLocationCount());
+    }
+
+    public void testCompiledAgainIsMeasuredTogether() throws Exception {
+        TagMetricsCollector collector = new TagMetricsCollector();
+        runScript(collector);
+        runScript(collector);
+        assertEquals(4, collector.getLocationCount());
+        assertEquals(5 + 5, find(collector.getMetrics(), "j:set").getInvocationCount());
+
+        JellyContext context = new JellyContext();
+        context.setTagListener(collector);
+        Script script = context.compileScript(new InputSource(new StringReader(SCRIPT)));
+        script.run(context, XMLOutput.createDummyXMLOutput());
+        Reference reference = new WeakReference(script);
+        script = null;
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+        }
+        assertNull("the collector does not keep the script", reference.get());
+    }
+
+    public void testDisabledByDefault() throws Exception {
+        JellyContext context = new JellyContext();
+        assertNull(context.getTagListener());
+        TagMetricsCollector collector = new TagMetricsCollector();
+        context.setTagListener(collector);
+        assertSame(collector, new JellyContext(context).getTagListener());
+        assertTrue(collector.getMetrics().isEmpty());
+    }
+
+    public void testMBean() throws Exception {
+        TagMetricsCollector collector = new TagMetricsCollector();
+        runScript(collector);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = collector.registerMBean();
+        try {
+            assertEquals(new Long(12), server.getAttribute(name, "InvocationCount"));
+            assertEquals(new Integer(4), server.getAttribute(name, "LocationCount"));
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(new Long(0), server.getAttribute(name, "InvocationCount"));
+        }
+        finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private void runScript(TagMetricsCollector collector) throws Exception {
+        JellyContext context = new JellyContext();
+        context.setTagListener(collector);
+        XMLOutput output = XMLOutput.createDummyXMLOutput();
+        context.runScript(new InputSource(new StringReader(SCRIPT)), output);
+    }
+
+    private TagMetrics find(List metrics, String elementName) {
+        for (Iterator iter = metrics.iterator(); iter.hasNext(); ) {
+            TagMetrics entry = (TagMetrics) iter.next();
+            if (elementName.equals(entry.getElementName())) {
+                return entry;
+            }
+        }
+        fail("No metrics for: " + elementName + " in " + metrics);
+        return null;
+    }
+}
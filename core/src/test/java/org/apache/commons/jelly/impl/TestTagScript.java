@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.Tag;
+import org.apache.commons.jelly.tags.core.SetTag;
+
+/**
+ * Tests the caching of Tag instances by TagScript for each thread
+ *
+ * @version $Revision$
+ */
+public class TestTagScript extends TestCase {
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestTagScript.class);
+    }
+
+    public TestTagScript(String testName) {
+        super(testName);
+    }
+
+    public void testTagIsCachedPerThread() throws Exception {
+        final TagScript script = TagScript.newInstance(SetTag.class);
+        final JellyContext context = new JellyContext();
+
+        Tag tag = script.getTag(context);
+        assertNotNull(tag);
+        assertSame("tag should be reused by the same thread", tag, script.getTag(context));
+
+        final Tag[] otherTag = new Tag[1];
+        final Exception[] failure = new Exception[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    otherTag[0] = script.getTag(context);
+                }
+                catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        assertNotNull(otherTag[0]);
+        assertNotSame("each thread should have its own tag", tag, otherTag[0]);
+        assertSame("tag of this thread should be unaffected", tag, script.getTag(context));
+    }
+
+    public void testTagsOfTerminatedThreadsAreReleased() throws Exception {
+        final TagScript script = TagScript.newInstance(SetTag.class);
+        final JellyContext context = new JellyContext();
+
+        // the threads are kept, as a pool or a variable would
+        Thread[] threads = new Thread[20];
+        final Reference[] tags = new Reference[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        tags[index] = new WeakReference(script.getTag(context));
+                    }
+                    catch (JellyException e) {
+                        // tags[index] stays null
+                    }
+                }
+            };
+            threads[i].start();
+            threads[i].join();
+        }
+
+        // caching the tag of this thread purges those of the terminated threads
+        script.getTag(context);
+        for (int i = 0; i < 10 && tags[0].get() != null; i++) {
+            System.gc();
+        }
+        assertFalse(threads[0].isAlive());
+        assertNull("the tag of a terminated thread should be released", tags[0].get());
+    }
+
+    public void testClearTag() throws Exception {
+        TagScript script = TagScript.newInstance(SetTag.class);
+        JellyContext context = new JellyContext();
+
+        Tag tag = script.getTag(context);
+        script.clearTag();
+        assertNotSame("a new tag should be created after clearing", tag, script.getTag(context));
+    }
+}
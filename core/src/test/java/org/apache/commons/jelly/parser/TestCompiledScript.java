@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.impl.ScriptBlock;
+import org.apache.commons.jelly.impl.TagScript;
+import org.xml.sax.InputSource;
+
+/**
+ * Tests that scripts written in the compiled script format are read back
+ * as the same script
+ *
+ * @version $Revision$
+ */
+public class TestCompiledScript extends TestCase {
+
+    private static final String SCRIPT =
+        "<j:jelly xmlns:j='jelly:core' xmlns:p='urn:p'>\n"
+        + "  <j:forEach var='i' begin='1' end='2'>\n"
+        + "    <p:item id='${i}' p:kind='static &amp; more'>${i * 2} &lt; <![CDATA[<text/>]]></p:item>\n"
+        + "  </j:forEach>\n"
+        + "  <j:set var='text' value='done'/><last>${text}</last>\n"
+        + "</j:jelly>";
+
+    private File directory;
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestCompiledScript.class);
+    }
+
+    public TestCompiledScript(String testName) {
+        super(testName);
+    }
+
+    public void setUp() throws Exception {
+        directory = File.createTempFile("compiled", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    public void testCompiledScriptRunsTheSame() throws Exception {
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        XMLParser parser = new XMLParser();
+        Script script = parser.parse(new InputSource(new StringReader(SCRIPT)), compiled);
+
+        parser = new XMLParser();
+        Script compiledScript = parser.parseCompiled(new ByteArrayInputStream(compiled.toByteArray()), "test.jelly");
+
+        String expected = run(script.compile());
+        assertTrue(expected, expected.indexOf("<p:item") >= 0);
+        assertEquals(expected, run(compiledScript.compile()));
+
+        TagScript forEach = (TagScript) ((ScriptBlock) script).getScriptList().get(0);
+        TagScript compiledForEach = (TagScript) ((ScriptBlock) compiledScript).getScriptList().get(0);
+        assertEquals(forEach.getLineNumber(), compiledForEach.getLineNumber());
+        assertEquals(forEach.getColumnNumber(), compiledForEach.getColumnNumber());
+        assertEquals("test.jelly", compiledForEach.getFileName());
+    }
+
+    public void testUpToDateCompiledScriptIsRead() throws Exception {
+        File file = writeScript("a.jelly", "<j:jelly xmlns:j='jelly:core'>source</j:jelly>");
+        File compiledFile = new ScriptCompiler().compile(writeScript("b.jelly",
+            "<j:jelly xmlns:j='jelly:core'>compiled</j:jelly>"));
+        assertTrue(compiledFile.renameTo(new File(file.getPath() + CompiledScriptReader.SUFFIX)));
+        compiledFile = new File(file.getPath() + CompiledScriptReader.SUFFIX);
+        file.setLastModified(compiledFile.lastModified() - 10000);
+
+        JellyContext context = new JellyContext();
+        assertEquals("compiled", run(context.compileScript(file.toURL())));
+
+        context.setUseCompiledScripts(false);
+        assertEquals("source", run(context.compileScript(file.toURL())));
+
+        file.setLastModified(compiledFile.lastModified() + 10000);
+        assertEquals("source", run(new JellyContext().compileScript(file.toURL())));
+    }
+
+    public void testBadCompiledScriptIsIgnored() throws Exception {
+        File file = writeScript("a.jelly", "<j:jelly xmlns:j='jelly:core'>source</j:jelly>");
+        File compiledFile = writeScript("a.jelly" + CompiledScriptReader.SUFFIX, "not compiled");
+        file.setLastModified(compiledFile.lastModified() - 10000);
+
+        assertEquals("source", run(new JellyContext().compileScript(file.toURL())));
+    }
+
+    public void testDirectoryIsCompiled() throws Exception {
+        writeScript("a.jelly", "<j:jelly xmlns:j='jelly:core'/>");
+        writeScript("b.xml", "<j:jelly xmlns:j='jelly:core'/>");
+
+        assertEquals(1, new ScriptCompiler().compileAll(directory));
+        assertTrue(new File(directory, "a.jelly" + CompiledScriptReader.SUFFIX).exists());
+        assertFalse(new File(directory, "b.xml" + CompiledScriptReader.SUFFIX).exists());
+    }
+
+    private File writeScript(String name, String text) throws IOException {
+        File file = new File(directory, name);
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(text);
+        }
+        finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private String run(Script script) throws Exception {
+        StringWriter writer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(writer);
+        script.run(new JellyContext(), output);
+        output.flush();
+        return writer.toString();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.parser;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+
+import org.xml.sax.InputSource;
+
+/**
+ * Tests the reuse of XMLParsers by an XMLParserPool
+ *
+ * @version $Revision$
+ */
+public class TestXMLParserPool extends TestCase {
+
+    private static final String SCRIPT =
+        "<j:jelly xmlns:j='jelly:core'><j:set var='foo' value='${bar}'/>${foo}</j:jelly>";
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestXMLParserPool.class);
+    }
+
+    public TestXMLParserPool(String testName) {
+        super(testName);
+    }
+
+    public void testParserIsReusedByContexts() throws Exception {
+        XMLParserPool pool = new XMLParserPool();
+
+        for (int i = 0; i < 3; i++) {
+            JellyContext context = new JellyContext();
+            context.setXMLParserPool(pool);
+            context.setVariable("bar", "run" + i);
+            Script script = context.compileScript(new InputSource(new StringReader(SCRIPT)));
+            assertEquals(1, pool.getIdleCount(false, false));
+
+            StringWriter buffer = new StringWriter();
+            script.run(context, XMLOutput.createXMLOutput(buffer));
+            assertEquals("run" + i, buffer.toString());
+            assertEquals("run" + i, context.getVariable("foo"));
+        }
+    }
+
+    public void testParserIsResetWhenReturned() throws Exception {
+        XMLParserPool pool = new XMLParserPool();
+        XMLParser parser = new XMLParser();
+        parser.setContext(new JellyContext());
+        parser.parse(new StringReader(SCRIPT));
+        assertNotNull(parser.getScript());
+
+        pool.returnParser(parser);
+        assertNull(parser.getScript());
+        assertNull(parser.getContext());
+        assertSame(parser, pool.borrowParser(false, false));
+        assertNull(pool.borrowParser(false, false));
+    }
+
+    public void testSettingsArePooledSeparately() throws Exception {
+        XMLParserPool pool = new XMLParserPool();
+        XMLParser validating = new XMLParser();
+        validating.setValidating(true);
+        pool.returnParser(validating);
+        XMLParser allowDtd = new XMLParser(true);
+        pool.returnParser(allowDtd);
+
+        assertNull(pool.borrowParser(false, false));
+        assertSame(validating, pool.borrowParser(true, false));
+        assertSame(allowDtd, pool.borrowParser(false, true));
+    }
+
+    public void testPoolIsBounded() throws Exception {
+        XMLParserPool pool = new XMLParserPool(1);
+        pool.returnParser(new XMLParser());
+        pool.returnParser(new XMLParser());
+        assertEquals(1, pool.getIdleCount(false, false));
+
+        pool = new XMLParserPool(0);
+        pool.returnParser(new XMLParser());
+        assertEquals(0, pool.getIdleCount(false, false));
+    }
+
+    public void testDefaultNamespaceParserIsNotPooled() throws Exception {
+        XMLParserPool pool = new XMLParserPool();
+        XMLParser parser = new XMLParser();
+        parser.setDefaultNamespaceURI("jelly:core");
+        pool.returnParser(parser);
+        assertEquals(0, pool.getIdleCount(false, false));
+    }
+
+    public void testCustomContextDoesNotUseSharedPool() throws Exception {
+        assertSame(XMLParserPool.getSharedInstance(), new JellyContext().getXMLParserPool());
+
+        JellyContext context = new JellyContext() {
+            protected XMLParser createXMLParser() {
+                return new XMLParser();
+            }
+        };
+        assertNull(context.getXMLParserPool());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.StringWriter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Tests that a BufferedXMLOutput writes the events it recorded as if they
+ * had been written directly
+ *
+ * @version $Revision$
+ */
+public class TestBufferedXMLOutput extends TestCase {
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestBufferedXMLOutput.class);
+    }
+
+    public TestBufferedXMLOutput(String testName) {
+        super(testName);
+    }
+
+    public void testSameOutputAsDirect() throws Exception {
+        StringWriter direct = new StringWriter();
+        XMLOutput directOutput = XMLOutput.createXMLOutput(direct);
+        writeEvents(directOutput);
+        directOutput.flush();
+
+        BufferedXMLOutput buffer = new BufferedXMLOutput();
+        writeEvents(buffer);
+        StringWriter buffered = new StringWriter();
+        XMLOutput bufferedOutput = XMLOutput.createXMLOutput(buffered);
+        buffer.writeTo(bufferedOutput);
+        bufferedOutput.flush();
+
+        assertEquals(direct.toString(), buffered.toString());
+        assertTrue(buffered.toString(), buffered.toString().indexOf("xmlns:a=\"urn:a\"") > 0);
+    }
+
+    public void testBufferIsCopied() throws Exception {
+        BufferedXMLOutput buffer = new BufferedXMLOutput();
+        char[] text = "abc".toCharArray();
+        buffer.characters(text, 0, 3);
+        text[0] = 'x';
+        buffer.write("def");
+
+        StringWriter writer = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(writer);
+        buffer.writeTo(output);
+        output.flush();
+        assertEquals("abcdef", writer.toString());
+        assertEquals(2, buffer.getEventCount());
+    }
+
+    private void writeEvents(XMLOutput output) throws Exception {
+        AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("", "id", "id", "CDATA", "1");
+        output.startElement("urn:a", "item", "a:item", attributes);
+        output.write("text & more");
+        output.writeComment("comment");
+        output.startElement("child");
+        output.writeCDATA("<cdata>");
+        output.endElement("child");
+        output.endElement("urn:a", "item", "a:item");
+    }
+}
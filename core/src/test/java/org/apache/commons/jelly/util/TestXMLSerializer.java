@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.XMLOutput;
+import org.dom4j.io.XMLWriter;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Tests that an XMLSerializer writes the same text as a dom4j XMLWriter
+ *
+ * @version $Revision$
+ */
+public class TestXMLSerializer extends TestCase {
+
+    private static final String TEXT = "t<>&\"'\t\n\u0001\u00e9\u20ac\ud834\udd1e";
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestXMLSerializer.class);
+    }
+
+    public TestXMLSerializer(String testName) {
+        super(testName);
+    }
+
+    public void testSameOutputAsXMLWriter() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            boolean escapeText = i == 0;
+
+            StringWriter expected = new StringWriter();
+            XMLWriter xmlWriter = new XMLWriter(expected);
+            xmlWriter.setEscapeText(escapeText);
+            writeEvents(xmlWriter, xmlWriter);
+
+            StringWriter actual = new StringWriter();
+            XMLSerializer serializer = new XMLSerializer(actual);
+            serializer.setEscapeText(escapeText);
+            writeEvents(serializer, serializer);
+
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    public void testUTF8OutputStream() throws Exception {
+        StringWriter expected = new StringWriter();
+        writeEvents(new XMLSerializer(expected), null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLSerializer serializer = new XMLSerializer(out);
+        writeEvents(serializer, null);
+        serializer.flush();
+
+        assertEquals(expected.toString(), new String(out.toByteArray(), "UTF-8"));
+    }
+
+    public void testLongTextCrossesBufferBoundaries() throws Exception {
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; i < 5000; i++) {
+            text.append("a\u00e9\ud834\udd1e");
+        }
+        char[] chars = text.toString().toCharArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLSerializer serializer = new XMLSerializer(out);
+        serializer.characters(chars, 0, chars.length);
+        serializer.close();
+
+        assertEquals(text.toString(), new String(out.toByteArray(), "UTF-8"));
+    }
+
+    public void testCharacterReferencesForUnencodableCharacters() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLSerializer serializer = new XMLSerializer(out, "US-ASCII");
+        AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("", "a", "a", "CDATA", "\u00e9");
+        serializer.startElement("", "e", "e", attributes);
+        char[] chars = "\u00e9\ud834\udd1e".toCharArray();
+        serializer.characters(chars, 0, chars.length);
+        serializer.endElement("", "e", "e");
+        serializer.flush();
+
+        assertEquals("<e a=\"&#233;\">&#233;&#119070;</e>", new String(out.toByteArray(), "US-ASCII"));
+    }
+
+    public void testSerializingXMLOutput() throws Exception {
+        String script =
+            "<j:jelly xmlns:j='jelly:core'><html xmlns:x='urn:x' lang='${lang}'>"
+            + "<x:body>${text}</x:body><j:forEach var='i' begin='1' end='3'>${i}</j:forEach></html></j:jelly>";
+        JellyContext context = new JellyContext();
+        context.setVariable("lang", "<en>");
+        context.setVariable("text", "a < b");
+
+        StringWriter expected = new StringWriter();
+        XMLOutput output = XMLOutput.createXMLOutput(expected, true);
+        context.runScript(new InputSource(new StringReader(script)), output);
+        output.flush();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        output = XMLOutput.createSerializingXMLOutput(actual, true);
+        context.runScript(new InputSource(new StringReader(script)), output);
+        output.flush();
+
+        assertEquals(expected.toString(), new String(actual.toByteArray(), "UTF-8"));
+        assertTrue(expected.toString().indexOf("a &lt; b") > 0);
+    }
+
+    private void writeEvents(ContentHandler handler, LexicalHandler lexicalHandler) throws Exception {
+        char[] text = TEXT.toCharArray();
+        AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("", "a", "a", "CDATA", TEXT);
+
+        handler.startDocument();
+        if (lexicalHandler != null) {
+            lexicalHandler.startDTD("html", "-//public", "system.dtd");
+            lexicalHandler.comment("hidden".toCharArray(), 0, 6);
+            lexicalHandler.endDTD();
+        }
+        handler.startPrefixMapping("p", "urn:p");
+        handler.startElement("", "root", "root", attributes);
+        handler.characters(text, 0, text.length);
+        handler.ignorableWhitespace("  ".toCharArray(), 0, 2);
+        handler.processingInstruction("target", "data");
+        handler.startElement("urn:p", "child", "p:child", new AttributesImpl());
+        handler.endElement("urn:p", "child", "p:child");
+        if (lexicalHandler != null) {
+            lexicalHandler.comment("comment".toCharArray(), 0, 7);
+            lexicalHandler.startCDATA();
+            handler.characters("cdata".toCharArray(), 0, 5);
+            lexicalHandler.endCDATA();
+        }
+        handler.endElement("", "root", "root");
+        handler.endDocument();
+    }
+}
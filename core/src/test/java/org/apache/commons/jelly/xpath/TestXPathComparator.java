@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.xpath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.jaxen.dom4j.Dom4jXPath;
+
+/**
+ * Tests that sorting with an XPathComparator gives the same order as
+ * Collections.sort()
+ *
+ * @version $Revision$
+ */
+public class TestXPathComparator extends TestCase {
+
+    private List items;
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestXPathComparator.class);
+    }
+
+    public TestXPathComparator(String testName) {
+        super(testName);
+    }
+
+    public void setUp() throws Exception {
+        Document document = DocumentHelper.createDocument();
+        Element root = document.addElement("catalog");
+        Random random = new Random(42);
+        for (int i = 0; i < 6000; i++) {
+            Element item = root.addElement("item");
+            item.addAttribute("id", String.valueOf(i));
+            item.addAttribute("price", String.valueOf(random.nextInt(100)));
+            item.addElement("name").setText("name" + random.nextInt(500));
+        }
+        items = root.elements();
+    }
+
+    public void testStringKeys() throws Exception {
+        assertSameOrder(new XPathComparator(new Dom4jXPath("name"), false));
+        assertSameOrder(new XPathComparator(new Dom4jXPath("name"), true));
+    }
+
+    public void testNumericKeys() throws Exception {
+        assertSameOrder(new XPathComparator(new Dom4jXPath("number(@price)"), false));
+        assertSameOrder(new XPathComparator(new Dom4jXPath("number(@price)"), true));
+    }
+
+    public void testParallel() throws Exception {
+        XPathComparator comparator = new XPathComparator(new Dom4jXPath("@price"), true);
+        comparator.setParallel(true);
+        assertSameOrder(comparator);
+    }
+
+    private void assertSameOrder(XPathComparator comparator) {
+        List expected = new ArrayList(items);
+        Collections.sort(expected, comparator);
+        List actual = new ArrayList(items);
+        comparator.sort(actual);
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame("node " + i, expected.get(i), actual.get(i));
+        }
+    }
+}
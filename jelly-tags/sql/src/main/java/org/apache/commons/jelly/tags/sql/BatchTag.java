@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.TagSupport;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.tags.Resources;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Tag handler for &lt;batch&gt; which collects the statements of the
+ * nested &lt;update&gt; tags into JDBC batches rather than executing them
+ * one at a time.</p>
+ *
+ * <p>Consecutive updates with the same SQL are added to the batch of a
+ * single statement, which is executed when <code>batchSize</code> updates
+ * have been added, when an update with different SQL is added and when
+ * the body completes, so the updates are always executed in order. If the
+ * batch is inside a &lt;transaction&gt; it uses the connection of the
+ * transaction and all its updates are executed before the transaction
+ * commits.</p>
+ *
+ * <p>Drivers which do not support batch updates execute each update as it
+ * is added, though the update counts are still grouped into batches.</p>
+ *
+ * <p>If <code>var</code> is specified it is set to a List of the
+ * <code>int[]</code> update counts of each executed batch.</p>
+ *
+ * @version $Revision$
+ */
+public class BatchTag extends TagSupport {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(BatchTag.class);
+
+    /** The default maximum number of updates in a batch */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private Object rawDataSource;
+    private boolean dataSourceSpecified;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private String var;
+
+    /*
+     * Instance variables that are not for attributes
+     */
+    private Connection conn;
+    private boolean isPartOfTransaction;
+    private boolean supportsBatchUpdates;
+
+    /** The statement whose batch is being built */
+    private Statement statement;
+
+    /** The SQL of the current PreparedStatement or null for a plain Statement */
+    private String statementSql;
+
+    /** The number of updates added to the current batch */
+    private int batchCount;
+
+    /** The counts of the updates in the current batch when batches are not supported */
+    private int[] pendingCounts;
+
+    /** The update counts of each executed batch */
+    private List updateCounts;
+
+    public BatchTag() {
+    }
+
+    // Tag interface
+    //-------------------------------------------------------------------------
+    public void doTag(XMLOutput output) throws JellyTagException {
+        if (batchSize < 1) {
+            throw new JellyTagException(Resources.getMessage("PARAM_BAD_VALUE"));
+        }
+        updateCounts = new ArrayList();
+        try {
+            conn = getConnection();
+            supportsBatchUpdates = conn.getMetaData().supportsBatchUpdates();
+            if (!supportsBatchUpdates) {
+                log.debug("The driver does not support batch updates, executing updates individually");
+                pendingCounts = new int[batchSize];
+            }
+            invokeBody(output);
+            executeBatch();
+            if (var != null) {
+                context.setVariable(var, updateCounts);
+            }
+        }
+        catch (SQLException e) {
+            throw new JellyTagException(e.getMessage(), e);
+        }
+        finally {
+            closeStatement();
+            if (conn != null && !isPartOfTransaction) {
+                try {
+                    conn.close();
+                }
+                catch (SQLException e) {
+                    log.error("Caught exception while closing connection: " + e, e);
+                }
+            }
+            conn = null;
+        }
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * Sets the SQL DataSource. DataSource can be
+     * a String or a DataSource object.
+     */
+    public void setDataSource(Object dataSource) {
+        this.rawDataSource = dataSource;
+        this.dataSourceSpecified = true;
+    }
+
+    /**
+     * Sets the maximum number of updates to add to a batch before it
+     * is executed, which defaults to {@link #DEFAULT_BATCH_SIZE}.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the name of the variable to hold the update counts of each
+     * executed batch.
+     */
+    public void setVar(String var) {
+        this.var = var;
+    }
+
+    /**
+     * @return the update counts of each batch executed so far
+     */
+    public List getUpdateCounts() {
+        return updateCounts;
+    }
+
+    /**
+     * @return the total number of rows updated by the batches executed so
+     *  far, where the driver reported them
+     */
+    public int getUpdateCount() {
+        int answer = 0;
+        if (updateCounts != null) {
+            for (int i = 0, size = updateCounts.size(); i < size; i++) {
+                int[] counts = (int[]) updateCounts.get(i);
+                for (int j = 0; j < counts.length; j++) {
+                    if (counts[j] > 0) {
+                        answer += counts[j];
+                    }
+                }
+            }
+        }
+        return answer;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Called by nested update tags to add their statement to the batch.
+     *
+     * @param sql the SQL of the update
+     * @param update the tag whose parameters are to be used
+     */
+    void addUpdate(String sql, SqlTagSupport update) throws SQLException {
+        String key = update.hasParameters() ? sql : null;
+        if (statement != null && !equals(key, statementSql)) {
+            executeBatch();
+            closeStatement();
+        }
+        if (statement == null) {
+            statement = (key != null) ? conn.prepareStatement(sql) : conn.createStatement();
+            statementSql = key;
+        }
+        if (key != null) {
+            PreparedStatement ps = (PreparedStatement) statement;
+            update.setParameters(ps);
+            if (supportsBatchUpdates) {
+                ps.addBatch();
+            }
+            else {
+                pendingCounts[batchCount] = ps.executeUpdate();
+            }
+        }
+        else if (supportsBatchUpdates) {
+            statement.addBatch(sql);
+        }
+        else {
+            pendingCounts[batchCount] = statement.executeUpdate(sql);
+        }
+        if (++batchCount >= batchSize) {
+            executeBatch();
+        }
+    }
+
+    /**
+     * Executes the current batch if it contains any updates
+     */
+    protected void executeBatch() throws SQLException {
+        if (batchCount > 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Executing a batch of " + batchCount + " updates: "
+                    + (statementSql != null ? statementSql : "(statements)"));
+            }
+            if (supportsBatchUpdates) {
+                updateCounts.add(statement.executeBatch());
+            }
+            else {
+                int[] counts = new int[batchCount];
+                System.arraycopy(pendingCounts, 0, counts, 0, batchCount);
+                updateCounts.add(counts);
+            }
+            batchCount = 0;
+        }
+    }
+
+    protected void closeStatement() {
+        if (statement != null) {
+            try {
+                statement.close();
+            }
+            catch (SQLException e) {
+                log.error("Caught exception while closing statement: " + e, e);
+            }
+            statement = null;
+            statementSql = null;
+            batchCount = 0;
+        }
+    }
+
+    protected Connection getConnection() throws JellyTagException {
+        isPartOfTransaction = false;
+        TransactionTag parent =
+            (TransactionTag) findAncestorWithClass(TransactionTag.class);
+        if (parent != null) {
+            if (dataSourceSpecified) {
+                throw new JellyTagException(Resources.getMessage("ERROR_NESTED_DATASOURCE"));
+            }
+            isPartOfTransaction = true;
+            return parent.getSharedConnection();
+        }
+        if ((rawDataSource == null) && dataSourceSpecified) {
+            throw new JellyTagException(Resources.getMessage("SQL_DATASOURCE_NULL"));
+        }
+        DataSource dataSource = DataSourceUtil.getDataSource(rawDataSource, context);
+        try {
+            return dataSource.getConnection();
+        }
+        catch (Exception ex) {
+            throw new JellyTagException(
+                Resources.getMessage("DATASOURCE_INVALID", ex.getMessage()));
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.TagSupport;
+import org.apache.commons.jelly.XMLOutput;
+
+/**
+ * <p>Closes the pooled DataSources created by the setDataSource tag.
+ * If a <i>dataSource</i> is given only that pool is closed, otherwise
+ * all of them are.</p>
+ *
+ * @version $Revision$
+ */
+public class CloseDataSourceTag extends TagSupport {
+
+    private Object dataSource;
+
+    public CloseDataSourceTag() {
+    }
+
+    /**
+     * Sets the pooled DataSource to close
+     */
+    public void setDataSource(Object dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    // Tag interface
+    //-------------------------------------------------------------------------
+    public void doTag(XMLOutput output) throws JellyTagException {
+        if (dataSource == null) {
+            SetDataSourceTag.closeAll();
+        }
+        else {
+            DataSource ds = DataSourceUtil.getDataSource(dataSource, context);
+            if (!SetDataSourceTag.closeDataSource(ds)) {
+                throw new JellyTagException("Not a pooled DataSource created by setDataSource: " + dataSource);
+            }
+        }
+    }
+}
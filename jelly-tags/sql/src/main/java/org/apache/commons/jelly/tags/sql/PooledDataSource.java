@@ -0,0 +1,672 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>A <code>DataSource</code> which pools the connections created by the
+ * <code>DriverManager</code>, so that scripts which run many small queries
+ * do not pay for a new connection each time.</p>
+ *
+ * <p>The number of connections is bounded by <code>maxActive</code>; when
+ * they are all in use <code>getConnection()</code> waits up to
+ * <code>maxWait</code> milliseconds for one to be returned. Up to
+ * <code>maxIdle</code> returned connections are kept open. If a
+ * <code>validationQuery</code> is set it is run before an idle connection is
+ * handed out, and connections for which it fails are discarded.</p>
+ *
+ * <p>Each pooled connection caches up to <code>statementCacheSize</code>
+ * PreparedStatements by their SQL, so that a statement closed by one tag is
+ * reused by the next tag which prepares the same SQL. The fetch size,
+ * fetch direction, maximum rows and query timeout set on a statement are
+ * restored when it is returned to the cache.</p>
+ *
+ * @version $Revision$
+ */
+public class PooledDataSource extends DataSourceWrapper {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(PooledDataSource.class);
+
+    private int maxActive = 8;
+    private int maxIdle = 8;
+    private long maxWait = 30000;
+    private String validationQuery;
+    private int statementCacheSize = 20;
+
+    /** The pooled connections which are not in use, most recently used last */
+    private final List idle = new ArrayList();
+
+    /** The number of physical connections which are open, in use or idle */
+    private int openCount;
+    private boolean closed;
+
+    private long createdCount;
+    private long borrowedCount;
+    private long waitCount;
+    private long invalidCount;
+    private long statementHitCount;
+    private long statementMissCount;
+
+    public PooledDataSource() {
+    }
+
+    public String toString() {
+        return super.toString() + "[active=" + getActiveCount() + ";idle=" + getIdleCount()
+            + ";created=" + getCreatedCount() + ";borrowed=" + getBorrowedCount()
+            + ";statementHits=" + getStatementHitCount() + ";statementMisses="
+            + getStatementMissCount() + "]";
+    }
+
+    // DataSource interface
+    //-------------------------------------------------------------------------
+
+    /**
+     * Returns a pooled connection, which is returned to the pool when it is
+     * closed.
+     */
+    public Connection getConnection() throws SQLException {
+        PooledConnection pooled = borrowConnection();
+        Connection proxy = (Connection) Proxy.newProxyInstance(
+            Connection.class.getClassLoader(), new Class[] {Connection.class}, pooled);
+        pooled.open(proxy);
+        return proxy;
+    }
+
+    /**
+     * Closes all the idle connections. Connections in use are closed when
+     * they are returned and no more connections can be borrowed.
+     */
+    public void close() {
+        List connections;
+        synchronized (this) {
+            closed = true;
+            connections = new ArrayList(idle);
+            idle.clear();
+            openCount -= connections.size();
+            notifyAll();
+        }
+        for (Iterator iter = connections.iterator(); iter.hasNext(); ) {
+            ((PooledConnection) iter.next()).closePhysical();
+        }
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    /**
+     * Sets the maximum number of connections which may be open at once
+     */
+    public void setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * Sets the maximum number of unused connections which are kept open
+     */
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Sets the number of milliseconds to wait for a connection when
+     * <code>maxActive</code> connections are in use, or a negative number
+     * to wait for ever
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    /**
+     * Sets the query run to check an idle connection still works before it
+     * is handed out, or null to only check that it has not been closed
+     */
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Sets the number of PreparedStatements cached by each connection, or
+     * zero to disable statement caching
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * @return the number of connections currently in use
+     */
+    public synchronized int getActiveCount() {
+        return openCount - idle.size();
+    }
+
+    /**
+     * @return the number of open connections which are not in use
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of physical connections which have been created
+     */
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * @return the number of times a connection has been handed out
+     */
+    public synchronized long getBorrowedCount() {
+        return borrowedCount;
+    }
+
+    /**
+     * @return the number of times a caller had to wait for a connection
+     */
+    public synchronized long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * @return the number of idle connections which failed validation
+     */
+    public synchronized long getInvalidCount() {
+        return invalidCount;
+    }
+
+    /**
+     * @return the number of PreparedStatements which were found in a cache
+     */
+    public synchronized long getStatementHitCount() {
+        return statementHitCount;
+    }
+
+    /**
+     * @return the number of PreparedStatements which had to be prepared
+     */
+    public synchronized long getStatementMissCount() {
+        return statementMissCount;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return a valid idle connection or a new one, waiting if the pool is
+     *  exhausted. The connection must be handed out via
+     *  {@link PooledConnection#open(Connection)}.
+     */
+    protected PooledConnection borrowConnection() throws SQLException {
+        long deadline = maxWait < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + maxWait;
+        boolean waited = false;
+        while (true) {
+            PooledConnection pooled = null;
+            synchronized (this) {
+                while (true) {
+                    if (closed) {
+                        throw new SQLException("The connection pool has been closed");
+                    }
+                    if (!idle.isEmpty()) {
+                        pooled = (PooledConnection) idle.remove(idle.size() - 1);
+                        break;
+                    }
+                    if (openCount < maxActive) {
+                        openCount++;
+                        break;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SQLException(
+                            "Timed out waiting for a connection: all " + maxActive + " are in use");
+                    }
+                    if (!waited) {
+                        waited = true;
+                        waitCount++;
+                    }
+                    try {
+                        wait(remaining);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection");
+                    }
+                }
+            }
+
+            if (pooled == null) {
+                Connection physical;
+                try {
+                    physical = super.getConnection();
+                }
+                catch (SQLException e) {
+                    releaseSlot();
+                    throw e;
+                }
+                catch (RuntimeException e) {
+                    releaseSlot();
+                    throw e;
+                }
+                pooled = new PooledConnection(physical);
+                synchronized (this) {
+                    createdCount++;
+                    borrowedCount++;
+                }
+                return pooled;
+            }
+            if (isValid(pooled)) {
+                synchronized (this) {
+                    borrowedCount++;
+                }
+                return pooled;
+            }
+            synchronized (this) {
+                invalidCount++;
+            }
+            pooled.closePhysical();
+            releaseSlot();
+        }
+    }
+
+    /**
+     * Returns the given connection to the pool, closing it if there are
+     * already enough idle connections
+     */
+    protected void returnConnection(PooledConnection pooled) {
+        boolean keep;
+        synchronized (this) {
+            keep = !closed && idle.size() < maxIdle;
+            if (keep) {
+                idle.add(pooled);
+            }
+            else {
+                openCount--;
+            }
+            notifyAll();
+        }
+        if (!keep) {
+            pooled.closePhysical();
+        }
+    }
+
+    /**
+     * @return whether the given idle connection still works
+     */
+    protected boolean isValid(PooledConnection pooled) {
+        try {
+            if (pooled.physical.isClosed()) {
+                return false;
+            }
+            if (validationQuery != null) {
+                Statement statement = pooled.physical.createStatement();
+                try {
+                    statement.executeQuery(validationQuery).close();
+                }
+                finally {
+                    statement.close();
+                }
+            }
+            return true;
+        }
+        catch (SQLException e) {
+            log.warn("Discarding connection which failed validation: " + e);
+            return false;
+        }
+    }
+
+    private synchronized void releaseSlot() {
+        openCount--;
+        notifyAll();
+    }
+
+    private synchronized void countStatement(boolean hit) {
+        if (hit) {
+            statementHitCount++;
+        }
+        else {
+            statementMissCount++;
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * A physical connection in the pool, which handles the calls made to the
+     * Connection proxies handed out for it
+     */
+    protected class PooledConnection implements InvocationHandler {
+        final Connection physical;
+        private final boolean defaultAutoCommit;
+        private final int defaultIsolation;
+        private final boolean defaultReadOnly;
+
+        /** The idle PreparedStatements keyed by SQL, least recently used first */
+        private final Map statements;
+
+        /** The statement proxies in use */
+        private final List openStatements = new ArrayList();
+
+        /** The proxy which is currently handed out */
+        private Connection proxy;
+        private boolean inUse;
+        private volatile boolean dirty;
+
+        PooledConnection(Connection physical) throws SQLException {
+            this.physical = physical;
+            this.defaultAutoCommit = physical.getAutoCommit();
+            this.defaultIsolation = physical.getTransactionIsolation();
+            this.defaultReadOnly = physical.isReadOnly();
+            this.statements = new LinkedHashMap(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry eldest) {
+                    if (size() > statementCacheSize) {
+                        closeQuietly((Statement) eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Hands this connection out via the given proxy
+         */
+        synchronized void open(Connection proxy) {
+            this.proxy = proxy;
+            this.inUse = true;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            synchronized (this) {
+                if ("close".equals(name)) {
+                    if (this.proxy == proxy && inUse) {
+                        release();
+                    }
+                    return null;
+                }
+                if ("isClosed".equals(name)) {
+                    return Boolean.valueOf(this.proxy != proxy || !inUse);
+                }
+                if ("equals".equals(name)) {
+                    return Boolean.valueOf(proxy == args[0]);
+                }
+                if ("hashCode".equals(name)) {
+                    return new Integer(System.identityHashCode(proxy));
+                }
+                if ("toString".equals(name)) {
+                    return "Pooled" + physical;
+                }
+                if (this.proxy != proxy || !inUse) {
+                    throw new SQLException("Connection is closed");
+                }
+            }
+            if (name.startsWith("set") && (name.equals("setAutoCommit")
+                || name.equals("setTransactionIsolation") || name.equals("setReadOnly"))) {
+                dirty = true;
+            }
+            if ("prepareStatement".equals(name) && args.length == 1 && statementCacheSize > 0) {
+                return prepareStatement((Connection) proxy, (String) args[0]);
+            }
+            return PooledDataSource.invoke(physical, method, args);
+        }
+
+        /**
+         * @return a proxy for a cached PreparedStatement for the given SQL,
+         *  preparing a new one if there is no idle one
+         */
+        private PreparedStatement prepareStatement(Connection connection, String sql) throws SQLException {
+            PreparedStatement statement;
+            synchronized (this) {
+                statement = (PreparedStatement) statements.remove(sql);
+            }
+            countStatement(statement != null);
+            if (statement == null) {
+                statement = physical.prepareStatement(sql);
+            }
+            CachedStatement handler = new CachedStatement(this, connection, sql, statement);
+            PreparedStatement answer = (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(), new Class[] {PreparedStatement.class}, handler);
+            synchronized (this) {
+                openStatements.add(handler);
+            }
+            return answer;
+        }
+
+        /**
+         * Returns the given statement to the cache once it is closed
+         */
+        synchronized void returnStatement(CachedStatement handler) {
+            openStatements.remove(handler);
+            if (!inUse || statements.containsKey(handler.sql)) {
+                closeQuietly(handler.statement);
+                return;
+            }
+            try {
+                handler.statement.clearParameters();
+                handler.statement.clearWarnings();
+                handler.restoreSettings();
+                statements.put(handler.sql, handler.statement);
+            }
+            catch (SQLException e) {
+                closeQuietly(handler.statement);
+            }
+        }
+
+        /**
+         * Closes the statements left open, resets the connection and returns
+         * it to the pool
+         */
+        private void release() {
+            List leftOpen = new ArrayList(openStatements);
+            for (Iterator iter = leftOpen.iterator(); iter.hasNext(); ) {
+                ((CachedStatement) iter.next()).close();
+            }
+            inUse = false;
+            proxy = null;
+            try {
+                if (dirty) {
+                    if (!physical.getAutoCommit()) {
+                        physical.rollback();
+                    }
+                    physical.setAutoCommit(defaultAutoCommit);
+                    physical.setTransactionIsolation(defaultIsolation);
+                    physical.setReadOnly(defaultReadOnly);
+                    dirty = false;
+                }
+                physical.clearWarnings();
+            }
+            catch (SQLException e) {
+                log.warn("Discarding connection which could not be reset: " + e);
+                closePhysical();
+                releaseSlot();
+                return;
+            }
+            returnConnection(this);
+        }
+
+        /**
+         * Closes the cached statements and the physical connection
+         */
+        synchronized void closePhysical() {
+            for (Iterator iter = statements.values().iterator(); iter.hasNext(); ) {
+                closeQuietly((Statement) iter.next());
+            }
+            statements.clear();
+            try {
+                physical.close();
+            }
+            catch (SQLException e) {
+                log.debug("Caught exception while closing connection: " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Handles the calls made to a PreparedStatement proxy, returning the
+     * statement to its connection's cache when it is closed
+     */
+    static class CachedStatement implements InvocationHandler {
+        final PooledConnection owner;
+        final Connection connection;
+        final String sql;
+        final PreparedStatement statement;
+        private boolean closed;
+
+        /** The settings as they were before they were first changed, or null if unchanged */
+        private Integer fetchSize;
+        private Integer fetchDirection;
+        private Integer maxRows;
+        private Integer queryTimeout;
+
+        CachedStatement(PooledConnection owner, Connection connection, String sql, PreparedStatement statement) {
+            this.owner = owner;
+            this.connection = connection;
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                close();
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return Boolean.valueOf(closed);
+            }
+            if ("getConnection".equals(name)) {
+                return connection;
+            }
+            if ("equals".equals(name)) {
+                return Boolean.valueOf(proxy == args[0]);
+            }
+            if ("hashCode".equals(name)) {
+                return new Integer(System.identityHashCode(proxy));
+            }
+            if ("toString".equals(name)) {
+                return "Cached" + statement;
+            }
+            if (closed) {
+                throw new SQLException("Statement is closed");
+            }
+            if (name.startsWith("set")) {
+                saveSetting(name);
+            }
+            return PooledDataSource.invoke(statement, method, args);
+        }
+
+        /**
+         * Keeps the value of the setting the given setter changes, if it is
+         * one which is restored and has not been saved yet
+         */
+        private void saveSetting(String setter) throws SQLException {
+            if ("setFetchSize".equals(setter) && fetchSize == null) {
+                fetchSize = new Integer(statement.getFetchSize());
+            }
+            else if ("setFetchDirection".equals(setter) && fetchDirection == null) {
+                fetchDirection = new Integer(statement.getFetchDirection());
+            }
+            else if ("setMaxRows".equals(setter) && maxRows == null) {
+                maxRows = new Integer(statement.getMaxRows());
+            }
+            else if ("setQueryTimeout".equals(setter) && queryTimeout == null) {
+                queryTimeout = new Integer(statement.getQueryTimeout());
+            }
+        }
+
+        /**
+         * Restores the settings which were changed while the statement was
+         * used, so that they do not carry over to the next user
+         */
+        void restoreSettings() throws SQLException {
+            if (fetchSize != null) {
+                statement.setFetchSize(fetchSize.intValue());
+            }
+            if (fetchDirection != null) {
+                statement.setFetchDirection(fetchDirection.intValue());
+            }
+            if (maxRows != null) {
+                statement.setMaxRows(maxRows.intValue());
+            }
+            if (queryTimeout != null) {
+                statement.setQueryTimeout(queryTimeout.intValue());
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            owner.returnStatement(this);
+        }
+    }
+
+    static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        }
+        catch (SQLException e) {
+            log.debug("Caught exception while closing statement: " + e, e);
+        }
+    }
+}
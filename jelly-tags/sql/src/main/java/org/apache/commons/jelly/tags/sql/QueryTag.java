@@ -52,6 +52,8 @@ public class QueryTag extends SqlTagSupport {
     protected int maxRows = -1;
     protected boolean maxRowsSpecified;
     protected int startRow;
+    protected int fetchSize;
+    protected boolean streaming;
 
     /*
      * Instance variables that are not for attributes
@@ -84,6 +86,28 @@ public class QueryTag extends SqlTagSupport {
         this.maxRowsSpecified = true;
     }
 
+    /**
+     * Gives the JDBC driver a hint as to the number of rows to fetch from
+     * the database at a time. Zero, the default, leaves it to the driver.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * If true the rows are not read up front. Instead the variable named
+     * by <code>var</code> is set to a {@link ResultIterator} reading the
+     * open ResultSet, the body is invoked to process the rows, such as by
+     * a &lt;j:forEach&gt;, and the ResultSet is closed afterwards. The
+     * statement must then be given by the <code>sql</code> attribute and
+     * cannot use &lt;sql:param&gt; parameters.
+     * Note that some drivers only stream rows when a fetch size is given
+     * or the query is part of a transaction.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     //*********************************************************************
     // Tag logic
 
@@ -141,6 +165,9 @@ public class QueryTag extends SqlTagSupport {
             if (sql != null) {
                 sqlStatement = sql;
             }
+            else if (streaming) {
+                throw new JellyTagException("A streaming query must use the sql attribute, its body processes the rows");
+            }
             else {
                 sqlStatement = getBodyText();
             }
@@ -169,15 +196,32 @@ public class QueryTag extends SqlTagSupport {
                 PreparedStatement ps = conn.prepareStatement(sqlStatement);
                 statement = ps;
                 setParameters(ps);
+                if (fetchSize > 0) {
+                    ps.setFetchSize(fetchSize);
+                }
                 rs = ps.executeQuery();
             }
             else {
                 statement = conn.createStatement();
+                if (fetchSize > 0) {
+                    statement.setFetchSize(fetchSize);
+                }
                 rs = statement.executeQuery(sqlStatement);
             }
 
-            result = new ResultImpl(rs, startRow, maxRows);
-            context.setVariable(var, result);
+            if (streaming) {
+                context.setVariable(var, new ResultIterator(rs, startRow, maxRows));
+                try {
+                    invokeBody(output);
+                }
+                finally {
+                    context.removeVariable(var);
+                }
+            }
+            else {
+                result = new ResultImpl(rs, startRow, maxRows);
+                context.setVariable(var, result);
+            }
 
             // always close the result set first since it may be closed by
             // JDBC 3 when closing statements
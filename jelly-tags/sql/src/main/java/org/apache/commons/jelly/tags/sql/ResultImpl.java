@@ -35,10 +35,12 @@ import javax.servlet.jsp.jstl.sql.Result;
  */
 
 public class ResultImpl implements Result {
-    private List rowMap;
     private List rowByIndex;
     private String[] columnNames;
+    private SortedMap columnIndexes;
     private boolean isLimited;
+    /** The rows returned by getRows(), created when first needed */
+    private volatile SortedMap[] rows;
 
     /**
      * This constructor reads the ResultSet and saves a cached
@@ -53,7 +55,6 @@ public class ResultImpl implements Result {
     public ResultImpl(ResultSet rs, int startRow, int maxRows)
         throws SQLException {
 
-        rowMap = new ArrayList();
         rowByIndex = new ArrayList();
 
         ResultSetMetaData rsmd = rs.getMetaData();
@@ -64,6 +65,7 @@ public class ResultImpl implements Result {
         for (int i = 1; i <= noOfColumns; i++) {
             columnNames[i-1] = rsmd.getColumnName(i);
         }
+        columnIndexes = ResultRow.createColumnIndexes(columnNames);
 
         // Throw away all rows upto startRow
         for (int i = 0; i < startRow; i++) {
@@ -78,8 +80,6 @@ public class ResultImpl implements Result {
                 break;
             }
             Object[] columns = new Object[noOfColumns];
-            SortedMap columnMap =
-                new TreeMap(String.CASE_INSENSITIVE_ORDER);
 
             // JDBC uses 1 as the lowest index!
             for (int i = 1; i <= noOfColumns; i++) {
@@ -88,9 +88,7 @@ public class ResultImpl implements Result {
                     value = null;
                 }
                 columns[i-1] = value;
-                columnMap.put(columnNames[i-1], value);
             }
-            rowMap.add(columnMap);
             rowByIndex.add(columns);
             processedRows++;
         }
@@ -104,7 +102,6 @@ public class ResultImpl implements Result {
      */
     public ResultImpl(List listOfMaps) {
 
-        rowMap = new ArrayList();
         rowByIndex = new ArrayList();
         isLimited = false;
 
@@ -122,22 +119,17 @@ public class ResultImpl implements Result {
         for (Iterator iter = keySet.iterator(); iter.hasNext(); i++ ) {
             columnNames[i] = (String) iter.next();
         }
+        columnIndexes = ResultRow.createColumnIndexes(columnNames);
 
         // Now add each row to the result set
         for (Iterator iter = listOfMaps.iterator(); iter.hasNext(); ) {
             Map row = (Map) iter.next();
 
             Object[] columns = new Object[noOfColumns];
-            SortedMap columnMap =
-                new TreeMap(String.CASE_INSENSITIVE_ORDER);
 
             for (i = 0; i < noOfColumns; i++) {
-                String columnName = columnNames[i];
-                Object value = row.get(columnName);
-                columns[i] = value;
-                columnMap.put(columnName, value);
+                columns[i] = row.get(columnNames[i]);
             }
-            rowMap.add(columnMap);
             rowByIndex.add(columns);
         }
     }
@@ -147,17 +139,26 @@ public class ResultImpl implements Result {
      * object key is the ColumnName and the value is the ColumnValue.
      * SortedMap was created using the CASE_INSENSITIVE_ORDER
      * Comparator so the key is the case insensitive representation
-     * of the ColumnName.
+     * of the ColumnName. The maps are read only views of the cached
+     * rows which share a single map of column name to column index,
+     * and the same array is returned by each call.
      *
      * @return an array of Map, or null if there are no rows
      */
     public SortedMap[] getRows() {
-        if (rowMap == null) {
+        if (rowByIndex == null) {
             return null;
         }
 
-        //should just be able to return SortedMap[] object
-        return (SortedMap []) rowMap.toArray(new SortedMap[0]);
+        SortedMap[] answer = rows;
+        if (answer == null) {
+            answer = new SortedMap[rowByIndex.size()];
+            for (int i = 0; i < answer.length; i++) {
+                answer[i] = new ResultRow(columnIndexes, (Object[]) rowByIndex.get(i));
+            }
+            rows = answer;
+        }
+        return answer;
     }
 
 
@@ -195,10 +196,10 @@ public class ResultImpl implements Result {
      *    not be initialized due to SQLExceptions
      */
     public int getRowCount() {
-        if (rowMap == null) {
+        if (rowByIndex == null) {
             return -1;
         }
-        return rowMap.size();
+        return rowByIndex.size();
     }
 
     /**
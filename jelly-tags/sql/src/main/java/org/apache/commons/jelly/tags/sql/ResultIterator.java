@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+
+/**
+ * <p>An Iterator over the rows of an open <tt>ResultSet</tt> which reads
+ * each row only when it is asked for, so that a query of any size can be
+ * processed in constant memory. Each row is returned as a
+ * {@link ResultRow} so can be used just like the rows of a
+ * <tt>Result</tt>.</p>
+ *
+ * <p>The iterator is only valid while its <tt>ResultSet</tt> is open,
+ * which is for the body of the streaming &lt;sql:query&gt; that created
+ * it.</p>
+ *
+ * @version $Revision$
+ */
+public class ResultIterator implements Iterator {
+
+    private final ResultSet resultSet;
+    private final String[] columnNames;
+    private final SortedMap columnIndexes;
+    private final int maxRows;
+
+    /** The next row, read ahead by hasNext() */
+    private ResultRow next;
+    private boolean exhausted;
+    private boolean isLimited;
+    private int rowCount;
+
+    /**
+     * @param rs an open <tt>ResultSet</tt>, positioned before the first row
+     * @param startRow the index of the first row to return
+     * @param maxRows the maximum number of rows to return, or -1 for no limit
+     * @throws SQLException if a database error occurs
+     */
+    public ResultIterator(ResultSet rs, int startRow, int maxRows) throws SQLException {
+        this.resultSet = rs;
+        this.maxRows = maxRows;
+
+        ResultSetMetaData rsmd = rs.getMetaData();
+        int noOfColumns = rsmd.getColumnCount();
+        columnNames = new String[noOfColumns];
+        for (int i = 1; i <= noOfColumns; i++) {
+            columnNames[i-1] = rsmd.getColumnName(i);
+        }
+        columnIndexes = ResultRow.createColumnIndexes(columnNames);
+
+        for (int i = 0; i < startRow; i++) {
+            if (!rs.next()) {
+                exhausted = true;
+                break;
+            }
+        }
+    }
+
+    // Iterator interface
+    //-------------------------------------------------------------------------
+    public boolean hasNext() {
+        if (next == null && !exhausted) {
+            try {
+                next = readRow();
+            }
+            catch (SQLException e) {
+                throw new IllegalStateException("Could not read the next row: " + e.getMessage(), e);
+            }
+        }
+        return next != null;
+    }
+
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ResultRow answer = next;
+        next = null;
+        return answer;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the names of the columns in column order
+     */
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * @return the number of rows read so far
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return true if rows were left unread because of the maximum row
+     *  limit. This is only known once the iteration is complete.
+     */
+    public boolean isLimitedByMaxRows() {
+        return isLimited;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the next row or null if there are no more rows
+     */
+    protected ResultRow readRow() throws SQLException {
+        if (!resultSet.next()) {
+            exhausted = true;
+            return null;
+        }
+        if (maxRows != -1 && rowCount == maxRows) {
+            isLimited = true;
+            exhausted = true;
+            return null;
+        }
+        Object[] values = new Object[columnNames.length];
+        // JDBC uses 1 as the lowest index!
+        for (int i = 1; i <= values.length; i++) {
+            Object value = resultSet.getObject(i);
+            if (resultSet.wasNull()) {
+                value = null;
+            }
+            values[i-1] = value;
+        }
+        rowCount++;
+        return new ResultRow(columnIndexes, values);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <p>A read only, case insensitive view of a single row of a query result,
+ * keyed by column name.</p>
+ *
+ * <p>All the rows of a result share one map from column name to column
+ * index, so each row only holds an array of its column values rather than
+ * a map of its own.</p>
+ *
+ * @version $Revision$
+ */
+public class ResultRow extends AbstractMap implements SortedMap {
+
+    /** The index of each column keyed by its case insensitive name */
+    private final SortedMap columnIndexes;
+
+    /** The column values in column order */
+    private final Object[] values;
+
+    /**
+     * Creates a map from each column name to its index, suitable for
+     * sharing between all the rows of a result. When names differ only in
+     * case the last column wins.
+     *
+     * @param columnNames the names of the columns in column order
+     * @return a case insensitive map of column name to Integer index
+     */
+    public static SortedMap createColumnIndexes(String[] columnNames) {
+        SortedMap answer = new TreeMap(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < columnNames.length; i++) {
+            answer.put(columnNames[i], new Integer(i));
+        }
+        return answer;
+    }
+
+    /**
+     * @param columnIndexes the shared map created by
+     *  {@link #createColumnIndexes(String[])}
+     * @param values the column values in column order
+     */
+    public ResultRow(SortedMap columnIndexes, Object[] values) {
+        this.columnIndexes = columnIndexes;
+        this.values = values;
+    }
+
+    /**
+     * @return the column values of this row in column order
+     */
+    public Object[] getValues() {
+        return values;
+    }
+
+    // Map interface
+    //-------------------------------------------------------------------------
+    public Object get(Object key) {
+        Integer index = (Integer) columnIndexes.get(key);
+        return index != null ? values[index.intValue()] : null;
+    }
+
+    public boolean containsKey(Object key) {
+        return columnIndexes.containsKey(key);
+    }
+
+    public int size() {
+        return columnIndexes.size();
+    }
+
+    public Set keySet() {
+        return Collections.unmodifiableSet(columnIndexes.keySet());
+    }
+
+    public Set entrySet() {
+        return new AbstractSet() {
+            public int size() {
+                return columnIndexes.size();
+            }
+
+            public Iterator iterator() {
+                final Iterator iter = columnIndexes.entrySet().iterator();
+                return new Iterator() {
+                    public boolean hasNext() {
+                        return iter.hasNext();
+                    }
+
+                    public Object next() {
+                        Map.Entry entry = (Map.Entry) iter.next();
+                        int index = ((Integer) entry.getValue()).intValue();
+                        return new Entry(entry.getKey(), values[index]);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    // SortedMap interface
+    //-------------------------------------------------------------------------
+    public Comparator comparator() {
+        return columnIndexes.comparator();
+    }
+
+    public Object firstKey() {
+        return columnIndexes.firstKey();
+    }
+
+    public Object lastKey() {
+        return columnIndexes.lastKey();
+    }
+
+    public SortedMap subMap(Object fromKey, Object toKey) {
+        return new ResultRow(columnIndexes.subMap(fromKey, toKey), values);
+    }
+
+    public SortedMap headMap(Object toKey) {
+        return new ResultRow(columnIndexes.headMap(toKey), values);
+    }
+
+    public SortedMap tailMap(Object fromKey) {
+        return new ResultRow(columnIndexes.tailMap(fromKey), values);
+    }
+
+    /**
+     * A read only entry of a row
+     */
+    private static class Entry implements Map.Entry {
+        private final Object key;
+        private final Object value;
+
+        Entry(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry that = (Map.Entry) o;
+            return (key == null ? that.getKey() == null : key.equals(that.getKey()))
+                && (value == null ? that.getValue() == null : value.equals(that.getValue()));
+        }
+
+        public int hashCode() {
+            return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+        }
+
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+}
@@ -17,6 +17,16 @@
 
 package org.apache.commons.jelly.tags.sql;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import javax.sql.DataSource;
 
 import org.apache.commons.jelly.JellyTagException;
@@ -48,6 +58,16 @@ public class SetDataSourceTag extends TagSupport {
     private String scope = "page";
     private String var;
 
+    protected boolean pooled;
+    protected int maxActive = 8;
+    protected int maxIdle = 8;
+    protected long maxWait = 30000;
+    protected String validationQuery;
+    protected int statementCacheSize = 20;
+
+    /** The pools created by this tag, keyed by a PoolKey of their settings */
+    private static final Map pools = new HashMap();
+
     //*********************************************************************
     // Constructor and initialization
 
@@ -91,6 +111,52 @@ public class SetDataSourceTag extends TagSupport {
         this.password = password;
     }
 
+    /**
+     * Sets whether connections are pooled. Pooled DataSources are shared by
+     * all the tags with the same settings, so that a script run many times
+     * reuses the same connections. They stay open until they are closed by
+     * {@link #closeAll()}, {@link #closeDataSource(DataSource)} or the
+     * closeDataSource tag.
+     */
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Sets the maximum number of pooled connections which may be open at once
+     */
+    public void setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    /**
+     * Sets the maximum number of unused pooled connections which are kept open
+     */
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Sets the number of milliseconds to wait for a pooled connection
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Sets the query used to check that an idle pooled connection still works
+     */
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * Sets the number of PreparedStatements cached by each pooled connection
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
     //*********************************************************************
     // Tag logic
 
@@ -105,22 +171,12 @@ public class SetDataSourceTag extends TagSupport {
                 throw new JellyTagException(Resources.getMessage("SQL_DATASOURCE_NULL"));
             }
 
-            DataSourceWrapper dsw = new DataSourceWrapper();
-            try {
-                // set driver class iff provided by the tag
-                if (driverClassName != null) {
-                    dsw.setDriverClassName(driverClassName);
-                }
+            if (pooled) {
+                ds = getPooledDataSource();
             }
-            catch (Exception e) {
-                log.error( "Could not load driver class: " + e, e );
-                throw new JellyTagException(
-                    Resources.getMessage("DRIVER_INVALID_CLASS", e.getMessage()));
+            else {
+                ds = createDataSource(new DataSourceWrapper());
             }
-            dsw.setJdbcURL(jdbcURL);
-            dsw.setUserName(userName);
-            dsw.setPassword(password);
-            ds = (DataSource) dsw;
         }
 
         if (var != null) {
@@ -130,4 +186,125 @@ public class SetDataSourceTag extends TagSupport {
             context.setVariable("org.apache.commons.jelly.sql.DataSource", ds);
         }
     }
+
+    /**
+     * Closes all the pooled DataSources created by this tag, so that the
+     * next tag with the same settings creates a new pool
+     */
+    public static void closeAll() {
+        List closed;
+        synchronized (pools) {
+            closed = new ArrayList(pools.values());
+            pools.clear();
+        }
+        for (Iterator iter = closed.iterator(); iter.hasNext(); ) {
+            ((PooledDataSource) iter.next()).close();
+        }
+    }
+
+    /**
+     * Closes the given DataSource if it is a pool created by this tag
+     *
+     * @return whether the DataSource was a pool created by this tag
+     */
+    public static boolean closeDataSource(DataSource dataSource) {
+        synchronized (pools) {
+            if (!pools.values().remove(dataSource)) {
+                return false;
+            }
+        }
+        ((PooledDataSource) dataSource).close();
+        return true;
+    }
+
+    /**
+     * @return the pool with the settings of this tag, which is created the
+     *  first time it is used
+     */
+    protected DataSource getPooledDataSource() throws JellyTagException {
+        PoolKey key = new PoolKey();
+        synchronized (pools) {
+            PooledDataSource pool = (PooledDataSource) pools.get(key);
+            if (pool == null) {
+                pool = new PooledDataSource();
+                pool.setMaxActive(maxActive);
+                pool.setMaxIdle(maxIdle);
+                pool.setMaxWait(maxWait);
+                pool.setValidationQuery(validationQuery);
+                pool.setStatementCacheSize(statementCacheSize);
+                createDataSource(pool);
+                pools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Configures the given DataSource with the driver, URL and user of this tag
+     */
+    protected DataSource createDataSource(DataSourceWrapper dsw) throws JellyTagException {
+        try {
+            // set driver class iff provided by the tag
+            if (driverClassName != null) {
+                dsw.setDriverClassName(driverClassName);
+            }
+        }
+        catch (Exception e) {
+            log.error( "Could not load driver class: " + e, e );
+            throw new JellyTagException(
+                Resources.getMessage("DRIVER_INVALID_CLASS", e.getMessage()));
+        }
+        dsw.setJdbcURL(jdbcURL);
+        dsw.setUserName(userName);
+        dsw.setPassword(password);
+        return dsw;
+    }
+
+    /**
+     * The settings of a pool, which hold a digest of the password rather
+     * than the password itself
+     */
+    private class PoolKey {
+        private final Object[] settings;
+        private final byte[] passwordDigest;
+
+        PoolKey() {
+            settings = new Object[] {
+                driverClassName, jdbcURL, userName, new Integer(maxActive), new Integer(maxIdle),
+                new Long(maxWait), validationQuery, new Integer(statementCacheSize)
+            };
+            passwordDigest = digest(password);
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof PoolKey)) {
+                return false;
+            }
+            PoolKey that = (PoolKey) object;
+            return Arrays.equals(settings, that.settings)
+                && Arrays.equals(passwordDigest, that.passwordDigest);
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(settings) ^ Arrays.hashCode(passwordDigest);
+        }
+    }
+
+    /**
+     * @return the SHA-256 digest of the given text, or null if it is null
+     */
+    private static byte[] digest(String text) {
+        if (text == null) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes("UTF-8"));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available: " + e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available: " + e);
+        }
+    }
 }
@@ -28,6 +28,8 @@ import org.apache.commons.jelly.tags.core.CoreTagLibrary;
 public class SqlTagLibrary extends CoreTagLibrary {
 
     public SqlTagLibrary() {
+        registerTag("batch", BatchTag.class);
+        registerTag("closeDataSource", CloseDataSourceTag.class);
         registerTag("driver", DriverTag.class);
         registerTag("param", ParamTag.class);
         registerTag("query", QueryTag.class);
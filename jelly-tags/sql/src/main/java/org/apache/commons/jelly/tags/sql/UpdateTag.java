@@ -66,8 +66,17 @@ public class UpdateTag extends SqlTagSupport {
      * <code>dataSource</code> attribute, provided by a parent action
      * element, or is retrieved from a JSP scope  attribute
      * named <code>javax.servlet.jsp.jstl.sql.dataSource</code>.
+     *
+     * <p>Inside a &lt;batch&gt; the statement is added to the batch
+     * instead, and the <code>var</code> attribute is ignored as the number
+     * of rows updated is not known until the batch is executed.
      */
     public void doTag(XMLOutput output) throws JellyTagException {
+        BatchTag batch = (BatchTag) findAncestorWithClass(BatchTag.class);
+        if (batch != null) {
+            addToBatch(batch);
+            return;
+        }
         try {
             conn = getConnection();
         }
@@ -136,4 +145,26 @@ public class UpdateTag extends SqlTagSupport {
             clearParameters();
         }
     }
+
+    /**
+     * Adds the statement to the batch of the given batch tag
+     */
+    protected void addToBatch(BatchTag batch) throws JellyTagException {
+        if (dataSourceSpecified) {
+            throw new JellyTagException(Resources.getMessage("ERROR_NESTED_DATASOURCE"));
+        }
+        String sqlStatement = (sql != null) ? sql : getBodyText();
+        if (sqlStatement == null || sqlStatement.trim().length() == 0) {
+            throw new JellyTagException(Resources.getMessage("SQL_NO_STATEMENT"));
+        }
+        try {
+            batch.addUpdate(sqlStatement, this);
+        }
+        catch (SQLException e) {
+            throw new JellyTagException(sqlStatement + ": " + e.getMessage(), e);
+        }
+        finally {
+            clearParameters();
+        }
+    }
 }
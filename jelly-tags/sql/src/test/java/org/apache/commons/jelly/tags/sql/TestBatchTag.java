@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.InputSource;
+
+/**
+ * Tests that &lt;sql:batch&gt; uses JDBC batches, in order, against a
+ * DataSource which records the JDBC calls made
+ *
+ * @version $Revision$
+ */
+public class TestBatchTag extends TestCase {
+
+    /** The JDBC calls made, in order */
+    private List calls;
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestBatchTag.class);
+    }
+
+    public TestBatchTag(String testName) {
+        super(testName);
+    }
+
+    public void setUp() {
+        calls = new ArrayList();
+    }
+
+    public void testUpdatesAreBatched() throws Exception {
+        JellyContext context = runScript(
+            "<sql:batch var='counts' dataSource='${ds}' batchSize='2'>"
+            + "<j:forEach var='i' begin='1' end='3'>"
+            + "<sql:update>insert into t values (?)<sql:param value='${i}'/></sql:update>"
+            + "</j:forEach>"
+            + "<sql:update sql='delete from u'/>"
+            + "<sql:update sql='delete from v'/>"
+            + "</sql:batch>");
+
+        assertEquals(
+            "prepareStatement:insert into t values (?), addBatch, addBatch, executeBatch, addBatch, executeBatch, close, "
+            + "createStatement, addBatch:delete from u, addBatch:delete from v, executeBatch, close, connection.close",
+            join(calls));
+
+        List counts = (List) context.getVariable("counts");
+        assertEquals(3, counts.size());
+        assertEquals(2, ((int[]) counts.get(0)).length);
+        assertEquals(1, ((int[]) counts.get(1)).length);
+        assertEquals(2, ((int[]) counts.get(2)).length);
+    }
+
+    public void testNothingIsExecutedOnFailure() throws Exception {
+        try {
+            runScript(
+                "<sql:batch dataSource='${ds}'>"
+                + "<sql:update>insert into t values (?)<sql:param value='1'/></sql:update>"
+                + "<sql:update sql=' '/>"
+                + "</sql:batch>");
+            fail("An empty statement should fail");
+        }
+        catch (JellyException e) {
+            // expected
+        }
+        assertEquals("prepareStatement:insert into t values (?), addBatch, close, connection.close", join(calls));
+    }
+
+    private JellyContext runScript(String body) throws Exception {
+        JellyContext context = new JellyContext();
+        context.setVariable("ds", new DataSourceWrapper() {
+            public Connection getConnection() {
+                return (Connection) createProxy(Connection.class, new Recorder("connection."));
+            }
+        });
+        String script = "<j:jelly xmlns:j='jelly:core' xmlns:sql='jelly:sql'>" + body + "</j:jelly>";
+        context.runScript(new InputSource(new StringReader(script)), XMLOutput.createXMLOutput(new StringWriter()));
+        return context;
+    }
+
+    private Object createProxy(Class type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { type }, handler);
+    }
+
+    private static String join(List list) {
+        StringBuffer buffer = new StringBuffer();
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+            buffer.append(list.get(i));
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Records the calls made to a connection or statement
+     */
+    private class Recorder implements InvocationHandler {
+        private final String prefix;
+        private int pending;
+
+        Recorder(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getMetaData")) {
+                return createProxy(DatabaseMetaData.class, this);
+            }
+            if (name.equals("supportsBatchUpdates")) {
+                return Boolean.TRUE;
+            }
+            if (name.equals("prepareStatement")) {
+                calls.add(name + ":" + args[0]);
+                return createProxy(PreparedStatement.class, new Recorder(""));
+            }
+            if (name.equals("createStatement")) {
+                calls.add(name);
+                return createProxy(Statement.class, new Recorder(""));
+            }
+            if (name.equals("addBatch")) {
+                pending++;
+                calls.add(args == null ? name : name + ":" + args[0]);
+            }
+            else if (name.equals("executeBatch")) {
+                calls.add(name);
+                int[] answer = new int[pending];
+                pending = 0;
+                return answer;
+            }
+            else if (name.equals("close")) {
+                calls.add(prefix + name);
+            }
+            return null;
+        }
+    }
+}
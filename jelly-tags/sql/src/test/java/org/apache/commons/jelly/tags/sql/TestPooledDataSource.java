@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+
+/**
+ * Tests the connection pool and statement cache of PooledDataSource
+ * against an in memory hsqldb database
+ *
+ * @version $Revision$
+ */
+public class TestPooledDataSource extends TestCase {
+
+    private PooledDataSource dataSource;
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestPooledDataSource.class);
+    }
+
+    public TestPooledDataSource(String testName) {
+        super(testName);
+    }
+
+    public void setUp() throws Exception {
+        dataSource = new PooledDataSource();
+        dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+        dataSource.setJdbcURL("jdbc:hsqldb:.");
+        dataSource.setUserName("sa");
+        dataSource.setPassword("");
+    }
+
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    public void testConnectionIsReused() throws Exception {
+        Connection first = dataSource.getConnection();
+        first.close();
+        assertTrue(first.isClosed());
+        assertEquals(1, dataSource.getIdleCount());
+
+        Connection second = dataSource.getConnection();
+        assertEquals(0, dataSource.getIdleCount());
+        assertEquals(1, dataSource.getActiveCount());
+        assertFalse(second.isClosed());
+        second.close();
+
+        assertEquals(1, dataSource.getCreatedCount());
+        assertEquals(2, dataSource.getBorrowedCount());
+        try {
+            first.createStatement();
+            fail("A closed connection should not be usable");
+        }
+        catch (SQLException e) {
+            // expected
+        }
+    }
+
+    public void testStatementsAreCached() throws Exception {
+        Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement();
+        statement.execute("create table pooled_items (id integer, name varchar)");
+        statement.close();
+        connection.close();
+
+        for (int i = 0; i < 3; i++) {
+            connection = dataSource.getConnection();
+            PreparedStatement insert = connection.prepareStatement("insert into pooled_items values (?, ?)");
+            insert.setInt(1, i);
+            insert.setString(2, "item" + i);
+            insert.executeUpdate();
+            assertSame(connection, insert.getConnection());
+            insert.close();
+            connection.close();
+        }
+        assertEquals(2, dataSource.getStatementHitCount());
+        assertEquals(1, dataSource.getStatementMissCount());
+
+        connection = dataSource.getConnection();
+        PreparedStatement query = connection.prepareStatement("select count(*) from pooled_items");
+        ResultSet results = query.executeQuery();
+        assertTrue(results.next());
+        assertEquals(3, results.getInt(1));
+        results.close();
+        connection.close();
+        assertTrue("statements are closed with their connection", query.isClosed());
+    }
+
+    public void testStatementSettingsAreReset() throws Exception {
+        Connection connection = dataSource.getConnection();
+        PreparedStatement query = connection.prepareStatement("select count(*) from INFORMATION_SCHEMA.SYSTEM_TABLES");
+        int defaultFetchSize = query.getFetchSize();
+        int defaultMaxRows = query.getMaxRows();
+        query.setFetchSize(defaultFetchSize + 10);
+        query.setMaxRows(defaultMaxRows + 5);
+        query.close();
+        connection.close();
+
+        connection = dataSource.getConnection();
+        query = connection.prepareStatement("select count(*) from INFORMATION_SCHEMA.SYSTEM_TABLES");
+        assertEquals(1, dataSource.getStatementHitCount());
+        assertEquals(defaultFetchSize, query.getFetchSize());
+        assertEquals(defaultMaxRows, query.getMaxRows());
+        query.close();
+        connection.close();
+    }
+
+    public void testTransactionStateIsReset() throws Exception {
+        Connection connection = dataSource.getConnection();
+        connection.setAutoCommit(false);
+        connection.close();
+
+        connection = dataSource.getConnection();
+        assertTrue(connection.getAutoCommit());
+        connection.close();
+    }
+
+    public void testMaxActive() throws Exception {
+        dataSource.setMaxActive(1);
+        dataSource.setMaxWait(50);
+        dataSource.setValidationQuery("select count(*) from system_users");
+
+        Connection connection = dataSource.getConnection();
+        try {
+            dataSource.getConnection();
+            fail("The pool should be exhausted");
+        }
+        catch (SQLException e) {
+            // expected
+        }
+        assertEquals(1, dataSource.getWaitCount());
+        connection.close();
+
+        dataSource.getConnection().close();
+        assertEquals(1, dataSource.getCreatedCount());
+        assertEquals(0, dataSource.getInvalidCount());
+    }
+
+    public void testSetDataSourcePoolsCanBeClosed() throws Exception {
+        DataSource first = setPooledDataSource("");
+        assertSame(first, setPooledDataSource(""));
+        assertNotSame(first, setPooledDataSource("other"));
+
+        SetDataSourceTag.closeAll();
+        try {
+            first.getConnection();
+            fail("A closed pool should not hand out connections");
+        }
+        catch (SQLException e) {
+            // expected
+        }
+        DataSource second = setPooledDataSource("");
+        assertNotSame(first, second);
+
+        CloseDataSourceTag tag = new CloseDataSourceTag();
+        tag.setContext(new JellyContext());
+        tag.setDataSource(second);
+        tag.doTag(null);
+        assertFalse(SetDataSourceTag.closeDataSource(second));
+        assertNotSame(second, setPooledDataSource(""));
+        SetDataSourceTag.closeAll();
+    }
+
+    private DataSource setPooledDataSource(String password) throws Exception {
+        JellyContext context = new JellyContext();
+        SetDataSourceTag tag = new SetDataSourceTag();
+        tag.setContext(context);
+        tag.setDriver("org.hsqldb.jdbcDriver");
+        tag.setUrl("jdbc:hsqldb:.");
+        tag.setUser("sa");
+        tag.setPassword(password);
+        tag.setPooled(true);
+        tag.setVar("dataSource");
+        tag.doTag(null);
+        return (DataSource) context.getVariable("dataSource");
+    }
+}
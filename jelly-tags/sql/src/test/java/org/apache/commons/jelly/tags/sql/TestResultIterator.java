@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.sql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests that ResultIterator reads rows on demand and that the rows of
+ * ResultIterator and ResultImpl behave like case insensitive maps
+ *
+ * @version $Revision$
+ */
+public class TestResultIterator extends TestCase {
+
+    private Connection connection;
+    private Statement statement;
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestResultIterator.class);
+    }
+
+    public TestResultIterator(String testName) {
+        super(testName);
+    }
+
+    public void setUp() throws Exception {
+        Class.forName("org.hsqldb.jdbcDriver");
+        connection = DriverManager.getConnection("jdbc:hsqldb:.", "sa", "");
+        statement = connection.createStatement();
+        statement.execute("create table iterated_rows (id integer, name varchar)");
+        for (int i = 0; i < 10; i++) {
+            statement.execute("insert into iterated_rows values (" + i + ", 'name" + i + "')");
+        }
+    }
+
+    public void tearDown() throws Exception {
+        statement.execute("drop table iterated_rows");
+        statement.close();
+        connection.close();
+    }
+
+    public void testRowsAreReadOnDemand() throws Exception {
+        ResultSet rs = statement.executeQuery("select id, name from iterated_rows order by id");
+        ResultIterator iter = new ResultIterator(rs, 0, -1);
+        assertEquals(0, iter.getRowCount());
+
+        assertTrue(iter.hasNext());
+        Map row = (Map) iter.next();
+        assertEquals(1, iter.getRowCount());
+        assertEquals("name0", row.get("name"));
+        assertEquals("name0", row.get("NAME"));
+
+        int count = 1;
+        while (iter.hasNext()) {
+            row = (Map) iter.next();
+            count++;
+        }
+        assertEquals(10, count);
+        assertEquals(new Integer(9), row.get("id"));
+        assertFalse(iter.isLimitedByMaxRows());
+        rs.close();
+    }
+
+    public void testStartAndMaxRows() throws Exception {
+        ResultSet rs = statement.executeQuery("select id from iterated_rows order by id");
+        ResultIterator iter = new ResultIterator(rs, 8, 5);
+        assertEquals(new Integer(8), ((Map) iter.next()).get("ID"));
+        assertEquals(new Integer(9), ((Map) iter.next()).get("ID"));
+        assertFalse(iter.hasNext());
+        assertFalse(iter.isLimitedByMaxRows());
+        rs.close();
+
+        rs = statement.executeQuery("select id from iterated_rows order by id");
+        iter = new ResultIterator(rs, 0, 2);
+        iter.next();
+        iter.next();
+        assertFalse(iter.hasNext());
+        assertTrue(iter.isLimitedByMaxRows());
+        rs.close();
+    }
+
+    public void testCachedRowsShareColumnIndexes() throws Exception {
+        ResultSet rs = statement.executeQuery("select id, name from iterated_rows order by id");
+        ResultImpl result = new ResultImpl(rs, 0, -1);
+        rs.close();
+
+        SortedMap[] rows = result.getRows();
+        assertEquals(10, rows.length);
+        assertEquals(10, result.getRowsByIndex().length);
+        assertEquals("name3", rows[3].get("Name"));
+        assertEquals(2, rows[3].size());
+        assertEquals("ID", rows[3].firstKey());
+        assertTrue(rows[3].containsKey("id"));
+        assertEquals(result.getRowsByIndex()[3][1], rows[3].get("name"));
+        assertEquals(rows[3].entrySet(), new TreeMap(rows[3]).entrySet());
+    }
+
+    public void testCachedRowsAreReadOnly() throws Exception {
+        ResultSet rs = statement.executeQuery("select id, name from iterated_rows order by id");
+        ResultImpl result = new ResultImpl(rs, 0, -1);
+        rs.close();
+
+        SortedMap[] rows = result.getRows();
+        assertSame(rows, result.getRows());
+        try {
+            rows[0].keySet().remove("name");
+            fail("the column names are shared by every row");
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            rows[0].put("name", "changed");
+            fail("rows are read only");
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals("name1", rows[1].get("name"));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.jelly.tags.threads;
+
+import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.TagSupport;
+import org.apache.commons.jelly.XMLOutput;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates a pool of a fixed number of threads which runs the scripts of
+ * thread tags, so that any number of thread tags only use that many
+ * threads. Thread and group tags inside the body of this tag use the pool,
+ * as do those whose <i>executor</i> attribute is set to it.
+ *
+ * <p>By default, unless <i>var</i> is set, the pool is shut down once the
+ * body has been run and this tag waits until all the threads it was given
+ * are done. A pool exported through <i>var</i> is not shut down, and its
+ * threads are kept until the caller shuts it down.</p>
+ *
+ * @version $Revision$
+ */
+
+public class ExecutorTag extends TagSupport {
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(ExecutorTag.class);
+
+    /** How long to wait for the threads of the pool between log messages, in millis */
+    private static final long WAIT_TIME = 60000;
+
+    /** The current pool number. Used for default pool naming */
+    private static int poolNumber = 0;
+
+    /** Variable to place the executor into */
+    private String var = null;
+    /** The name of the pool, used to name its threads */
+    private String name = null;
+    /** The number of threads in the pool */
+    private int size = Runtime.getRuntime().availableProcessors();
+    /** Thread priority, defaults to Thread.NORM_PRIORITY */
+    private int priority = Thread.NORM_PRIORITY;
+    /** Set if the threads should be daemons or not */
+    private boolean daemon = false;
+    /** Should the pool be shut down once the body is done */
+    private Boolean shutdown = null;
+    /** The executor created by this tag */
+    private ExecutorService executor = null;
+
+    // Tag interface
+    //-------------------------------------------------------------------------
+    public void doTag(XMLOutput output) throws JellyTagException {
+        if (size < 1) {
+            throw new JellyTagException("The size of the pool must be positive: " + size);
+        }
+        executor = createExecutor();
+        if (var != null) {
+            context.setVariable(var, executor);
+        }
+
+        try {
+            invokeBody(output);
+        }
+        finally {
+            boolean shouldShutdown = (shutdown != null) ? shutdown.booleanValue() : var == null;
+            if (shouldShutdown) {
+                executor.shutdown();
+            }
+        }
+
+        if (executor.isShutdown()) {
+            try {
+                while (!executor.awaitTermination(WAIT_TIME, TimeUnit.MILLISECONDS)) {
+                    log.debug("Waiting for the threads of " + executor + " to finish");
+                }
+            }
+            catch (InterruptedException e) {
+                throw new JellyTagException(e);
+            }
+        }
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the executor created by this tag
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the variable name to export the ExecutorService as, optional.
+     * The exported pool is not shut down by this tag unless <i>shutdown</i>
+     * is set, so it must be shut down by the caller once it is no longer used.
+     */
+    public void setVar(String var) {
+        this.var = var;
+        if (name == null) {
+            name = var;
+        }
+    }
+
+    /**
+     * Sets the name of the pool, which its threads are named after
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Sets the number of threads in the pool, which defaults to the number
+     * of processors
+     */
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Set the priority of the pool threads. Defaults to Thread.NORM_PRIORITY
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Sets the pool threads to be daemon threads if true
+     */
+    public void setDaemon(boolean daemon) {
+        this.daemon = daemon;
+    }
+
+    /**
+     * If true the pool is shut down once the body has been run and this
+     * tag waits for its threads to finish. Defaults to true unless
+     * <i>var</i> is set.
+     */
+    public void setShutdown(boolean shutdown) {
+        this.shutdown = shutdown ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Creates a pool of <i>size</i> threads
+     */
+    protected ExecutorService createExecutor() {
+        final String poolName = (name != null) ? name : "Jelly Executor #" + (poolNumber++);
+        ThreadFactory factory = new ThreadFactory() {
+            private int threadNumber = 0;
+
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, poolName + " #" + (threadNumber++));
+                thread.setPriority(priority);
+                thread.setDaemon(daemon);
+                return thread;
+            }
+        };
+        return new ThreadPoolExecutor(
+            size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue(), factory) {
+            public String toString() {
+                return poolName;
+            }
+        };
+    }
+}
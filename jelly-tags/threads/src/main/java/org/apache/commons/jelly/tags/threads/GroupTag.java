@@ -23,12 +23,14 @@ import org.apache.commons.jelly.XMLOutput;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Represents a group of threads. This is not the same as Java's thread groups.
  * All of the threads in a thread group are started at the same time, not as they
  * are defined. Use this in conjunction with other tags like join to manipulate
- * a group of threads.
+ * a group of threads. If an executor is set the threads of the group which
+ * do not have their own are run by it.
  *
  * @author <a href="mailto:jason@jhorman.org">Jason Horman</a>
  */
@@ -38,9 +40,12 @@ public class GroupTag extends TagSupport {
     private String var = null;
     /** The thread list */
     private List threads = new ArrayList();
+    /** The executor to run the threads with */
+    private Executor executor = null;
 
     /** Child threads will add themselves and will then all be started together */
     public void doTag(XMLOutput output) throws JellyTagException {
+        threads = new ArrayList();
         invokeBody(output);
 
         // store the group in a jelly variable
@@ -51,7 +56,16 @@ public class GroupTag extends TagSupport {
         // start the threads
         for (int i = 0; i < threads.size(); i++) {
             Thread thread = (Thread) threads.get(i);
-            thread.start();
+            if (thread instanceof JellyThread) {
+                JellyThread jellyThread = (JellyThread) thread;
+                if (executor != null && jellyThread.getExecutor() == null) {
+                    jellyThread.setExecutor(executor);
+                }
+                jellyThread.startTask();
+            }
+            else {
+                thread.start();
+            }
         }
     }
 
@@ -65,6 +79,11 @@ public class GroupTag extends TagSupport {
         return threads;
     }
 
+    /** Set the executor to run the threads of the group with */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     /** Set the variable name to store the thread group in */
     public void setVar(String var) {
         this.var = var;
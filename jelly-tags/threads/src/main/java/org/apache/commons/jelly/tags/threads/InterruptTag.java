@@ -30,13 +30,22 @@ import java.util.List;
 public class InterruptTag extends UseThreadTag {
     /** Interrupt one thread */
     protected void useThread(Thread thread, XMLOutput output) {
-        thread.interrupt();
+        interrupt(thread);
     }
 
     /** Interrupt all of the threads in a group */
     protected void useThreadGroup(List threadGroup, XMLOutput output) {
         for (int i = 0; i < threadGroup.size(); i++) {
-            ((Thread) threadGroup.get(i)).interrupt();
+            interrupt((Thread) threadGroup.get(i));
+        }
+    }
+
+    /** Interrupt whichever thread is running the script of the thread */
+    private void interrupt(Thread thread) {
+        if (thread instanceof JellyThread) {
+            ((JellyThread) thread).interruptTask();
+        } else {
+            thread.interrupt();
         }
     }
 }
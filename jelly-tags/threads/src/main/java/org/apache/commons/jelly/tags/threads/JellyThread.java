@@ -16,12 +16,28 @@
  */
 package org.apache.commons.jelly.tags.threads;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * Adds some functionality to the jdk thread class.
  *
+ * <p>The target is run as a task whose completion is tracked by a
+ * {@link Future}. The task is either run by this thread, when it is
+ * started, or by an {@link Executor}, in which case this thread is never
+ * started and only acts as a handle to the task. Use {@link #startTask()}
+ * to do whichever is appropriate, and the task methods such as
+ * {@link #waitUntilDone(long)}, {@link #interruptTask()} and
+ * {@link #cancel()} rather than those of <code>Thread</code> to control
+ * it.</p>
+ *
  * @author <a href="mailto:jason@jhorman.org">Jason Horman</a>
  */
 
@@ -29,23 +45,23 @@ public class JellyThread extends Thread {
     /** The Log to which logging calls will be made. */
     private static final Log log = LogFactory.getLog(ThreadTag.class);
 
-    /** While this thread is still running it owns this mutex */
-    private Mutex runningMutex = new Mutex();
+    /** The task which runs the target, done once the target has finished */
+    private FutureTask task = new FutureTask(new Runnable() {
+        public void run() {
+            runTarget();
+        }
+    }, null);
     /** The Runnable target */
     private Runnable target = null;
+    /** The executor to run the task with, or null to start this thread */
+    private Executor executor = null;
+    /** The thread running the task while it is running */
+    private volatile Thread runner = null;
 
     /** Tracks the status of this thread */
     RunnableStatus status = new RunnableStatus();
 
     public JellyThread() {
-        // acquire my still running lock immediately
-        while (true) {
-            try {
-                runningMutex.acquire();
-                break;
-            } catch (InterruptedException e) {
-            }
-        }
     }
 
     /**
@@ -55,11 +71,56 @@ public class JellyThread extends Thread {
         this.target = target;
     }
 
+    /**
+     * Set the executor to run the target with. If not set the target is
+     * run by starting this thread.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor to run the target with, or null if this thread
+     *  will be started to run it
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the Future tracking the completion of the target
+     */
+    public Future getFuture() {
+        return task;
+    }
+
+    /**
+     * Runs the target, either by submitting it to the executor or by
+     * starting this thread
+     */
+    public void startTask() {
+        if (executor != null) {
+            log.debug("Submitting thread \"" + getName() + "\" to " + executor);
+            executor.execute(task);
+        }
+        else {
+            start();
+        }
+    }
+
     /**
      * Run the thread
      */
     public void run() {
+        task.run();
+    }
+
+    /**
+     * Runs the target and records its status
+     */
+    protected void runTarget() {
         log.debug("Starting thread \"" + getName() + "\"");
+        runner = Thread.currentThread();
 
         // run the runnable item
         try {
@@ -87,11 +148,10 @@ public class JellyThread extends Thread {
             log.error("Thread \"" + getName() + "\" failure, " + e.getMessage());
             log.debug(e);
 
+        } finally {
+            runner = null;
         }
 
-        // release the i'm still running mutex
-        runningMutex.release();
-
         log.debug("Thread \"" + getName() + "\" finished");
     }
 
@@ -100,25 +160,87 @@ public class JellyThread extends Thread {
      * is used by the {@link WaitForTag} class.
      */
     public void waitUntilDone(long howLong) throws TimeoutException {
-        if (Thread.currentThread() == this) {
+        if (Thread.currentThread() == this || Thread.currentThread() == runner) {
             throw new RuntimeException("This method should be called from a different thread than itself");
         }
 
-        // wait until the calling thread can acquire the lock
+        // wait until the task is done, ignoring interruptions as before
         while (true) {
             try {
                 if (howLong == -1) {
-                    runningMutex.acquire();
-                    break;
-                } else if (!runningMutex.attempt(howLong)) {
-                    throw new TimeoutException("max wait time exceeded");
+                    task.get();
+                } else {
+                    task.get(howLong, TimeUnit.MILLISECONDS);
                 }
+                break;
+            } catch (java.util.concurrent.TimeoutException e) {
+                throw new TimeoutException("max wait time exceeded");
             } catch (InterruptedException e) {
+            } catch (ExecutionException e) {
+                // the status records the failure
+                break;
+            } catch (CancellationException e) {
+                break;
             }
         }
+    }
 
-        // release the lock, just needed it to get started
-        runningMutex.release();
+    /**
+     * Waits until the task is done, or until the timeout expires
+     *
+     * @param timeout the maximum time to wait in millis, if <= 0 waits
+     *  until the task is done
+     * @return true if the task is done
+     */
+    public boolean joinTask(long timeout) throws InterruptedException {
+        try {
+            if (timeout > 0) {
+                task.get(timeout, TimeUnit.MILLISECONDS);
+            } else {
+                task.get();
+            }
+        } catch (java.util.concurrent.TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            // the status records the failure
+        } catch (CancellationException e) {
+            // cancelled tasks are done
+        }
+        return true;
+    }
+
+    /**
+     * Interrupts the thread running the task, if it is running
+     */
+    public void interruptTask() {
+        Thread thread = runner;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Cancels the task. A task which has not started yet will never run,
+     * and has the status KILLED, while the thread running a running task
+     * is interrupted. Anything waiting for the task stops waiting.
+     *
+     * @return false if the task had already completed
+     */
+    public boolean cancel() {
+        boolean started = runner != null;
+        boolean answer = task.cancel(true);
+        if (answer && !started) {
+            status.set(RunnableStatus.KILLED);
+        }
+        log.debug("Thread \"" + getName() + "\" cancelled");
+        return answer;
+    }
+
+    /**
+     * @return true if the task has completed or was cancelled
+     */
+    public boolean isDone() {
+        return task.isDone();
     }
 
     /** Get the status of this thread */
@@ -44,7 +44,9 @@ public class JoinTag extends UseThreadTag {
 
     /** Join a thread */
     private void joinThread(Thread thread) throws InterruptedException {
-        if (timeout > 0) {
+        if (thread instanceof JellyThread) {
+            ((JellyThread) thread).joinTask(timeout);
+        } else if (timeout > 0) {
             thread.join(timeout);
         } else {
             thread.join();
@@ -28,10 +28,14 @@ import org.apache.commons.logging.LogFactory;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Executor;
 
 /**
  * A tag that spawns the contained script in a separate thread.  A thread
  * can wait on another thread or another thread group to finish before starting.
+ * If an executor is set, or the tag is inside an {@link ExecutorTag}, the
+ * script is run by the executor rather than by a thread of its own, in which
+ * case the priority and daemon attributes do not apply.
  *
  * @author <a href="mailto:vinayc@apache.org">Vinay Chandran</a>
  * @author <a href="mailto:jason@jhorman.org">Jason Horman</a>
@@ -57,8 +61,10 @@ public class ThreadTag extends TagSupport {
     private boolean closeOutput;
     /** Should a new context be created */
     private boolean newContext = false;
+    /** The executor to run the script with */
+    private Executor executor = null;
     /** Keep a reference to the thread */
-    private JellyThread thread = new JellyThread();
+    private JellyThread thread;
 
     public ThreadTag() {
         super();
@@ -81,6 +87,9 @@ public class ThreadTag extends TagSupport {
             }
         }
 
+        // each run of this tag uses a new thread, as a thread can only run once
+        thread = new JellyThread();
+
         // lets create a child context
         final JellyContext useThisContext = newContext ? context.newJellyContext() : context;
 
@@ -139,6 +148,17 @@ public class ThreadTag extends TagSupport {
         // set whether this thread is a daemon thread
         thread.setDaemon(daemon);
 
+        // use the given executor or that of an enclosing executor tag
+        if (executor != null) {
+            thread.setExecutor(executor);
+        }
+        else {
+            ExecutorTag et = (ExecutorTag) findAncestorWithClass(ExecutorTag.class);
+            if (et != null) {
+                thread.setExecutor(et.getExecutor());
+            }
+        }
+
         // save the thread in a context variable
         if (var != null) {
             context.setVariable(var, thread);
@@ -152,7 +172,7 @@ public class ThreadTag extends TagSupport {
             gt.addThread(thread);
         } else {
             // start the thread
-            thread.start();
+            thread.startTask();
         }
     }
 
@@ -206,6 +226,14 @@ public class ThreadTag extends TagSupport {
         setXmlOutput(XMLOutput.createXMLOutput(new FileOutputStream(name)));
     }
 
+    /**
+     * Sets the executor to run the script with, such as a pool created
+     * by {@link ExecutorTag}
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     /**
      * Should a new context be created for this thread?
      */
@@ -214,10 +242,14 @@ public class ThreadTag extends TagSupport {
     }
 
     /**
-     * Get the thread instance
+     * Get the thread instance, which is created when this tag is run or
+     * when it is first asked for
      * @return The thread
      */
     public Thread getThread() {
+        if (thread == null) {
+            thread = new JellyThread();
+        }
         return thread;
     }
 }
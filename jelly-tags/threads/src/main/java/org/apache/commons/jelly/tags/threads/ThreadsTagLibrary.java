@@ -28,6 +28,8 @@ import org.apache.commons.jelly.TagLibrary;
 public class ThreadsTagLibrary extends TagLibrary {
     public ThreadsTagLibrary() {
         registerTag("thread", ThreadTag.class);
+        registerTag("executor", ExecutorTag.class);
+        registerTag("cancel", CancelTag.class);
         registerTag("interrupt", InterruptTag.class);
         registerTag("join", JoinTag.class);
         registerTag("mutex", MutexTag.class);
@@ -18,7 +18,6 @@ package org.apache.commons.jelly.tags.xml;
 
 import java.util.Iterator;
 import java.util.List;
-import java.util.Collections;
 
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.XMLOutput;
@@ -67,7 +66,7 @@ public class ForEachTag extends XPathTagSupport implements XPathSource {
 
             // sort the list if xpCmp is set.
             if (xpCmp != null && (xpCmp.getXpath() != null)) {
-                Collections.sort(nodes, xpCmp);
+                xpCmp.sort(nodes);
             }
 
             Iterator iter = nodes.iterator();
@@ -121,6 +120,15 @@ public class ForEachTag extends XPathTagSupport implements XPathSource {
         xpCmp.setDescending(descending);
     }
 
+    /**
+     * Sets whether the sort keys of large node sets are extracted by
+     * several threads.
+     */
+    public void setParallelSort(boolean parallelSort) {
+        if (xpCmp == null) xpCmp = new XPathComparator();
+        xpCmp.setParallel(parallelSort);
+    }
+
     /*
      * Override superclass so method can be access by IfTag
      */
@@ -104,7 +104,7 @@ public class SetTag extends XPathTagSupport {
             List list = (List) value;
             // sort the list if xpCmp is set.
             if (xpCmp != null && (xpCmp.getXpath() != null)) {
-                Collections.sort(list, xpCmp);
+                xpCmp.sort(list);
             }
             if(list.isEmpty()) {
                 value = null;
@@ -314,4 +314,13 @@ public class SetTag extends XPathTagSupport {
         if (xpCmp == null) xpCmp = new XPathComparator();
         xpCmp.setDescending(descending);
     }
+
+    /**
+     * Sets whether the sort keys of large node sets are extracted by
+     * several threads.
+     */
+    public void setParallelSort(boolean parallelSort) {
+        if (xpCmp == null) xpCmp = new XPathComparator();
+        xpCmp.setParallel(parallelSort);
+    }
 }
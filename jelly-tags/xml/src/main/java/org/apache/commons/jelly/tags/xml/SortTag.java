@@ -26,7 +26,6 @@ import org.jaxen.XPath;
 import org.jaxen.JaxenException;
 
 import java.util.List;
-import java.util.Collections;
 
 /** A tag that can sort a list of xml nodes via an xpath expression.
   *
@@ -50,7 +49,7 @@ public class SortTag extends XPathTagSupport {
             throw new MissingAttributeException( "list" );
         }
 
-        Collections.sort(list, xpCmp);
+        xpCmp.sort(list);
     }
 
     /** Set the list to sort. */
@@ -72,4 +71,13 @@ public class SortTag extends XPathTagSupport {
         if (xpCmp == null) xpCmp = new XPathComparator();
         xpCmp.setDescending(descending);
     }
+
+    /**
+     * Sets whether the sort keys of large node sets are extracted by
+     * several threads.
+     */
+    public void setParallelSort(boolean parallelSort) {
+        if (xpCmp == null) xpCmp = new XPathComparator();
+        xpCmp.setParallel(parallelSort);
+    }
 }
@@ -0,0 +1,382 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.Templates;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p><code>TemplatesCache</code> is a thread safe, size bounded, least
+ * recently used cache of compiled XSLT stylesheets, used by
+ * {@link TransformTag} so that a stylesheet is only compiled once.</p>
+ *
+ * <p>Stylesheets are keyed either by their URL or by their content, given
+ * as a String or byte array. If <code>checkModified</code> is enabled then
+ * the last modified time of a stylesheet URL is compared with the time it
+ * was cached, so that edited stylesheets are compiled again. Local files
+ * are checked on each lookup, while other URLs are checked at most once
+ * every <code>checkInterval</code> milliseconds so that a stylesheet on a
+ * server is not requested for every transform.</p>
+ *
+ * <p>Only the stylesheet itself is checked. Changes to the stylesheets it
+ * includes or imports are not noticed, and those are resolved with the
+ * URIResolver of the tag which compiled the stylesheet first. Such
+ * stylesheets should be removed from the cache when they change, or
+ * not cached.</p>
+ *
+ * @version $Revision$
+ */
+public class TemplatesCache {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(TemplatesCache.class);
+
+    /** The default maximum number of stylesheets to cache */
+    public static final int DEFAULT_MAXIMUM_SIZE = 50;
+
+    /** The default time between checks of stylesheet URLs other than files, in millis */
+    public static final long DEFAULT_CHECK_INTERVAL = 60000;
+
+    /** The cache shared by all TransformTags */
+    private static final TemplatesCache sharedInstance = new TemplatesCache();
+
+    /** The maximum number of stylesheets to cache */
+    private final int maximumSize;
+
+    /** Whether the last modified time of stylesheet URLs is checked on each lookup */
+    private boolean checkModified;
+
+    /** The time between checks of stylesheet URLs other than files, in millis */
+    private volatile long checkInterval = DEFAULT_CHECK_INTERVAL;
+
+    /** The cache entries in least recently used order */
+    private final Map entries;
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @return the cache shared by all TransformTags
+     */
+    public static TemplatesCache getSharedInstance() {
+        return sharedInstance;
+    }
+
+    /**
+     * Creates a cache holding up to {@link #DEFAULT_MAXIMUM_SIZE} stylesheets
+     * which checks whether stylesheets have been modified
+     */
+    public TemplatesCache() {
+        this(DEFAULT_MAXIMUM_SIZE, true);
+    }
+
+    /**
+     * Creates a cache holding up to the given number of stylesheets
+     *
+     * @param maximumSize the maximum number of stylesheets to cache
+     * @param checkModified whether the last modified time of stylesheet URLs
+     *  is checked on each lookup
+     */
+    public TemplatesCache(int maximumSize, boolean checkModified) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.checkModified = checkModified;
+        this.entries = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > TemplatesCache.this.maximumSize;
+            }
+        };
+    }
+
+    public String toString() {
+        return super.toString() + "[size=" + getSize() + ";hits=" + getHitCount()
+            + ";misses=" + getMissCount() + "]";
+    }
+
+    /**
+     * Finds the compiled stylesheet for the given source
+     *
+     * @param source the URL of the stylesheet or its content as a String or byte array
+     * @return the compiled stylesheet or null if it is not cached or has been modified
+     */
+    public Templates getTemplates(Object source) {
+        Object key = createKey(source);
+        CacheEntry entry;
+        synchronized (this) {
+            entry = (CacheEntry) entries.get(key);
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+        }
+        if (checkModified && source instanceof URL
+            && isCheckDue(entry, (URL) source)
+            && entry.lastModified != getLastModified((URL) source)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Stylesheet has been modified since it was cached: " + source);
+            }
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+                missCount++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            hitCount++;
+        }
+        return entry.templates;
+    }
+
+    /**
+     * Caches the compiled stylesheet for the given source
+     *
+     * @param source the URL of the stylesheet or its content as a String or byte array
+     * @param templates the compiled stylesheet
+     */
+    public void putTemplates(Object source, Templates templates) {
+        long lastModified = 0;
+        if (checkModified && source instanceof URL) {
+            lastModified = getLastModified((URL) source);
+        }
+        CacheEntry entry = new CacheEntry(templates, lastModified, System.currentTimeMillis());
+        Object key = createKey(source);
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Removes the compiled stylesheet for the given source, if it is cached
+     */
+    public synchronized void removeTemplates(Object source) {
+        entries.remove(createKey(source));
+    }
+
+    /**
+     * Removes all the cached stylesheets
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the maximum number of stylesheets which will be cached
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return the number of stylesheets currently cached
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return whether the last modified time of stylesheet URLs is checked on each lookup
+     */
+    public boolean isCheckModified() {
+        return checkModified;
+    }
+
+    /**
+     * Sets whether the last modified time of stylesheet URLs is checked on each lookup
+     */
+    public void setCheckModified(boolean checkModified) {
+        this.checkModified = checkModified;
+    }
+
+    /**
+     * @return the time between checks of stylesheet URLs other than files, in millis
+     */
+    public long getCheckInterval() {
+        return checkInterval;
+    }
+
+    /**
+     * Sets the time between checks of whether stylesheet URLs other than
+     * files have been modified, which defaults to {@link #DEFAULT_CHECK_INTERVAL}.
+     * Zero checks them on each lookup.
+     */
+    public void setCheckInterval(long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * @return the number of lookups which found a valid compiled stylesheet
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups which did not find a valid compiled stylesheet
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the key of the given source, so that URLs are compared by their
+     *  text and stylesheet content by value
+     */
+    private Object createKey(Object source) {
+        if (source instanceof URL) {
+            return source.toString();
+        }
+        if (source instanceof String || source instanceof byte[]) {
+            return new ContentKey(source);
+        }
+        throw new IllegalArgumentException(
+            "The source of a stylesheet must be a URL, String or byte array. Was type: "
+            + (source == null ? null : source.getClass().getName()));
+    }
+
+    /**
+     * @return whether the stylesheet of the given entry should be checked
+     * for changes now. Files are always checked, other URLs once an interval.
+     */
+    private boolean isCheckDue(CacheEntry entry, URL url) {
+        if ("file".equals(url.getProtocol())) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now - entry.checkedTime < checkInterval) {
+            return false;
+        }
+        entry.checkedTime = now;
+        return true;
+    }
+
+    /**
+     * @return the last modified time of the given URL or 0 if it is not known.
+     * Local files are checked directly rather than via a URLConnection,
+     * and only the headers of HTTP URLs are requested.
+     */
+    protected long getLastModified(URL url) {
+        if ("file".equals(url.getProtocol())) {
+            File file;
+            try {
+                file = new File(url.toURI());
+            }
+            catch (URISyntaxException e) {
+                file = new File(url.getFile());
+            }
+            catch (IllegalArgumentException e) {
+                file = new File(url.getFile());
+            }
+            return file.lastModified();
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).setRequestMethod("HEAD");
+            }
+            try {
+                return connection.getLastModified();
+            }
+            finally {
+                try {
+                    connection.getInputStream().close();
+                }
+                catch (IOException e) {
+                    // ignore, we only wanted the header
+                }
+            }
+        }
+        catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Could not determine last modified time of: " + url, e);
+            }
+            return 0;
+        }
+    }
+
+    private static class CacheEntry {
+        final Templates templates;
+        final long lastModified;
+
+        /** When the stylesheet was last checked for changes */
+        volatile long checkedTime;
+
+        CacheEntry(Templates templates, long lastModified, long checkedTime) {
+            this.templates = templates;
+            this.lastModified = lastModified;
+            this.checkedTime = checkedTime;
+        }
+    }
+
+    /**
+     * The key of a stylesheet given by its content, which hashes the content
+     * and compares it in full
+     */
+    private static class ContentKey {
+        private final Object content;
+        private final int hashCode;
+
+        ContentKey(Object content) {
+            this.content = content;
+            if (content instanceof byte[]) {
+                this.hashCode = Arrays.hashCode((byte[]) content);
+            }
+            else {
+                this.hashCode = content.hashCode();
+            }
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey that = (ContentKey) object;
+            if (hashCode != that.hashCode) {
+                return false;
+            }
+            if (content instanceof byte[] && that.content instanceof byte[]) {
+                return Arrays.equals((byte[]) content, (byte[]) that.content);
+            }
+            return content.equals(that.content);
+        }
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.commons.jelly.tags.xml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,6 +31,7 @@ import java.util.List;
 
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -73,6 +76,10 @@ import org.xml.sax.helpers.XMLReaderFactory;
   *
   * The XSL can be passed in via the
   * xslt property which can be a Reader, InputStream, URL or String URI.
+  * Compiled stylesheets are shared via the {@link TemplatesCache} unless
+  * the cache property is false or the xslt is a Document. The cache does
+  * not notice changes to the stylesheets included or imported by a cached
+  * stylesheet.
   *
   * @author Robert Leftwich
   * @version $Revision$
@@ -95,6 +102,9 @@ public class TransformTag extends ParseTag {
     /** the transformer handler, doing the real work */
     private TransformerHandler transformerHandler;
 
+    /** Whether the compiled stylesheet is cached */
+    private boolean cache = true;
+
     /**
      * Constructor for TransformTag.
      */
@@ -119,15 +129,26 @@ public class TransformTag extends ParseTag {
         }
 
         // set a resolver to locate uri
-        this.tf.setURIResolver(createURIResolver());
+        URIResolver uriResolver = createURIResolver();
+        this.tf.setURIResolver(uriResolver);
 
         try {
-            this.transformerHandler =
-                this.tf.newTransformerHandler(this.getObjAsSAXSource(this.getXslt()));
+            Templates templates = this.getTemplates(this.getXslt());
+            if (null == templates) {
+                this.transformerHandler =
+                    this.tf.newTransformerHandler(this.getObjAsSAXSource(this.getXslt()));
+            }
+            else {
+                this.transformerHandler = this.tf.newTransformerHandler(templates);
+                this.transformerHandler.getTransformer().setURIResolver(uriResolver);
+            }
         }
         catch (TransformerConfigurationException e) {
             throw new JellyTagException(e);
         }
+        catch (IOException e) {
+            throw new JellyTagException(e);
+        }
 
         // run any nested param tags
         this.doNestedParamTag(output);
@@ -188,6 +209,24 @@ public class TransformTag extends ParseTag {
         this.xslt = xslt;
     }
 
+    /**
+     * @return whether the compiled stylesheet is cached
+     */
+    public boolean isCache() {
+        return this.cache;
+    }
+
+    /**
+     * Sets whether the compiled stylesheet is kept in the shared
+     * {@link TemplatesCache}, which is the default, so that later
+     * transforms with the same stylesheet do not compile it again.
+     *
+     * @param cache whether the compiled stylesheet is cached
+     */
+    public void setCache(boolean cache) {
+        this.cache = cache;
+    }
+
     public void setParameterValue(String name, Object value) {
         this.transformerHandler.getTransformer().setParameter(name, value);
     }
@@ -283,6 +322,102 @@ public class TransformTag extends ParseTag {
         return xmlInputSource;
     }
 
+    /**
+     * Gets the compiled stylesheet for the given xslt source from the shared
+     * {@link TemplatesCache}, compiling and caching it if it is not cached.
+     * Stylesheets given by a URI, URL or File are keyed by their URL and
+     * those given by a Reader or InputStream by their content. Stylesheets
+     * given as a Document are not cached, as they would have to be
+     * serialized to be compared.
+     *
+     * @return the compiled stylesheet or null if it should not be cached
+     */
+    protected Templates getTemplates(Object xsltObj)
+        throws TransformerConfigurationException, IOException {
+        if (!this.cache) {
+            return null;
+        }
+
+        Object key = null;
+        Source source = null;
+        if (xsltObj instanceof Reader) {
+            String text = readFully((Reader) xsltObj);
+            key = text;
+            source = new SAXSource(new InputSource(new StringReader(text)));
+        }
+        else if (xsltObj instanceof InputStream) {
+            byte[] bytes = readFully((InputStream) xsltObj);
+            key = bytes;
+            source = new SAXSource(new InputSource(new ByteArrayInputStream(bytes)));
+        }
+        else if (xsltObj instanceof Document) {
+            return null;
+        }
+        else {
+            key = this.getXsltURL(xsltObj);
+            if (null == key) {
+                return null;
+            }
+        }
+
+        TemplatesCache templatesCache = TemplatesCache.getSharedInstance();
+        Templates templates = templatesCache.getTemplates(key);
+        if (null == templates) {
+            if (null == source) {
+                source = this.getObjAsSAXSource(xsltObj);
+            }
+            templates = this.tf.newTemplates(source);
+            templatesCache.putTemplates(key, templates);
+        }
+        return templates;
+    }
+
+    /**
+     * Helper method to resolve a String URI, URL or File source
+     * to a URL in the same way as {@link #getInputSourceFromObj}
+     *
+     * @return the URL of the source or null if it cannot be resolved
+     */
+    private URL getXsltURL(Object sourceObj) {
+        try {
+            if (sourceObj instanceof String) {
+                return context.getResource((String) sourceObj);
+            }
+            else if (sourceObj instanceof URL) {
+                return context.getResource(((URL) sourceObj).toString());
+            }
+            else if (sourceObj instanceof File) {
+                return context.getResource(((File) sourceObj).toURL().toString());
+            }
+        }
+        catch (MalformedURLException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Could not resolve xslt: " + sourceObj, e);
+            }
+        }
+        return null;
+    }
+
+    private static String readFully(Reader reader) throws IOException {
+        StringWriter writer = new StringWriter();
+        char[] buffer = new char[4096];
+        int count;
+        while ((count = reader.read(buffer)) >= 0) {
+            writer.write(buffer, 0, count);
+        }
+        return writer.toString();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
     /**
      * Helper method to convert the specified object to a SAX source
      *
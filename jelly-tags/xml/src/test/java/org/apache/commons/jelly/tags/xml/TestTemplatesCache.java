@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.xml;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.XMLOutput;
+
+/**
+ * Tests the caching of compiled stylesheets used by TransformTag
+ *
+ * @version $Revision$
+ */
+public class TestTemplatesCache extends TestCase {
+
+    private static final String STYLESHEET =
+        "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'/>";
+
+    public static void main(String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestTemplatesCache.class);
+    }
+
+    public TestTemplatesCache(String testName) {
+        super(testName);
+    }
+
+    public void testTransformReusesCompiledStylesheet() throws Exception {
+        URL url = new File("target/test-classes/org/apache/commons/jelly/tags/xml/transformExample.jelly").toURL();
+        TemplatesCache cache = TemplatesCache.getSharedInstance();
+        cache.clear();
+        long hits = cache.getHitCount();
+
+        for (int i = 0; i < 3; i++) {
+            StringWriter buffer = new StringWriter();
+            XMLOutput output = XMLOutput.createXMLOutput(buffer);
+            new JellyContext().runScript(url, output);
+            output.flush();
+            assertEquals("It works!", buffer.toString().trim());
+        }
+        assertEquals(1, cache.getSize());
+        assertEquals(hits + 2, cache.getHitCount());
+    }
+
+    public void testContentKeys() throws Exception {
+        TemplatesCache cache = new TemplatesCache();
+        Templates templates = compile();
+
+        cache.putTemplates(new String(STYLESHEET), templates);
+        assertSame(templates, cache.getTemplates(new String(STYLESHEET)));
+        assertNull(cache.getTemplates(STYLESHEET + " "));
+
+        cache.putTemplates(STYLESHEET.getBytes("UTF-8"), templates);
+        assertSame(templates, cache.getTemplates(STYLESHEET.getBytes("UTF-8")));
+        assertEquals(2, cache.getSize());
+    }
+
+    public void testModifiedStylesheetIsRecompiled() throws Exception {
+        File file = File.createTempFile("stylesheet", ".xsl");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        writer.write(STYLESHEET);
+        writer.close();
+        file.setLastModified(1000000000000L);
+        URL url = file.toURL();
+
+        TemplatesCache cache = new TemplatesCache();
+        Templates templates = compile();
+        cache.putTemplates(url, templates);
+        assertSame(templates, cache.getTemplates(url));
+
+        file.setLastModified(2000000000000L);
+        assertNull("modified stylesheet should not be found", cache.getTemplates(url));
+        assertEquals(0, cache.getSize());
+
+        cache.setCheckModified(false);
+        cache.putTemplates(url, templates);
+        file.setLastModified(1000000000000L);
+        assertSame(templates, cache.getTemplates(url));
+    }
+
+    public void testModifiedStylesheetWithEncodedURL() throws Exception {
+        File directory = new File("target/style sheets");
+        directory.mkdirs();
+        File file = new File(directory, "stylesheet.xsl");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        writer.write(STYLESHEET);
+        writer.close();
+        file.setLastModified(1000000000000L);
+        URL url = file.toURI().toURL();
+        assertTrue(url.toString().indexOf("%20") >= 0);
+
+        TemplatesCache cache = new TemplatesCache();
+        cache.putTemplates(url, compile());
+        assertNotNull(cache.getTemplates(url));
+
+        file.setLastModified(2000000000000L);
+        assertNull("modified stylesheet should not be found", cache.getTemplates(url));
+    }
+
+    public void testRemoteStylesheetIsCheckedOnceAnInterval() throws Exception {
+        final int[] checks = new int[1];
+        TemplatesCache cache = new TemplatesCache() {
+            protected long getLastModified(URL url) {
+                checks[0]++;
+                return 0;
+            }
+        };
+        URL url = new URL("http://localhost/stylesheet.xsl");
+        cache.putTemplates(url, compile());
+        checks[0] = 0;
+
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.getTemplates(url));
+        }
+        assertEquals(0, checks[0]);
+
+        cache.setCheckInterval(0);
+        assertNotNull(cache.getTemplates(url));
+        assertEquals(1, checks[0]);
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        TemplatesCache cache = new TemplatesCache(2, false);
+        Templates templates = compile();
+        cache.putTemplates("a", templates);
+        cache.putTemplates("b", templates);
+        cache.getTemplates("a");
+        cache.putTemplates("c", templates);
+
+        assertEquals(2, cache.getSize());
+        assertNotNull(cache.getTemplates("a"));
+        assertNull(cache.getTemplates("b"));
+        assertNotNull(cache.getTemplates("c"));
+    }
+
+    private Templates compile() throws Exception {
+        return TransformerFactory.newInstance().newTemplates(new StreamSource(new StringReader(STYLESHEET)));
+    }
+}